@@ -52,6 +52,21 @@
     </table>
   </div>
 </c:if>
+<c:if test="${not empty s.counts}">
+  <div class='records'>
+    <table>
+      <c:forEach items="${s.counts}" var="c">
+        <tr><th colspan="2"><c:out value="${c.key}"/></th></tr>
+        <c:forEach items="${c.value}" var="v">
+          <tr>
+            <td><c:out value="${v.key}"/></td>
+            <td><c:out value="${v.value}"/></td>
+          </tr>
+        </c:forEach>
+      </c:forEach>
+    </table>
+  </div>
+</c:if>
 
 </body>
 </html>
\ No newline at end of file
@@ -21,7 +21,6 @@ package tdunnick.phinmsx.controller;
 
 import java.io.*;
 import java.net.*;
-import java.text.*;
 import java.util.*;
 import java.util.logging.*;
 
@@ -32,6 +31,7 @@ import tdunnick.phinmsx.domain.*;
 import tdunnick.phinmsx.domain.receiver.*;
 import tdunnick.phinmsx.crypt.*;
 import tdunnick.phinmsx.helper.*;
+import tdunnick.phinmsx.util.*;
 
 /**
  * PHINMS custom receiver servlet.  Features cascading configuration and
@@ -63,8 +63,21 @@ public class Receiver extends HttpServlet
 	// our stats
 	String[] heading = 
 	  { "Date/Time", "File Name", "Status", "Error", "Response" };
-	private static ArrayList stats = new ArrayList ();
+	private static StatusRing stats = null;
+	private static StatsJournal journal = null;
 	private static RcvStatus status = null;
+	// write behind for the worker queue
+	private static QueueWriter writer = null;
+	// configurations requested by senders
+	private static ConfCache confs = null;
+	// runs helpers after the response, started when first needed
+	private static WorkPool helpers = null;
+	// limits on messages in flight
+	private static Admission admission = null;
+	// our host name, looked up once
+	private static String host = null;
+	// scratch buffer for reading payload heads, one per thread
+	private static ThreadLocal scratch = new ThreadLocal ();
 	
 	/**
 	 * set up an environment for this request. This holds information unique to
@@ -84,14 +97,15 @@ public class Receiver extends HttpServlet
 		}
 		else
 		{
-			env.props = new Props();
-			if (!env.props.load(propname, props.getProps()))
+			if ((env.props = confs.getProps(propname)) == null)
 			{
 				logger.severe("Failed reading " + propname);
 				if (props == null)
 					return null;
 				env.props = props;
 			}
+			else
+				env.conf = propname;
 		}
 		// create temp dir if needed
 		String tempdir = env.getProperty (PhinmsX.TEMPDIR);
@@ -129,8 +143,8 @@ public class Receiver extends HttpServlet
 	 */
 	private String sqlEscape(String s)
 	{
-		if (s == null)
-			return null;
+		if ((s == null) || (s.indexOf('\'') < 0))
+			return s;
 		StringBuffer b = new StringBuffer(s);
 		for (int i = 0; i < b.length(); i++)
 		{
@@ -152,23 +166,12 @@ public class Receiver extends HttpServlet
 		rec.setErrorCode(env.applicationStatus);
 		rec.setErrorMessage(sqlEscape(env.applicationError));
 		// today's date formatted for access
-		// need a formatter for numeric values...
-		NumberFormat twoDigits = new DecimalFormat("00");
 		String now = Phinms.fmt_date (null);
 		rec.setLastUpdateTime(now);
 		// the name we gave the payload when we stored it
 		rec.setLocalFileName(getFilePath(env));
 		// null in testworkerqueue, but we'll use our hostname...
-		String host = "localhost";
-		try
-		{
-			host = InetAddress.getLocalHost().getHostName();
-		}
-		catch (UnknownHostException e)
-		{
-			// put with localhost
-		}
-		rec.setMessageRecipient(host);
+		rec.setMessageRecipient(getHost ());
 		// the name the payload arrived with
 		rec.setPayloadName(getFileName(env));
 		// null in testworkerqueue, we use the payload's file name extension...
@@ -179,17 +182,48 @@ public class Receiver extends HttpServlet
 		// rec.setRecId(arg0);
 		rec.setStatus(sqlEscape(env.applicationResponse));
 		// add this record...
-		if (!rec.insert (env.props))
+		long start = System.currentTimeMillis();
+		if (writer != null)
+		{
+			if (!writer.add (env.props, env.conf, rec))
+				logger.severe("Can't queue record for " 
+						+ env.getProperty (PhinmsX.QUEUENAME));
+		}
+		else if (!rec.insert (env.props))
 		{
     	logger.severe("Can't push queue " 
 					+ env.getProperty (PhinmsX.QUEUENAME));
 			// + " trying " + dfltIncomingQueue);
 			// queuedb.pushToQueue(dfltIncomingQueue, rec);
 		}
+		env.time(RcvMetrics.QUEUE, start);
 		return true;
 	}
 
-	private synchronized void updateStats (RcvEnv env)
+	/**
+	 * Get our host name.  This is only looked up the first time, since
+	 * it may take a trip to DNS.
+	 * 
+	 * @return the host name or localhost if not known
+	 */
+	private static synchronized String getHost ()
+	{
+		if (host == null)
+		{
+			try
+			{
+				host = InetAddress.getLocalHost().getHostName();
+			}
+			catch (UnknownHostException e)
+			{
+				// put with localhost
+				host = "localhost";
+			}
+		}
+		return host;
+	}
+
+	private void updateStats (RcvEnv env)
 	{
 		String[] s = new String[5];
 		s[0] = new Date().toString();
@@ -197,62 +231,30 @@ public class Receiver extends HttpServlet
 		s[2] = env.applicationStatus;
 		s[3] = env.applicationError;
 		s[4] = env.applicationResponse;
-		stats.add (0, s);
-		while (stats.size() > 24)
-			stats.remove(24);
+		journal.add (s);
 	}
 	
 	/**
-	 * Load status from disk cache.  The cache name is in the configuration.
+	 * Load status from the journal and keep it up to date from there on.  
+	 * The journal name is in the configuration.
 	 * @return true if successful
 	 */
 	private boolean loadStats ()
 	{
+		// count everything but the date and file name
+		String[] counted = new String[heading.length];
+		for (int i = 2; i < heading.length; i++)
+			counted[i] = heading[i];
+		stats = new StatusRing (getNumber (PhinmsX.STATUSSIZE, 24));
 		String fname = getProperty (PhinmsX.STATUS);
 		if (fname == null)
 		{
 			logger.info("WARNING: No status cache provided");
+			journal = new StatsJournal (stats, counted, null, logger);
 			return false;
 		}
-		try
-		{
-			ObjectInputStream input = 
-				new ObjectInputStream (new FileInputStream (fname));
-			stats = (ArrayList) input.readObject();
-			input.close();
-		}
-		catch (Exception e)
-		{
-			logger.info("WARNING: Couldn't read status from " + fname);
-			return false;
-		}
-		logger.finest("Loaded " + stats.size() + " statistics");
-		return true;
-	}
-	
-	/**
-	 * Save status to disk cache.  The cache name is in the configuration.
-	 * @return true if successful
-	 */
-	private boolean saveStats ()
-	{
-		String fname = getProperty (PhinmsX.STATUS);
-		if (fname == null)
-			return false;
-		try
-		{
-			ObjectOutputStream out = 
-				new ObjectOutputStream (new FileOutputStream (fname));
-			out.writeObject(stats);
-			out.close();
-			return true;
-		}
-		catch (Exception e)
-		{
-			logger.severe("Failed to save statistics - " 
-					+ e.getLocalizedMessage());
-			return false;
-		}		
+		journal = new StatsJournal (stats, counted, new File (fname), logger);
+		return journal.start ();
 	}
 	
 	/**
@@ -261,9 +263,11 @@ public class Receiver extends HttpServlet
 	 * response are used to send data back to the receiver, which must be
 	 * configured to do something with it.
 	 * 
-	 * @return reponse MIME encoded string
+	 * @param env of the response
+	 * @param out stream to write the response to
+	 * @throws IOException
 	 */
-	private StringBuffer getResponse(RcvEnv env)
+	private void writeResponse(RcvEnv env, OutputStream out) throws IOException
 	{
 		/* 
 		 * compose mime multi-part response with...
@@ -276,36 +280,17 @@ public class Receiver extends HttpServlet
 		 * so while URLEncode gets things through, they look like hell on the
 		 * sender side (sigh).
 		 */
+		logger.finest("Response: status=" + env.applicationStatus 
+				+ " error=" + env.applicationError
+				+ " appdata=" + env.applicationResponse
+				+ " payload=" + env.payloadName);
 		RcvResponse m = new RcvResponse ();
-		StringBuffer response = m.getResponse (
+		m.write (out,
 				env.applicationStatus,
 				env.applicationError,
 				env.applicationResponse,
 				env.payload, 
 				env.payloadName); // payload MUST be named
-		logger.finest("Response: " + response.toString());
-		return (response);
-	}
-
-	/**
-	 * Parses a value from an XML style manifest for the given field tag
-	 * 
-	 * @param manifest provided
-	 * @param field  that we want
-	 * @return value of that field
-	 */
-	private String parseManifest(String manifest, String field)
-	{
-		// this should work!!!! -- friggin broke AFAIKT
-		// return (manifest.replaceFirst("^.*<" + field + ">(.*)</" + field +
-		// ">.*$", "\\1"));
-		int f, t;
-
-		if ((f = manifest.indexOf("<" + field + ">")) < 0)
-			return (null);
-		if ((t = manifest.indexOf("</" + field + ">")) < 0)
-			return (null);
-		return (manifest.substring(f + field.length() + 2, t));
 	}
 
 	/**
@@ -353,9 +338,13 @@ public class Receiver extends HttpServlet
 	{
 		if ((env.fileName = fileName) != null)
 		{
-			String[] parts = fileName.split("[.]");
-			if (parts.length > 1)
-				env.fileSuffix = parts[parts.length - 1];
+			// whatever follows the last dot, ignoring any trailing dots
+			int e = fileName.length();
+			while ((e > 0) && (fileName.charAt(e - 1) == '.'))
+				e--;
+			int i = fileName.lastIndexOf('.', e - 1);
+			if (i >= 0)
+				env.fileSuffix = fileName.substring(i + 1, e);
 			else
 				env.fileSuffix = "";
 		}
@@ -378,6 +367,96 @@ public class Receiver extends HttpServlet
 		return File.createTempFile(p, null, new File(env.getProperty(PhinmsX.TEMPDIR)));
 	}
 
+	/**
+	 * Get the buffer size used for spooling and reading payloads
+	 * 
+	 * @param env of request
+	 * @return the size
+	 */
+	private int getBufferSize (RcvEnv env)
+	{
+		String s = env.getProperty (PhinmsX.BUFFERSIZE);
+		if ((s == null) || !s.matches("[0-9]+"))
+			return MimeReader.BUFSIZE;
+		return Integer.parseInt(s);
+	}
+	
+	/**
+	 * Read the start of a spooled payload, enough to check for encryption
+	 * 
+	 * @param f payload file
+	 * @param size to read
+	 * @return the text read
+	 * @throws IOException
+	 */
+	private String readHead (File f, int size) throws IOException
+	{
+		byte[] b = (byte[]) scratch.get();
+		if ((b == null) || (b.length != size))
+			scratch.set(b = new byte[size]);
+		FileInputStream in = new FileInputStream (f);
+		int n = in.read (b);
+		in.close ();
+		if (n < 0)
+			return "";
+		return new String (b, 0, n);
+	}
+	
+	/**
+	 * Decrypt a payload to a new temporary file
+	 * 
+	 * @param env of request
+	 * @param crypt to decrypt with
+	 * @param data payload or null if spooled
+	 * @param f spooled payload
+	 * @return the decrypted payload file or null if it can't be decrypted
+	 * @throws IOException
+	 */
+	private File decrypt (RcvEnv env, PayloadEncryptor crypt, byte[] data, 
+			File f) throws IOException
+	{
+		String ks = env.getProperty (Phinms.KEYSTORE);
+		String pw = env.getPassword (Phinms.KEYSTOREPASSWD);
+		File plain = getTmpFile(env);
+		InputStream in = (data != null) ? (InputStream) new ByteArrayInputStream (data)
+				: new FileInputStream (f);
+		OutputStream out = new BufferedOutputStream (new FileOutputStream (plain),
+				getBufferSize (env));
+		boolean ok = false;
+		try
+		{
+			ok = crypt.decryptPayload (ks, pw, pw, in, out);
+		}
+		finally
+		{
+			in.close ();
+			out.close ();
+		}
+		if (ok && (plain.length() > 0))
+			return plain;
+		logger.severe("Decryption failed " + (ok ? "buffer empty" : "buffer null"));
+		plain.delete();
+		return null;
+	}
+	
+	/**
+	 * Read a spooled payload into memory
+	 * 
+	 * @param f payload file
+	 * @return the data
+	 * @throws IOException
+	 */
+	private byte[] readFile (File f) throws IOException
+	{
+		byte[] b = new byte[(int) f.length()];
+		FileInputStream in = new FileInputStream (f);
+		int n, l = 0;
+		while ((l < b.length) && ((n = in.read (b, l, b.length - l)) > 0))
+			l += n;
+		in.close ();
+		return b;
+	}
+
 	/**
 	 * returns a process ID based on the suffix of the incoming message name
 	 * 
@@ -419,23 +498,48 @@ public class Receiver extends HttpServlet
 		env.filePath = null;
 		if (env.fileName == null)
 			return false;
+		IncomingIndex index = getIndex (env);
 		// strip suffix and extension, add our extension
-		env.filePath = getIncomingDir(env)
-			+ env.fileName.replaceFirst("([.][^.]*){0,1}[.]" + env.fileSuffix,"") 
-			+ env.getProperty (PhinmsX.FILEEXTENSION);
-		File f = new File (env.filePath);
-		if (!f.exists())
-			return true;
-		logger.finest("File " + env.filePath + " exists, trying full name");
-		// if the above wasn't unique, or the preferred extension didn't match
-		// simply add it
-		env.filePath = getIncomingDir(env) + env.fileName 
-		  + env.getProperty (PhinmsX.FILEEXTENSION);
-		f = new File (env.filePath);
-		if (!f.exists())
-			return true;
-		env.filePath = null;
-		return false;
+		String name = env.getBaseName() + env.getProperty (PhinmsX.FILEEXTENSION);
+		File f = index.reserve (name);
+		if (f == null)
+		{
+			logger.finest("File " + name + " exists, trying full name");
+			// if the above wasn't unique, or the preferred extension didn't match
+			// simply add it
+			f = index.reserve (env.fileName + env.getProperty (PhinmsX.FILEEXTENSION));
+			if (f == null)
+				return false;
+		}
+		env.reserved = f;
+		env.filePath = f.getPath();
+		return true;
+	}
+	
+	/**
+	 * Get the index of names in the incoming folder
+	 * 
+	 * @param env of this request
+	 * @return the index
+	 */
+	private IncomingIndex getIndex (RcvEnv env)
+	{
+		return IncomingIndex.getIndex (getIncomingDir(env), 
+				env.getProperty (PhinmsX.INCOMINGLAYOUT));
+	}
+	
+	/**
+	 * Done with the name reserved by setFilePath()
+	 * 
+	 * @param env of this request
+	 * @param stored true if the payload was stored under that name
+	 */
+	private void releaseFilePath (RcvEnv env, boolean stored)
+	{
+		if (env.reserved == null)
+			return;
+		getIndex (env).release (env.reserved, stored);
+		env.reserved = null;
 	}
 
 	/**
@@ -467,33 +571,38 @@ public class Receiver extends HttpServlet
 	}
 
 	/**
-	 * Parses the MIME multipart request message and returns a response. This is
+	 * Parses the MIME multipart request message and sets the response. This is
 	 * where all the REAL work gets done.
 	 * 
 	 * @param request HttpServletRequest object
-	 * @return Response string buffer
+	 * @return environment holding the response
 	 */
-	private StringBuffer processRequest(HttpServletRequest request)
+	private RcvEnv processRequest(String contentType, InputStream in)
 	{
 		// BufferedReader in = null;
 		String token = null;
 
 		// note if payload was encoded
 		String encrypted = "no";
+		// helper run after the response
+		boolean postAck = false;
 
 		RcvEnv env = getEnv (null);
 
 		// use the multi part parser
 		RcvRequest mpp = new RcvRequest (env.props.getLogger());
+		String spool = env.getProperty (PhinmsX.SPOOL);
+		if ((spool != null) && spool.equalsIgnoreCase("true"))
+			mpp.setSpool(new File (env.getProperty(PhinmsX.TEMPDIR)), getBufferSize (env));
+		long start = System.currentTimeMillis();
 		try
 		{
 			// Splits mime message fields into text and payload
-			if (!mpp.parse (request.getHeader("Content-Type"), 
-					request.getInputStream()))
+			if (!mpp.parse (contentType, in))
 			{
 				logger.severe("Parsing multipart fields in request");
 				setResponse(env, "aborted", "bad mime format", "failure", null,	null);
-				return getResponse(env);
+				return env;
 			}
 		}
 		catch (Exception e)
@@ -501,7 +610,11 @@ public class Receiver extends HttpServlet
 			logger.severe("Parsing message in messagehandler");
 			setResponse(env, "aborted", "message format exception", "failure",
 					null, null);
-			return getResponse(env);
+			return env;
+		}
+		finally
+		{
+			env.time(RcvMetrics.PARSE, start);
 		}
 
 		/*
@@ -526,106 +639,131 @@ public class Receiver extends HttpServlet
 		rec.setAction(mpp.getArgument("action"));
 
 		String m = mpp.getArgument("manifest");
+		HashMap manifest = Manifest.parse(m);
 		if (m != null)
 		{
 			rec.setArguments(m);
 			logger.finest("manifest= " + m);
-			rec.setMessageId(parseManifest(m, "MessageId"));
+			rec.setManifest(manifest);
 			logger.finest("MessageID: " + rec.getMessageId());
 		}
-		// load this environment
+		// load this environment, keeping the times so far
+		long[] times = env.times;
 		env = getEnv(mpp.getArgument("conf"));
+		env.times = times;
+		env.service = mpp.getArgument("service");
+		env.action = mpp.getArgument("action");
+		env.manifest = manifest;
 		// Do necessary processing of data here
 		// e.g., Copy file to disk as below
 		logger.finest("Getting payload...");
 		try
 		{
-			String payload;
-			byte[] data;
+			byte[] data = mpp.getPayLoad();
+			File tmpFile = mpp.getPayloadFile();
 
-			if ((data = mpp.getPayLoad()) != null)
+			if ((data != null) || (tmpFile != null))
 			{
 				setFileName(env, mpp.getFileName());
 				// create a path to write the payload to
 				if (!setFilePath(env))
 				{
 					logger.severe("Can't set path for " + env.fileName);
+					if (tmpFile != null)
+						tmpFile.delete();
 					rec.setApplicationStatus("aborted");
 					rec.setProcessingStatus("rejected");
 					setResponse(env, "aborted", "duplicate or unusable file name",
 							"failure", null, null);
 					updateQueue(env, rec);
-					return (getResponse(env));
+					return env;
 				}
 				// include userDir subdirectory in payload path
 				File outFile = new File(getFilePath(env));
-				File tmpFile = getTmpFile(env);
-				FileOutputStream fos = new FileOutputStream(tmpFile);
-		
+				String helper = env.getProperty(PhinmsX.HELPER);
 				PayloadEncryptor crypt = new PayloadEncryptor (logger);
-
-				// is this encrypted?
-				if (crypt.isEncrypted (payload = new String(data)))
+				PayloadStore store = PayloadStore.getStore (env.props);
+				
+				// is this encrypted? only the start of the payload is checked
+				if ((data != null) ? crypt.isEncrypted (data, getBufferSize (env))
+						: crypt.isEncrypted (readHead (tmpFile, getBufferSize (env))))
 				{
 					logger.finest("Payload is encrypted");
-					String ks = env.getProperty (Phinms.KEYSTORE);
-					String pw = env.getPassword (Phinms.KEYSTOREPASSWD);
-					// are we prepared to decrypt it?
-					data = crypt.decryptPayload (ks, pw, pw, payload);
+					// decrypted straight to a new temporary file
+					start = System.currentTimeMillis();
+					File plain = decrypt (env, crypt, data, tmpFile);
+					env.time(RcvMetrics.DECRYPT, start);
 					// successfully decrypted?
-					if ((data == null) || (data.length == 0))
+					if (plain == null)
 					{
 						setResponse(env, "abnormal", "can not decrypt payload",
 								"warning", null, null);
-						logger.severe("Decryption failed " + (data == null ? 
-								"buffer null" : "buffer empty"));
 						// we'll save the encrypted payload an note in queue
-						data = payload.getBytes();
 						encrypted = "yes";
 					}
+					else
+					{
+						if (tmpFile != null)
+							tmpFile.delete();
+						tmpFile = plain;
+						data = null;
+					}
 				}
 				else
 				// wasn't encrypted
 				{
 					logger.finest ("Payload is not encrypted");
 				}
-				fos.write(data);
-				fos.flush();
-				fos.close();
-				if (!tmpFile.renameTo(outFile))
+				if (tmpFile == null)
 				{
-					logger.severe("Unable to rename " + tmpFile.getPath() + " to "
-							+ outFile.getPath());
+					tmpFile = getTmpFile(env);
+					start = System.currentTimeMillis();
+					store.write(tmpFile, data);
+					env.time(RcvMetrics.WRITE, start);
 				}
-				// run the helper if one exists, in which case it sets the response
-				String helper = env.getProperty(PhinmsX.HELPER);
-				if (helper != null)
+				// a helper run after the response reads the stored payload itself
+				String s = env.getProperty(PhinmsX.HELPERPOSTACK);
+				postAck = (helper != null) && (s != null) && s.equalsIgnoreCase("true");
+				// a stored payload stays on disk unless the helper needs it now
+				if ((helper != null) && !postAck && (data == null))
+					data = readFile (tmpFile);
+				start = System.currentTimeMillis();
+				try
 				{
-					logger.finest ("running helper " + helper);
-					try
-					{
-						Class c = Class.forName(helper);
-						RcvHelper h = (RcvHelper) c.newInstance();
-						h.setResponse(env, data);
-					}
-					catch (Exception e)
-					{
-					  logger.severe(helper + " exception " + e.getMessage());
-						setResponse(env, "aborted", "application processing error", 
-								e.getMessage(), null, null);
-					}
+					store.publish(tmpFile, outFile);
+					releaseFilePath(env, true);
+				}
+				catch (IOException e)
+				{
+					logger.severe("Unable to store " + tmpFile.getPath() + " as "
+							+ outFile.getPath() + " - " + e.getMessage());
+					tmpFile.delete();
+					releaseFilePath(env, false);
+					env.time(RcvMetrics.WRITE, start);
+					rec.setApplicationStatus("aborted");
+					rec.setProcessingStatus("rejected");
+					setResponse(env, "aborted", "unable to store payload",
+							"failure", null, null);
+					updateQueue(env, rec);
+					return env;
 				}
+				env.time(RcvMetrics.WRITE, start);
+				// run the helper if one exists, in which case it sets the response
+				if ((helper != null) && !postAck)
+					runHelper (env, helper, data);
 			}
 		}
 		catch (Exception e)
 		{
 			logger.severe("Internal error processing payload " + e.getMessage());
+			postAck = false;
+			releaseFilePath(env, false);
 			rec.setApplicationStatus("aborted");
 			rec.setProcessingStatus("rejected");
 			setResponse(env, "aborted", "internal failure decoding payload",
 					e.getMessage(), null, null);
 			updateQueue(env, rec);
-			return getResponse(env);
+			return env;
 		}
 
 		// stuff the queue record
@@ -649,8 +787,146 @@ public class Receiver extends HttpServlet
 		logger.info("File:" + getFilePath(env) 
 				+ " Response:"	+ env.applicationResponse 
 				+ " Error:" + env.applicationError);
+		
+		if (postAck)
+			postAck (env);
+		return env;
+	}
+	
+	/**
+	 * Run a message helper, which sets the response
+	 * 
+	 * @param env for this message
+	 * @param helper class to run
+	 * @param data payload
+	 */
+	private void runHelper (RcvEnv env, String helper, byte[] data)
+	{
+		logger.finest ("running helper " + helper);
+		try
+		{
+			HelperPool pool = HelperPool.getPool(env.conf, helper);
+			RcvHelper h = pool.get();
+			long start = System.currentTimeMillis();
+			try
+			{
+				h.setResponse(env, data);
+			}
+			finally
+			{
+				env.time(RcvMetrics.HELPER, start);
+				pool.release(h);
+			}
+		}
+		catch (Exception e)
+		{
+		  logger.severe(helper + " exception " + e.getMessage());
+			setResponse(env, "aborted", "application processing error", 
+					e.getMessage(), null, null);
+		}
+	}
+	
+	/**
+	 * Run the helper after the sender has its response.  The payload and
+	 * queue record are already stored, so the helper reads the payload
+	 * back from its file when it runs (nothing is held while it waits) and 
+	 * its result is written back to the record, found by its local file 
+	 * name.
+	 * 
+	 * @param env for this message
+	 */
+	private void postAck (RcvEnv env)
+	{
+		final RcvEnv job = env.copy ();
+		final String helper = env.getProperty(PhinmsX.HELPER);
+		getHelpers ().execute(new Runnable ()
+		{
+			public void run ()
+			{
+				byte[] data = null;
+				try
+				{
+					data = readFile (new File (getFilePath(job)));
+				}
+				catch (IOException e)
+				{
+					logger.severe("Can't read " + getFilePath(job) + " for " + helper
+							+ " - " + e.getMessage());
+					setResponse(job, "aborted", "payload gone before helper ran", 
+							e.getMessage(), null, null);
+				}
+				if (data != null)
+					runHelper (job, helper, data);
+				RcvRecord u = new RcvRecord ();
+				u.setLocalFileName(getFilePath(job));
+				u.setApplicationStatus(job.applicationResponse);
+				u.setErrorCode(job.applicationStatus);
+				u.setErrorMessage(sqlEscape(job.applicationError));
+				u.setLastUpdateTime(Phinms.fmt_date (null));
+				QueueWriter w = writer;
+				if (w != null)
+					w.update(job.props, job.conf, u);
+				else if (!u.update(job.props, job.props.getTableName ()))
+					logger.severe("Can't update queue for " + getFilePath(job));
+				logger.info("File:" + getFilePath(job) 
+						+ " Helper Response:"	+ job.applicationResponse 
+						+ " Error:" + job.applicationError);
+				RcvMetrics.record(job);
+			}
+		});
+	}
+	
+	/**
+	 * Get the threads for helpers run after the response, starting them
+	 * the first time a configuration asks for one
+	 * 
+	 * @return the pool
+	 */
+	private WorkPool getHelpers ()
+	{
+		synchronized (Receiver.class)
+		{
+			if (helpers == null)
+				helpers = new WorkPool ("Receiver helper", 
+						getNumber (PhinmsX.POSTACKTHREADS, 4), 
+						getNumber (PhinmsX.POSTACKQUEUE, 100), logger);
+			return helpers;
+		}
+	}
 
-		return getResponse(env);
+	/**
+	 * Start outside of a servlet container
+	 * 
+	 * @param conf name of XML properties file
+	 * @return true if successful
+	 */
+	public boolean start (String conf)
+	{
+		return initialize (conf);
+	}
+
+	/**
+	 * @return our logger
+	 */
+	public Logger getLogger ()
+	{
+		return logger;
+	}
+	
+	/**
+	 * @return port for the stand alone ReceiverServer
+	 */
+	public int getServerPort ()
+	{
+		return getNumber (PhinmsX.SERVERPORT, 8088);
+	}
+	
+	/**
+	 * @return connections the stand alone ReceiverServer serves at once
+	 */
+	public int getServerConnections ()
+	{
+		return getNumber (PhinmsX.SERVERCONNECTIONS, 100);
 	}
 
 	/**
@@ -671,17 +947,182 @@ public class Receiver extends HttpServlet
 		}
 		
 		logger = props.getLogger ();
+		confs = new ConfCache (props, "Receiver");
 		// initialize and set up statistics and status bean
 		loadStats ();
 		status = RcvStatus.getStatus ();
 		status.setVersion(Receiver.Version);
 		// status.setPhinmsVersion(Defines.VERSION);
 		status.setFields(heading);
-		status.setRecords(stats);
+		status.setRing(stats);
+		startWriter ();
+		startAdmission ();
 		logger.info("Started ebxml.receivefile servlet");
 		return (true);
 	}
 
+	/**
+	 * Limit messages in flight if configured to
+	 * 
+	 * @return true if limited
+	 */
+	private boolean startAdmission ()
+	{
+		int requests = getNumber (PhinmsX.MAXREQUESTS, 0);
+		int bytes = getNumber (PhinmsX.MAXREQUESTBYTES, 0);
+		admission = null;
+		if ((requests == 0) && (bytes == 0))
+			return false;
+		admission = new Admission (requests, bytes, 
+				getNumber (PhinmsX.MAXWAITING, 10), 
+				getNumber (PhinmsX.ADMISSIONWAIT, 10000),
+				getNumber (PhinmsX.UNKNOWNREQUESTBYTES, bytes));
+		return true;
+	}
+	
+	/**
+	 * Turn a message away when we are too busy.  The sender gets a
+	 * normal response, but with HTTP 503 and Retry-After so it tries
+	 * again later.
+	 * 
+	 * @param resp to send
+	 * @throws IOException
+	 */
+	private void refuse (HttpServletResponse resp) throws IOException
+	{
+		resp.setHeader("Retry-After", Integer.toString(getRetryAfter ()));
+		if (props == null)
+		{
+			resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
+		}
+		resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		OutputStream out = resp.getOutputStream();
+		writeBusy(out);
+		out.close();
+	}
+	
+	/**
+	 * @return seconds a sender turned away should wait before retrying
+	 */
+	public int getRetryAfter ()
+	{
+		return getNumber (PhinmsX.RETRYAFTER, 30);
+	}
+	
+	/**
+	 * Write the response for a message turned away
+	 * 
+	 * @param out for the response
+	 * @throws IOException
+	 */
+	public void writeBusy (OutputStream out) throws IOException
+	{
+		RcvEnv env = getEnv (null);
+		if (env == null)
+			return;
+		setResponse(env, "aborted", "receiver busy", "retry", null, null);
+		writeResponse(env, out);
+		out.write('\n');
+	}
+	
+	/**
+	 * Wait for our turn to work on a message
+	 * 
+	 * @param size of the message or -1 if not known
+	 * @return true if let in, false if the message should be turned away
+	 */
+	public boolean admit (long size)
+	{
+		if ((admission == null) || admission.enter(size))
+			return true;
+		logger.warning("Receiver busy, refused message (" 
+				+ admission.getRefused() + " so far)");
+		return false;
+	}
+	
+	/**
+	 * Done with a message that was let in
+	 * 
+	 * @param size given when admitted
+	 */
+	public void leave (long size)
+	{
+		if (admission != null)
+			admission.leave(size);
+	}
+	
+	/**
+	 * Receive a message, writing our response.  This is the whole of a
+	 * POST once the message is let in, shared by the servlet and the
+	 * stand alone ReceiverServer.
+	 * 
+	 * @param contentType of the request
+	 * @param in request body
+	 * @param out for the response
+	 */
+	public void receive (String contentType, InputStream in, OutputStream out)
+	{
+		// call processRequest to do the dirty work
+		long start = System.currentTimeMillis();
+		RcvEnv env = processRequest(contentType, in);
+		if (env == null)
+		{
+			logger.severe("Failed to process POST request - no response");
+			return;
+		}
+		try
+		{
+			writeResponse(env, out);
+			out.write('\n');
+			out.flush();
+		}
+		catch (Exception e)
+		{
+			logger.log (Level.SEVERE, "Post exception " + e.getMessage(), e);
+		}
+		env.time(RcvMetrics.TOTAL, start);
+		RcvMetrics.record(env);
+	}
+	
+	/**
+	 * Start writing the worker queue behind if configured to
+	 * 
+	 * @return true if started
+	 */
+	private boolean startWriter ()
+	{
+		String s = getProperty (PhinmsX.QUEUEWRITER);
+		if ((s == null) || !s.equalsIgnoreCase("async"))
+			return false;
+		String j = getProperty (PhinmsX.QUEUEJOURNAL);
+		if (j == null)
+			j = getProperty (Phinms.LOGDIR) + "/queue.jnl";
+		writer = new QueueWriter (props, confs, new File (j), 
+				getNumber (PhinmsX.QUEUESIZE, 1000), 
+				getNumber (PhinmsX.QUEUEBATCH, 50));
+		if (writer.start ())
+			return true;
+		logger.severe ("Queue writer failed, inserting records directly");
+		writer = null;
+		return false;
+	}
+	
+	/**
+	 * get a numeric servlet property
+	 * 
+	 * @param name of property
+	 * @param dflt value if not set
+	 * @return the value
+	 */
+	private int getNumber (String name, int dflt)
+	{
+		String s = getProperty (name);
+		if ((s == null) || !s.matches("[0-9]+"))
+			return dflt;
+		return Integer.parseInt(s);
+	}
+
 	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException
 	{
@@ -691,11 +1132,67 @@ public class Receiver extends HttpServlet
 			view.forward(req, resp);
 			return;
 		}
+		String metrics = req.getParameter("metrics");
+		if (metrics != null)
+		{
+			writeMetrics (metrics, resp);
+			return;
+		}
 		req.setAttribute("status", status);
 		RequestDispatcher view = req.getRequestDispatcher("receiver.jsp");
 		view.forward(req, resp);
 	}
 
+	/**
+	 * Write the stage timings for ?metrics=json or ?metrics=prom
+	 * 
+	 * @param format json or prom
+	 * @param resp to write them to
+	 * @throws IOException
+	 */
+	private void writeMetrics (String format, HttpServletResponse resp)
+	  throws IOException
+	{
+		String type = getMetricsType (format);
+		if (type == null)
+		{
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, 
+					"metrics must be json or prom");
+			return;
+		}
+		resp.setContentType(type);
+		PrintWriter out = resp.getWriter();
+		writeMetrics (format, out);
+		out.close();
+	}
+	
+	/**
+	 * @param format json or prom
+	 * @return the content type for these metrics or null if unknown
+	 */
+	public static String getMetricsType (String format)
+	{
+		if (format.equalsIgnoreCase("prom") || format.equalsIgnoreCase("prometheus"))
+			return "text/plain; version=0.0.4";
+		if (format.equalsIgnoreCase("json"))
+			return "application/json";
+		return null;
+	}
+	
+	/**
+	 * Write the stage timings
+	 * 
+	 * @param format json or prom
+	 * @param out to write them to
+	 */
+	public static void writeMetrics (String format, PrintWriter out)
+	{
+		if (format.equalsIgnoreCase("json"))
+			RcvMetrics.writeJson(out);
+		else
+			RcvMetrics.writePrometheus(out);
+	}
+
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException
 	{
@@ -703,21 +1200,22 @@ public class Receiver extends HttpServlet
 				+ " processing **********************");
 		// process the request
 
-		// call processRequest to do the dirty work
-		StringBuffer response = processRequest(req);
-		if (response == null)
+		// wait our turn, before reading any of the message
+		long size = req.getContentLength();
+		if (!admit(size))
 		{
-			logger.severe("Failed to process POST request - no response");
+			refuse (resp);
+			return;
 		}
-		else try
+		try
 		{
-			PrintWriter out = resp.getWriter();
-			out.println(response.toString());
-			out.close();		
+			OutputStream out = resp.getOutputStream();
+			receive (req.getHeader("Content-Type"), req.getInputStream(), out);
+			out.close();
 		}
-		catch (Exception e)
+		finally
 		{
-			logger.log (Level.SEVERE, "Post exception " + e.getMessage(), e);
+			leave(size);
 		}
 		logger.info("******************* Completed message "
 				+ "processing ********************");
@@ -725,11 +1223,34 @@ public class Receiver extends HttpServlet
 
 	public void destroy()
 	{
-		saveStats ();
-		logger.info("Exiting...");
-		props.close ();
+		shutdown ();
+		// don't leave our ciphers on the container's threads
+		Encryptor.clear ();
 		super.destroy();
 	}
+	
+	/**
+	 * Stop the background work and close our resources
+	 */
+	public void shutdown ()
+	{
+		if (journal != null)
+			journal.stop ();
+		// helpers may still update the queue
+		WorkPool h;
+		synchronized (Receiver.class)
+		{
+			h = helpers;
+			helpers = null;
+		}
+		if (h != null)
+			h.stop ();
+		if (writer != null)
+			writer.stop ();
+		logger.info("Exiting...");
+		if (props != null)
+			props.close ();
+	}
 
 	public void init(ServletConfig config) throws ServletException
 	{
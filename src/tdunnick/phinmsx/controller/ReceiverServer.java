@@ -0,0 +1,506 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *  
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.controller;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Runs the Receiver without a servlet container.  A bare bones HTTP/1.1
+ * server hands each POST to the same receive pipeline the servlet uses,
+ * configured from the same Receiver.xml.  Each connection gets its own
+ * thread, up to a limit after which new connections wait to be accepted,
+ * and connections are kept open between messages unless the sender asks 
+ * otherwise.  A GET returns ?metrics=json or ?metrics=prom,
+ * or just our version.
+ * 
+ * This is meant for running extra, cheap receivers or benchmarking them,
+ * so it skips anything the servlet gets from Tomcat (SSL, the status
+ * page, etc).
+ * 
+ * @author tld
+ *
+ */
+public class ReceiverServer implements Runnable
+{
+	// idle milliseconds before a kept open connection is closed
+	private final static int IDLE = 30000;
+	// longest request or header line we'll take
+	private final static int MAXLINE = 8192;
+	// most header lines, and their total size, we'll take
+	private final static int MAXHEADERS = 100;
+	private final static int MAXHEADERSIZE = 32768;
+	
+	private static int connections = 0;
+	
+	/**
+	 * a line over MAXLINE
+	 */
+	private static class LongLine extends IOException
+	{
+		LongLine ()
+		{
+			super ("Request line too long");
+		}
+	}
+	
+	private Receiver receiver;
+	private Socket socket;
+	private Slots slots;
+	private Logger logger;
+	
+	/**
+	 * counts connections being served by one server
+	 */
+	private static class Slots
+	{
+		int max;
+		int active = 0;
+		
+		Slots (int max)
+		{
+			this.max = (max < 1) ? 1 : max;
+		}
+		
+		synchronized void enter () throws InterruptedException
+		{
+			while (active >= max)
+				wait ();
+			active++;
+		}
+		
+		synchronized void leave ()
+		{
+			active--;
+			notify ();
+		}
+	}
+	
+	private ReceiverServer (Receiver receiver, Socket socket, Slots slots,
+			Logger logger)
+	{
+		this.receiver = receiver;
+		this.socket = socket;
+		this.slots = slots;
+		this.logger = logger;
+	}
+	
+	/**
+	 * Serve requests on this connection until it is closed
+	 */
+	public void run ()
+	{
+		try
+		{
+			socket.setSoTimeout(IDLE);
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream (socket.getInputStream());
+			OutputStream out = new BufferedOutputStream (socket.getOutputStream());
+			while (serve (in, out))
+				;
+		}
+		catch (SocketTimeoutException e)
+		{
+		}
+		catch (IOException e)
+		{
+			logger.fine ("Connection failed - " + e.getMessage());
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e)
+			{
+			}
+			slots.leave ();
+		}
+	}
+	
+	/**
+	 * Serve one request
+	 * 
+	 * @param in from the sender
+	 * @param out to the sender
+	 * @return true if the connection stays open for another
+	 * @throws IOException
+	 */
+	private boolean serve (InputStream in, OutputStream out) throws IOException
+	{
+		String line;
+		try
+		{
+			line = readLine (in);
+		}
+		catch (LongLine e)
+		{
+			reply (out, 414, "URI Too Long", null, null, false);
+			return false;
+		}
+		if (line == null)
+			return false;
+		if (line.length() == 0)
+			return true;
+		String[] request = line.split(" ");
+		if (request.length != 3)
+		{
+			reply (out, 400, "Bad Request", null, null, false);
+			return false;
+		}
+		HashMap headers = new HashMap ();
+		int count = 0, total = 0;
+		try
+		{
+			while ((line = readLine (in)) != null)
+			{
+				if (line.length() == 0)
+					break;
+				total += line.length();
+				if ((++count > MAXHEADERS) || (total > MAXHEADERSIZE))
+					throw new LongLine ();
+				int i = line.indexOf(':');
+				if (i > 0)
+					headers.put (line.substring(0, i).trim().toLowerCase(), 
+							line.substring(i + 1).trim());
+			}
+		}
+		catch (LongLine e)
+		{
+			reply (out, 431, "Request Header Fields Too Large", null, null, false);
+			return false;
+		}
+		if (line == null)
+			return false;
+		String s = (String) headers.get("connection");
+		boolean keep = request[2].equals("HTTP/1.1") 
+		  ? !"close".equalsIgnoreCase(s) : "keep-alive".equalsIgnoreCase(s);
+		
+		if (request[0].equals("GET"))
+		{
+			get (request[1], out, keep);
+			return keep;
+		}
+		if (!request[0].equals("POST"))
+		{
+			reply (out, 405, "Method Not Allowed", null, null, false);
+			return false;
+		}
+		s = (String) headers.get("content-length");
+		if ((s == null) || !s.matches("[0-9]+"))
+		{
+			reply (out, 411, "Length Required", null, null, false);
+			return false;
+		}
+		// more digits than a long holds
+		if (s.length() > 18)
+		{
+			reply (out, 400, "Bad Request", null, null, false);
+			return false;
+		}
+		long size = Long.parseLong(s);
+		s = (String) headers.get("expect");
+		if ((s != null) && !s.equalsIgnoreCase("100-continue"))
+		{
+			reply (out, 417, "Expectation Failed", null, null, false);
+			return false;
+		}
+		InputStream body = new Body (in, size);
+		ByteArrayOutputStream resp = new ByteArrayOutputStream ();
+		if (!receiver.admit(size))
+		{
+			receiver.writeBusy(resp);
+			reply (out, 503, "Service Unavailable", "Retry-After: " 
+					+ receiver.getRetryAfter(), resp.toByteArray(), false);
+			return false;
+		}
+		// a sender waiting to be told to go ahead, now that it is let in
+		if ((s != null) && request[2].equals("HTTP/1.1"))
+		{
+			out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1"));
+			out.flush();
+		}
+		try
+		{
+			receiver.receive((String) headers.get("content-type"), body, resp);
+		}
+		finally
+		{
+			receiver.leave(size);
+		}
+		// anything the parser didn't read is skipped
+		while (body.skip(size) > 0)
+			;
+		reply (out, 200, "OK", null, resp.toByteArray(), keep);
+		return keep;
+	}
+	
+	/**
+	 * Answer a GET
+	 * 
+	 * @param uri requested
+	 * @param out to the sender
+	 * @param keep true if the connection stays open
+	 * @throws IOException
+	 */
+	private void get (String uri, OutputStream out, boolean keep) 
+	  throws IOException
+	{
+		int i = uri.indexOf("metrics=");
+		if (i < 0)
+		{
+			reply (out, 200, "OK", "Content-Type: text/plain", 
+					(Receiver.Version + "\n").getBytes("ISO-8859-1"), keep);
+			return;
+		}
+		String format = uri.substring(i + 8);
+		if ((i = format.indexOf('&')) >= 0)
+			format = format.substring(0, i);
+		String type = Receiver.getMetricsType(format);
+		if (type == null)
+		{
+			reply (out, 400, "Bad Request", null, null, keep);
+			return;
+		}
+		ByteArrayOutputStream b = new ByteArrayOutputStream ();
+		PrintWriter w = new PrintWriter (new OutputStreamWriter (b, "UTF-8"));
+		Receiver.writeMetrics(format, w);
+		w.close();
+		reply (out, 200, "OK", "Content-Type: " + type, b.toByteArray(), keep);
+	}
+	
+	/**
+	 * Send a response
+	 * 
+	 * @param out to the sender
+	 * @param code HTTP status
+	 * @param reason for the status
+	 * @param header an extra header line or null
+	 * @param body of the response or null
+	 * @param keep true if the connection stays open
+	 * @throws IOException
+	 */
+	private void reply (OutputStream out, int code, String reason, 
+			String header, byte[] body, boolean keep) throws IOException
+	{
+		StringBuffer b = new StringBuffer ();
+		b.append("HTTP/1.1 " + code + " " + reason + "\r\n");
+		if (header != null)
+			b.append(header + "\r\n");
+		b.append("Content-Length: " + ((body == null) ? 0 : body.length) + "\r\n");
+		if (!keep)
+			b.append("Connection: close\r\n");
+		b.append("\r\n");
+		out.write(b.toString().getBytes("ISO-8859-1"));
+		if (body != null)
+			out.write(body);
+		out.flush();
+	}
+	
+	/**
+	 * Read a request or header line
+	 * 
+	 * @param in to read
+	 * @return the line without its end, or null at end of stream
+	 * @throws IOException
+	 * @throws LongLine if the line is too long
+	 */
+	private String readLine (InputStream in) throws IOException
+	{
+		StringBuffer b = new StringBuffer ();
+		int c;
+		while ((c = in.read()) != '\n')
+		{
+			if (c < 0)
+				return (b.length() == 0) ? null : b.toString();
+			if (b.length() >= MAXLINE)
+				throw new LongLine ();
+			if (c != '\r')
+				b.append((char) c);
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * The body of one request, so the parser can't read into the next
+	 */
+	private static class Body extends FilterInputStream
+	{
+		private long left;
+		
+		Body (InputStream in, long size)
+		{
+			super (in);
+			left = size;
+		}
+		
+		public int read () throws IOException
+		{
+			if (left <= 0)
+				return -1;
+			int c = in.read();
+			if (c >= 0)
+				left--;
+			return c;
+		}
+		
+		public int read (byte[] b, int off, int len) throws IOException
+		{
+			if (left <= 0)
+				return -1;
+			if (len > left)
+				len = (int) left;
+			int n = in.read(b, off, len);
+			if (n > 0)
+				left -= n;
+			return n;
+		}
+		
+		public long skip (long n) throws IOException
+		{
+			if (n > left)
+				n = left;
+			n = in.skip(n);
+			left -= n;
+			return n;
+		}
+		
+		public int available () throws IOException
+		{
+			return (int) Math.min(in.available(), left);
+		}
+		
+		public void close ()
+		{
+		}
+	}
+	
+	/**
+	 * Accept connections until the server is closed, serving each on its
+	 * own thread.  Once the limit is reached new connections wait (in the 
+	 * server's backlog) until one closes.
+	 * 
+	 * @param receiver for the messages
+	 * @param server to accept connections on
+	 * @param max connections served at once
+	 */
+	public static void accept (Receiver receiver, ServerSocket server, int max)
+	{
+		Logger logger = receiver.getLogger();
+		Slots slots = new Slots (max);
+		while (!server.isClosed())
+		{
+			try
+			{
+				slots.enter ();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			try
+			{
+				Socket s = server.accept();
+				Thread t = new Thread (new ReceiverServer (receiver, s, slots, logger),
+						"Receiver-" + ++connections);
+				t.setDaemon(true);
+				t.start();
+			}
+			catch (IOException e)
+			{
+				slots.leave ();
+				if (!server.isClosed())
+					logger.severe ("Accept failed - " + e.getMessage());
+			}
+		}
+	}
+	
+	private static void usage (String msg)
+	{
+		System.err.println (msg + "\n"
+				+ "usage: ReceiverServer [-p <port>] <config>\n"
+				+ "-p <port>           listen on <port> (<serverPort> or 8088)\n"
+				+ "<config>            Receiver configuration\n");
+		System.exit(1);
+	}
+	
+	public static void main (String args[])
+	{
+		String conf = null;
+		int port = 0;
+		
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-p"))
+			{
+				if ((i + 1 >= args.length) || !args[++i].matches("[0-9]+"))
+					usage ("Port number expected after -p");
+				port = Integer.parseInt(args[i]);
+			}
+			else if (args[i].charAt(0) == '-')
+				usage ("Unknown option " + args[i]);
+			else
+				conf = args[i];
+		}
+		if (conf == null)
+			usage ("Configuration expected");
+		
+		final Receiver receiver = new Receiver ();
+		if (!receiver.start(conf))
+		{
+			System.err.println ("Failed initializing " + conf);
+			System.exit(1);
+		}
+		Logger logger = receiver.getLogger();
+		if (port == 0)
+			port = receiver.getServerPort();
+		final ServerSocket server;
+		try
+		{
+			server = new ServerSocket (port, 256);
+		}
+		catch (IOException e)
+		{
+			logger.severe ("Can't listen on port " + port + " - " + e.getMessage());
+			receiver.shutdown();
+			System.exit(1);
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread ()
+		{
+			public void run ()
+			{
+				try
+				{
+					server.close();
+				}
+				catch (IOException e)
+				{
+				}
+				receiver.shutdown();
+			}
+		});
+		logger.info ("ReceiverServer listening on port " + port);
+		accept (receiver, server, receiver.getServerConnections());
+	}
+}
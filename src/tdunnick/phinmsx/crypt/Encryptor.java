@@ -38,6 +38,16 @@ public class Encryptor
 	public final static String DES_TRANSFORM = "DESede/CBC/PKCS5Padding";
 	private String[] transform = { RSA_TRANSFORM, DES_TRANSFORM };
 	Logger logger;
+	// JCA look ups walk the provider list, so each thread keeps its own
+	// ciphers, key generators and certificate factories by name
+	private final static int CIPHERS = 0;
+	private final static int KEYGENS = 1;
+	private final static int FACTORIES = 2;
+	private static ThreadLocal pools = new ThreadLocal ();
+	// every thread's pools by thread, so they can be emptied
+	private static WeakHashMap threads = new WeakHashMap ();
+	private static SecureRandom random = new SecureRandom ();
+	private final static IvParameterSpec ZEROIV = new IvParameterSpec (new byte[8]);
 		
 	/**
 	 * add any needed security providers
@@ -69,6 +79,70 @@ public class Encryptor
 	  return true;
 	}
 	
+	/**
+	 * Get this thread's instance of a JCA object, creating it the first
+	 * time.  Instances must not be held past the caller's use of them.
+	 * 
+	 * @param pool CIPHERS, KEYGENS, or FACTORIES
+	 * @param name transform, algorithm, or type of the instance
+	 * @return the instance
+	 * @throws GeneralSecurityException
+	 */
+	private static Object getInstance (int pool, String name) 
+	  throws GeneralSecurityException
+	{
+		HashMap[] p = (HashMap[]) pools.get();
+		if (p == null)
+		{
+			p = new HashMap[] { new HashMap (), new HashMap (), new HashMap () };
+			pools.set(p);
+			synchronized (threads)
+			{
+				threads.put(Thread.currentThread(), p);
+			}
+		}
+		HashMap m = p[pool];
+		synchronized (m)
+		{
+			Object o = m.get(name);
+			if (o == null)
+			{
+				if (pool == CIPHERS)
+					o = Cipher.getInstance(name);
+				else if (pool == KEYGENS)
+					o = KeyGenerator.getInstance(name);
+				else
+					o = CertificateFactory.getInstance(name);
+				m.put(name, o);
+			}
+			return o;
+		}
+	}
+	
+	/**
+	 * Empty every thread's pooled JCA objects.  Threads kept by a servlet
+	 * container would otherwise hold on to them (and so to our class 
+	 * loader) after we are stopped.  Pools fill again if used afterwards.
+	 */
+	public static void clear ()
+	{
+		synchronized (threads)
+		{
+			Iterator it = threads.values().iterator();
+			while (it.hasNext())
+			{
+				HashMap[] p = (HashMap[]) it.next();
+				for (int i = 0; i < p.length; i++)
+				{
+					synchronized (p[i])
+					{
+						p[i].clear();
+					}
+				}
+			}
+		}
+	}
+	
 	/**
 	 * get the key algorithm for this transform
 	 * 
@@ -109,7 +183,8 @@ public class Encryptor
 	{
 		try
 		{
-			KeyGenerator keygen = KeyGenerator.getInstance (getAlgorithm (DES_TRANSFORM));
+			KeyGenerator keygen = (KeyGenerator) getInstance (KEYGENS, 
+					getAlgorithm (DES_TRANSFORM));
 			return keygen.generateKey();
 		}
 		catch (Exception e)
@@ -273,6 +348,7 @@ public class Encryptor
 	/**
 	 * Gets the private key from a keystore.  If the DN
 	 * is empty or null, pick the first entry and fill in a non-null DN.
+	 * The keystore is loaded and its keys unlocked once, see KeyCache.
 	 * 
 	 * @param path to keystore
 	 * @param passwd for keystore
@@ -282,20 +358,15 @@ public class Encryptor
 	 */
   public Key getPrivateKey (String path, String passwd, String keypass, StringBuffer dn)
 	{
-		KeyStore ks = getKeyStore(path, passwd);
-		String alias = getAlias(ks, dn);
-		if (alias == null)
+  	if (keypass == null)
+  		return null;
+		KeyCache.Entry e = KeyCache.getEntry(this, path, passwd, keypass, dn);
+		if (e == null)
 			return null;
-		try
-		{
-			return ks.getKey(alias, keypass.toCharArray());
-		}
-		catch (Exception e)
-		{
+		if (e.privateKey == null)
 			logger.severe("Can't find " + dn + " in " + path + ": "
-					+ e.getMessage());
-		}
-		return null;
+					+ ((e.error == null) ? "no private key" : e.error));
+		return e.privateKey;
 	}
 	
   /**
@@ -354,21 +425,10 @@ public class Encryptor
 	 */
   public Key getKeyStoreKey (String path, String passwd, StringBuffer dn)
 	{
- 		KeyStore ks = getKeyStore(path, passwd);
-		String alias = getAlias(ks, dn);
-		if (alias == null)
+		KeyCache.Entry e = KeyCache.getEntry(this, path, passwd, null, dn);
+		if (e == null)
 			return null;
-		try
-		{
-			X509Certificate cert = (X509Certificate) ks.getCertificate(alias);
-			return cert.getPublicKey();
-		}
-		catch (Exception e)
-		{
-			logger.severe("Can't find " + dn + " in " + path + ": "
-					+ e.getMessage());
-			return null;
-		}
+		return e.publicKey;
 	}
 	
 	/**
@@ -381,16 +441,53 @@ public class Encryptor
 	 */
   public Key getDerKey (String path, StringBuffer dn)
   {
-  	try
-  	{
-			FileInputStream fs = new FileInputStream(path);
-			return getPublicKey (fs, dn);
-  	}
-		catch (Exception e)
+  	KeyCache.Entry e = KeyCache.getCertificate(this, path);
+  	if ((e == null) || !checkDN (dn, e.name))
+  		return null;
+  	return e.publicKey;
+  }
+  
+  /**
+   * Fill in a DN if empty, otherwise check that it matches
+   * 
+   * @param dn distinguished name to match or return
+   * @param name of the certificate
+   * @return true if filled in or matched
+   */
+  private boolean checkDN (StringBuffer dn, String name)
+  {
+		if (dn != null)
 		{
-			logger.severe("Can't get key from " + path + ": " + e.getMessage());
-			return null;
-		} 	
+			if (dn.length() == 0)
+		    dn.append(name);
+			else if (!dn.toString().equals(name))
+				return false;
+		}
+		return true;
+  }
+  
+  /**
+   * Read an X509 certificate
+   * 
+   * @param fs stream of certificate
+   * @return the certificate
+   * @throws CertificateException
+   */
+  X509Certificate getCertificate (InputStream fs) throws CertificateException
+  {
+		try
+		{
+			CertificateFactory cf = (CertificateFactory) getInstance (FACTORIES, "X.509");
+			return (X509Certificate) cf.generateCertificate(fs);
+		}
+		catch (CertificateException e)
+		{
+			throw e;
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new CertificateException (e.getMessage());
+		}
   }
   
   /**
@@ -406,17 +503,10 @@ public class Encryptor
 			return null;
 		try
 		{
-			CertificateFactory cf = CertificateFactory.getInstance("X.509");
-			X509Certificate cert = (X509Certificate) cf.generateCertificate(fs);
+			X509Certificate cert = getCertificate (fs);
 			fs.close();
-			if (dn != null)
-			{
-				String n = cert.getSubjectDN().getName();
-				if (dn.length() == 0)
-			    dn.append(n);
-				else if (!dn.toString().equals(n))
-					return null;
-			}
+			if (!checkDN (dn, cert.getSubjectDN().getName()))
+				return null;
 			return cert.getPublicKey();
 		}
 		catch (Exception e)
@@ -428,21 +518,41 @@ public class Encryptor
 	
   private IvParameterSpec getIv (int mode)
   {
+  	if (mode == Cipher.DECRYPT_MODE)
+  		return ZEROIV;
   	byte[] b = new byte[8];
-  	if (mode != Cipher.DECRYPT_MODE)
-  	{
-	  	Random rand = new Random ();
-	  	rand.nextBytes(b);
-  	}
+  	random.nextBytes(b);
 	  return new IvParameterSpec (b);
-  	
   }
   
+  /**
+   * Get this thread's cipher for a key, ready to use
+   * 
+   * @param mode to encrypt or decrypt
+   * @param key to use
+   * @return the cipher or null if not available
+   */
   private Cipher getCipher (int mode, Key key)
+  {
+  	return getCipher (mode, key, true);
+  }
+  
+  /**
+   * Get a cipher for a key, ready to use
+   * 
+   * @param mode to encrypt or decrypt
+   * @param key to use
+   * @param shared true for this thread's cipher, false for a new one that
+   *   may be held on to
+   * @return the cipher or null if not available
+   */
+  private Cipher getCipher (int mode, Key key, boolean shared)
   {
   	try
   	{
-  		Cipher cipher = Cipher.getInstance(getTransform (key));
+  		Cipher cipher = shared 
+  		  ? (Cipher) getInstance (CIPHERS, getTransform (key))
+  		  : Cipher.getInstance(getTransform (key));
   		logger.finest("cipher algorithm is: " + cipher.getAlgorithm());
 			// triple DES CBC block uses 8 byte initial vector
 			if (key.getAlgorithm().startsWith("DESede"))
@@ -534,6 +644,99 @@ public class Encryptor
 		return null;
 	}
   
+  /**
+   * Get a stream that decrypts data written to it, passing the result on
+   * as it goes.  Closing it finishes the decryption but leaves the
+   * underlying stream open.
+   * 
+   * @param out for the decrypted data
+   * @param key to use for decryption
+   * @return the stream or null if the cipher isn't available
+   */
+  public OutputStream decryptStream (OutputStream out, Key key)
+  {
+  	if ((out == null) || (key == null))
+  		return null;
+  	// the stream keeps its cipher, so it can't be this thread's
+  	Cipher cipher = getCipher (Cipher.DECRYPT_MODE, key, false);
+  	if (cipher == null)
+  		return null;
+		// triple DES CBC block uses 8 byte pre-pended initial vector
+  	byte[] iv = cipher.getIV();
+  	return new Decrypting (out, cipher, (iv == null) ? 0 : iv.length);
+  }
+  
+  /**
+   * Decrypts through a cipher, dropping the first few bytes
+   */
+  private static class Decrypting extends FilterOutputStream
+  {
+  	private Cipher cipher;
+  	private int skip;
+  	private byte[] buf = new byte[0];
+  	private boolean done = false;
+  	
+  	Decrypting (OutputStream out, Cipher cipher, int skip)
+  	{
+  		super (out);
+  		this.cipher = cipher;
+  		this.skip = skip;
+  	}
+  	
+  	public void write (int c) throws IOException
+  	{
+  		byte[] b = { (byte) c };
+  		write (b, 0, 1);
+  	}
+  	
+  	public void write (byte[] b, int off, int len) throws IOException
+  	{
+  		if (done)
+  			throw new IOException ("Decryption already finished");
+  		grow (len);
+  		try
+  		{
+  			pass (cipher.update(b, off, len, buf, 0));
+  		}
+  		catch (GeneralSecurityException e)
+  		{
+  			throw new IOException (e.getMessage());
+  		}
+  	}
+  	
+  	public void close () throws IOException
+  	{
+  		if (done)
+  			return;
+  		done = true;
+  		grow (0);
+  		try
+  		{
+  			pass (cipher.doFinal(buf, 0));
+  		}
+  		catch (GeneralSecurityException e)
+  		{
+  			throw new IOException (e.getMessage());
+  		}
+  		out.flush();
+  	}
+  	
+  	private void grow (int len)
+  	{
+  		int n = cipher.getOutputSize(len);
+  		if (buf.length < n)
+  			buf = new byte[Math.max (n, 4096)];
+  	}
+  	
+  	private void pass (int n) throws IOException
+  	{
+  		int off = Math.min (skip, n);
+  		skip -= off;
+  		if (n > off)
+  			out.write(buf, off, n - off);
+  	}
+  }
+  
   /**
    * gets an encrypted key.  Normally decrypts using RSA for a DES key
    * 
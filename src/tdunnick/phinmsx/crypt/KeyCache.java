@@ -0,0 +1,315 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *  
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.crypt;
+
+import java.io.*;
+import java.security.*;
+import java.security.cert.*;
+import java.util.*;
+
+/**
+ * Keeps keystores and certificates loaded, with their private keys
+ * already unlocked, so a message only pays for a map lookup.  Each is
+ * keyed by path and the passwords used (as a digest), and loaded again
+ * when the file's modification time or size changes.  Keystore entries
+ * are indexed by a normalized DN, with the old order independent match
+ * as a fall back.  Lookups don't lock; the map is replaced whenever
+ * something new is loaded.
+ * 
+ * @author tld
+ *
+ */
+public class KeyCache
+{
+	private static volatile HashMap cache = new HashMap ();
+	
+	/**
+	 * a keystore or certificate file as loaded
+	 */
+	private static class Store
+	{
+		long modified;
+		long length;
+		// entries in keystore order and by normalized DN
+		ArrayList entries = new ArrayList ();
+		HashMap index = new HashMap ();
+	}
+	
+	/**
+	 * a certificate and its unlocked key, if any
+	 */
+	static class Entry
+	{
+		String name;
+		Key publicKey;
+		Key privateKey;
+		// why the private key couldn't be unlocked
+		String error;
+	}
+	
+	/**
+	 * Normalize a DN so differences in order, spacing, and case don't
+	 * matter.
+	 * 
+	 * @param dn to normalize
+	 * @return normalized DN
+	 */
+	static String normalize (String dn)
+	{
+		String[] d = dn.toLowerCase().split("[ ,]+");
+		Arrays.sort(d);
+		StringBuffer b = new StringBuffer ();
+		for (int i = 0; i < d.length; i++)
+		{
+			if (d[i].length() == 0)
+				continue;
+			if (b.length() > 0)
+				b.append(',');
+			b.append(d[i]);
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Find an entry in a keystore.  If the DN is empty or null, pick the
+	 * first entry and fill in a non-null DN.
+	 * 
+	 * @param crypt for loading and matching
+	 * @param path to the keystore
+	 * @param passwd for the keystore
+	 * @param keypass for private keys, or null if not needed
+	 * @param dn of the entry
+	 * @return the entry or null if not found
+	 */
+	static Entry getEntry (Encryptor crypt, String path, String passwd, 
+			String keypass, StringBuffer dn)
+	{
+		if ((path == null) || (passwd == null))
+			return null;
+		Store s = getStore (crypt, path, passwd, keypass, false);
+		if ((s == null) || s.entries.isEmpty())
+			return null;
+		if ((dn == null) || (dn.length() == 0))
+		{
+			Entry e = (Entry) s.entries.get(0);
+			if (dn != null)
+				dn.append(e.name);
+			return e;
+		}
+		String pdn = dn.toString();
+		Entry e = (Entry) s.index.get(normalize (pdn));
+		if (e != null)
+			return e;
+		for (int i = 0; i < s.entries.size(); i++)
+		{
+			e = (Entry) s.entries.get(i);
+			if (crypt.dnequals(pdn, e.name))
+				return e;
+		}
+		return null;
+	}
+	
+	/**
+	 * Get a certificate from a DER/PEM file
+	 * 
+	 * @param crypt for loading
+	 * @param path to the certificate
+	 * @return the certificate's entry or null if it can't be loaded
+	 */
+	static Entry getCertificate (Encryptor crypt, String path)
+	{
+		if (path == null)
+			return null;
+		Store s = getStore (crypt, path, null, null, true);
+		if ((s == null) || s.entries.isEmpty())
+			return null;
+		return (Entry) s.entries.get(0);
+	}
+	
+	/**
+	 * Drop everything loaded
+	 */
+	public static synchronized void clear ()
+	{
+		cache = new HashMap ();
+	}
+	
+	/**
+	 * Get a loaded store, loading it if new or changed
+	 * 
+	 * @param crypt for loading
+	 * @param path to the file
+	 * @param passwd for a keystore
+	 * @param keypass for private keys
+	 * @param der true if a certificate rather than a keystore
+	 * @return the store or null if it can't be loaded
+	 */
+	private static Store getStore (Encryptor crypt, String path, 
+			String passwd, String keypass, boolean der)
+	{
+		File f = new File (path);
+		String key = getKey (f, passwd, keypass);
+		Store s = (Store) cache.get(key);
+		long modified = f.lastModified();
+		long length = f.length();
+		if ((s != null) && (s.modified == modified) && (s.length == length))
+			return s;
+		synchronized (KeyCache.class)
+		{
+			// someone else may have loaded it while we waited
+			s = (Store) cache.get(key);
+			if ((s != null) && (s.modified == modified) && (s.length == length))
+				return s;
+			s = der ? loadCertificate (crypt, f) : loadKeyStore (crypt, f, passwd, keypass);
+			if (s == null)
+				return null;
+			s.modified = modified;
+			s.length = length;
+			HashMap m = new HashMap (cache);
+			m.put(key, s);
+			cache = m;
+		}
+		return s;
+	}
+	
+	/**
+	 * Get the cache key for a file and its passwords.  The passwords are
+	 * kept as a digest, so a wrong one never finds an unlocked key.
+	 * 
+	 * @param f file
+	 * @param passwd for the file
+	 * @param keypass for its keys
+	 * @return the key
+	 */
+	private static String getKey (File f, String passwd, String keypass)
+	{
+		String k = f.getAbsolutePath();
+		if (passwd == null)
+			return k;
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			md.update(passwd.getBytes("UTF-8"));
+			md.update((byte) 0);
+			if (keypass != null)
+				md.update(keypass.getBytes("UTF-8"));
+			byte[] d = md.digest();
+			StringBuffer b = new StringBuffer (k).append('|');
+			for (int i = 0; i < d.length; i++)
+				b.append(Integer.toHexString((d[i] & 0xff) | 0x100).substring(1));
+			if (keypass == null)
+				b.append("|public");
+			return b.toString();
+		}
+		catch (Exception e)
+		{
+			// every JRE has SHA-1 and UTF-8
+			throw new IllegalStateException (e.getMessage());
+		}
+	}
+	
+	/**
+	 * Load a keystore, unlocking its private keys
+	 * 
+	 * @param crypt for loading
+	 * @param f keystore
+	 * @param passwd for keystore
+	 * @param keypass for private keys, or null to skip them
+	 * @return the loaded store or null if it can't be loaded
+	 */
+	private static Store loadKeyStore (Encryptor crypt, File f, String passwd,
+			String keypass)
+	{
+		KeyStore ks = crypt.getKeyStore(f.getPath(), passwd);
+		if (ks == null)
+			return null;
+		Store s = new Store ();
+		try
+		{
+			Enumeration a = ks.aliases();
+			while (a.hasMoreElements())
+			{
+				String alias = (String) a.nextElement();
+				X509Certificate cert = (X509Certificate) ks.getCertificate(alias);
+				if (cert == null)
+					continue;
+				Entry e = new Entry ();
+				e.name = cert.getSubjectDN().getName();
+				e.publicKey = cert.getPublicKey();
+				if ((keypass != null) && ks.isKeyEntry(alias))
+				{
+					try
+					{
+						e.privateKey = ks.getKey(alias, keypass.toCharArray());
+					}
+					catch (Exception ex)
+					{
+						e.error = ex.getMessage();
+					}
+				}
+				s.entries.add(e);
+				String n = normalize (e.name);
+				if (!s.index.containsKey(n))
+					s.index.put(n, e);
+			}
+		}
+		catch (KeyStoreException e)
+		{
+			crypt.logger.severe("Can't read " + f.getPath() + ": " + e.getMessage());
+			return null;
+		}
+		return s;
+	}
+	
+	/**
+	 * Load a DER/PEM certificate
+	 * 
+	 * @param crypt for loading
+	 * @param f certificate
+	 * @return the loaded store or null if it can't be loaded
+	 */
+	private static Store loadCertificate (Encryptor crypt, File f)
+	{
+		try
+		{
+			FileInputStream fs = new FileInputStream(f);
+			X509Certificate cert;
+			try
+			{
+				cert = crypt.getCertificate(fs);
+			}
+			finally
+			{
+				fs.close ();
+			}
+			Store s = new Store ();
+			Entry e = new Entry ();
+			e.name = cert.getSubjectDN().getName();
+			e.publicKey = cert.getPublicKey();
+			s.entries.add(e);
+			return s;
+		}
+		catch (Exception e)
+		{
+			crypt.logger.severe("Can't get key from " + f.getPath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+}
@@ -101,8 +101,7 @@ public class Passwords
 	  String root = config.getRoot();
 	  
   	v[0] = config.getValue(root + ".passwordFile");
-  	File f = new File (v[0]);
-  	if (!f.canRead())
+  	if ((v[0] != null) && !new File (v[0]).canRead())
   		v[0] = config.getValue(root + ".installDir") + v[0];
 	  if ((v[1] = config.getValue(root + ".seed")) == null)
 	  	v[1] = config.getValue(root + ".serviceSeed");
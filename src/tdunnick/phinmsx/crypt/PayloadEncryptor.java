@@ -20,8 +20,10 @@ package tdunnick.phinmsx.crypt;
 
 import java.io.*;
 import java.security.*;
+import java.util.*;
 import java.util.logging.*;
 
+import tdunnick.phinmsx.util.Base64Decoder;
 import tdunnick.phinmsx.util.XmlContent;
 
 /**
@@ -97,15 +99,9 @@ public class PayloadEncryptor
 			return null;
 		Encryptor crypt = new Encryptor (logger);
 		XmlContent xml = new XmlContent ();
-		try
-		{
-			FileInputStream in = new FileInputStream (TEMPLATE);
-			xml.load(in);
-			in.close();
-		}
-		catch (Exception e)
+		if (!xml.load(TEMPLATE))
 		{
-			logger.severe("Can't parse payload XML: " + e.getMessage());
+			logger.severe("Can't parse payload XML: " + xml.getError());
 			return null;
 		}
 		Key key = crypt.generateDESKey();
@@ -151,6 +147,29 @@ public class PayloadEncryptor
 		return payload.indexOf ("<" + ENCRYPT_ROOT) >= 0;
 	}
 	
+	/**
+	 * Determine if this payload is encrypted XML format by looking at
+	 * the start of it, without making a String of the whole payload.
+	 * 
+	 * @param payload to check
+	 * @param len bytes at the start to look at
+	 * @return true if it appears encrypted
+	 */
+	public boolean isEncrypted (byte[] payload, int len)
+	{
+		String tag = "<" + ENCRYPT_ROOT;
+		len = Math.min (len, payload.length) - tag.length();
+		for (int i = 0; i <= len; i++)
+		{
+			int j = 0;
+			while ((j < tag.length()) && (payload[i + j] == tag.charAt(j)))
+				j++;
+			if (j == tag.length())
+				return true;
+		}
+		return false;
+	}
+	
 	/**
 	 * Decrypt a payload wrapped in XML
 	 * @param path to decryption keystore
@@ -165,54 +184,94 @@ public class PayloadEncryptor
 		if (!isEncrypted (payload))
 			return null;
 		ByteArrayInputStream in = new ByteArrayInputStream (payload.getBytes());
-		XmlContent xml = new XmlContent();
-		try
-		{
-			xml.load(in);
-		}
-		catch (Exception e)
-		{
-			logger.severe("Can't parse payload XML: " + e.getMessage());
-			return null;
-		}
-		String dn = xml.getValue(PAYLOAD_DN);
-		if (dn == null)
-		{
-			logger.severe(PAYLOAD_DN + " not found");
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		if (!decryptPayload (path, storepass, keypass, in, out))
 			return null;
-		}
-		String ckey = xml.getValue(PAYLOAD_KEY);
-		if (ckey == null)
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Decrypt a payload wrapped in XML as it is read.  The envelope is
+	 * scanned for the key name and encrypted key, and then the payload's
+	 * cipher value is decoded and decrypted a buffer at a time, so only
+	 * the buffers are held in memory however large the payload is.
+	 * 
+	 * @param path to decryption keystore
+	 * @param storepass to keystore
+	 * @param keypass and entry
+	 * @param in payload wrapped in XML
+	 * @param out for the decrypted payload, left open
+	 * @return true if decrypted
+	 */
+	public boolean decryptPayload (String path, String storepass, 
+			String keypass, InputStream in, OutputStream out)
+	{
+		Envelope env = new Envelope (in);
+		String dn = null, ckey = null;
+		try
 		{
-			logger.severe(PAYLOAD_KEY + " not found");
-			return null;
+			String tag;
+			while ((tag = env.next ()) != null)
+			{
+				if (tag.equals("KeyName") && env.inside ("EncryptedKey"))
+					dn = env.text ();
+				else if (tag.equals("CipherValue") && env.inside ("EncryptedKey"))
+					ckey = env.text ();
+				else if (tag.equals("CipherValue") && env.isPayload ())
+					break;
+			}
+			if (tag == null)
+			{
+				logger.severe(PAYLOAD_DATA + " not found");
+				return false;
+			}
+			if (dn == null)
+			{
+				logger.severe(PAYLOAD_DN + " not found");
+				return false;
+			}
+			if (ckey == null)
+			{
+				logger.severe(PAYLOAD_KEY + " not found");
+				return false;
+			}
+			Encryptor crypt = new Encryptor (logger);
+			Key key = getDataKey (crypt, path, storepass, keypass, 
+					new StringBuffer (dn), ckey);
+			if (key == null)
+				return false;
+			OutputStream plain = crypt.decryptStream (out, key);
+			if (plain == null)
+				return false;
+	    logger.finest("decrypting payload");
+			Base64Decoder dec = new Base64Decoder (plain);
+			env.copyText (dec);
+			dec.close ();
+			return true;
 		}
-		String data = xml.getValue(PAYLOAD_DATA);
-		if (data == null)
+		catch (IOException e)
 		{
-			logger.severe(PAYLOAD_DATA + " not found");
-			return null;
+			logger.severe("Can't decrypt payload: " + e.getMessage());
 		}
-		return decryptData (path, storepass, keypass, new StringBuffer(dn), ckey, data);
+		return false;
 	}
 	
 	/**
-	 * Decrypt data using a DESede key encrypted by an RSA key from a keystore.
+	 * Get the DESede data key, encrypted by an RSA key from a keystore.
 	 * TODO get key algorithms/transforms from the XML rather than assume.
 	 * For now this is what PHIN-MS always uses.
 	 * 
+	 * @param crypt to use
 	 * @param path to the keystore
 	 * @param storepass for the keystore 
 	 * @param keypass and private key
 	 * @param dn of the keystore entry
 	 * @param ckey encrypted DES key
-	 * @param data to decrypt
-	 * @return the decrypted data
+	 * @return the data key
 	 */
-	private byte[] decryptData (String path, String storepass, 
-			String keypass, StringBuffer dn, String ckey, String data)
+	private Key getDataKey (Encryptor crypt, String path, String storepass, 
+			String keypass, StringBuffer dn, String ckey)
 	{
-		Encryptor crypt = new Encryptor (logger);
 	  logger.finest("getting RSA key");
 		Key key = crypt.getPrivateKey(path, storepass, keypass, dn);
 		if (key == null)
@@ -227,8 +286,252 @@ public class PayloadEncryptor
     	logger.severe ("Couldn't decrypt DES key\n");
     	return null;
     }
-    logger.finest("decrypting payload");
-    return crypt.decrypt(data, key);
+    return key;
+	}
+	
+	/**
+	 * Reads the XML envelope a tag at a time, keeping track of which
+	 * elements we are in by name, sans any namespace prefix.
+	 */
+	private static class Envelope
+	{
+		private InputStream in;
+		private byte[] buf = new byte[8192];
+		private int pos = 0, len = 0;
+		private ArrayList elements = new ArrayList ();
+		private final static String CDATA = "<![CDATA[";
+		
+		Envelope (InputStream in)
+		{
+			this.in = in;
+		}
+		
+		/**
+		 * @return next byte or -1 at the end
+		 * @throws IOException
+		 */
+		private int read () throws IOException
+		{
+			if ((pos == len) && !fill ())
+				return -1;
+			return buf[pos++] & 0xff;
+		}
+		
+		private boolean fill () throws IOException
+		{
+			pos = 0;
+			len = in.read (buf);
+			if (len < 0)
+				len = 0;
+			return len > 0;
+		}
+		
+		/**
+		 * Skip to the start of the next element
+		 * 
+		 * @return its name or null at the end
+		 * @throws IOException
+		 */
+		String next () throws IOException
+		{
+			int c;
+			while ((c = read ()) >= 0)
+			{
+				if (c != '<')
+					continue;
+				StringBuffer tag = new StringBuffer ();
+				while (((c = read ()) >= 0) && (c != '>'))
+					tag.append ((char) c);
+				if ((c < 0) || (tag.length() == 0))
+					return null;
+				c = tag.charAt(0);
+				if ((c == '?') || (c == '!'))
+					continue;
+				if (c == '/')
+				{
+					if (!elements.isEmpty())
+						elements.remove (elements.size() - 1);
+					continue;
+				}
+				String name = getName (tag);
+				if (tag.charAt(tag.length() - 1) != '/')
+					elements.add (name);
+				return name;
+			}
+			return null;
+		}
+		
+		/**
+		 * @param name of an element
+		 * @return true if the current element is within it
+		 */
+		boolean inside (String name)
+		{
+			return elements.indexOf (name) >= 0;
+		}
+		
+		/**
+		 * @return true if in the payload's cipher value
+		 */
+		boolean isPayload ()
+		{
+			int n = elements.size();
+			return (n >= 3) && elements.get(n - 3).equals(ENCRYPT_ROOT)
+			  && elements.get(n - 2).equals("CipherData");
+		}
+		
+		/**
+		 * @return the text of the current element, up to the next tag
+		 * @throws IOException
+		 */
+		String text () throws IOException
+		{
+			ByteArrayOutputStream b = new ByteArrayOutputStream ();
+			copyText (b);
+			return b.toString ("ISO-8859-1").trim();
+		}
+		
+		/**
+		 * Copy the text of the current element, up to the next tag.
+		 * Character references are decoded and CDATA sections copied
+		 * without their markers.
+		 * 
+		 * @param out to copy to
+		 * @throws IOException
+		 */
+		void copyText (OutputStream out) throws IOException
+		{
+			while ((pos < len) || fill ())
+			{
+				int e = pos;
+				while ((e < len) && (buf[e] != '<') && (buf[e] != '&'))
+					e++;
+				out.write (buf, pos, e - pos);
+				pos = e;
+				if (e == len)
+					continue;
+				if (buf[e] == '&')
+					out.write (reference ());
+				else if (starts (CDATA))
+					copyCdata (out);
+				else
+					return;
+			}
+		}
+		
+		/**
+		 * Copy a CDATA section, sans markers
+		 * 
+		 * @param out to copy to
+		 * @throws IOException
+		 */
+		private void copyCdata (OutputStream out) throws IOException
+		{
+			pos += CDATA.length ();
+			while ((pos < len) || fill ())
+			{
+				int e = pos;
+				while ((e < len) && (buf[e] != ']'))
+					e++;
+				out.write (buf, pos, e - pos);
+				pos = e;
+				if (e == len)
+					continue;
+				if (starts ("]]>"))
+				{
+					pos += 3;
+					return;
+				}
+				out.write (buf[pos++]);
+			}
+			throw new IOException ("Unterminated CDATA section");
+		}
+		
+		/**
+		 * Decode a character or entity reference
+		 * 
+		 * @return the character, as ISO-8859-1
+		 * @throws IOException
+		 */
+		private int reference () throws IOException
+		{
+			StringBuffer r = new StringBuffer ();
+			int c;
+			pos++;
+			while (((c = read ()) >= 0) && (c != ';') && (r.length () < 10))
+				r.append ((char) c);
+			String s = r.toString ();
+			int v = -1;
+			if (s.equals ("amp"))
+				v = '&';
+			else if (s.equals ("lt"))
+				v = '<';
+			else if (s.equals ("gt"))
+				v = '>';
+			else if (s.equals ("quot"))
+				v = '"';
+			else if (s.equals ("apos"))
+				v = '\'';
+			else if (s.startsWith ("#"))
+			{
+				try
+				{
+					if (s.startsWith ("#x") || s.startsWith ("#X"))
+						v = Integer.parseInt (s.substring (2), 16);
+					else
+						v = Integer.parseInt (s.substring (1));
+				}
+				catch (NumberFormatException e)
+				{
+				}
+			}
+			if ((c != ';') || (v < 0) || (v > 0xff))
+				throw new IOException ("Can't decode reference &" + s);
+			return v;
+		}
+		
+		/**
+		 * @param s to look for
+		 * @return true if the unread data starts with it
+		 * @throws IOException
+		 */
+		private boolean starts (String s) throws IOException
+		{
+			if (len - pos < s.length ())
+			{
+				System.arraycopy (buf, pos, buf, 0, len - pos);
+				len -= pos;
+				pos = 0;
+				int n;
+				while ((len < s.length ())
+						&& ((n = in.read (buf, len, buf.length - len)) > 0))
+					len += n;
+				if (len < s.length ())
+					return false;
+			}
+			for (int i = 0; i < s.length (); i++)
+			{
+				if (buf[pos + i] != s.charAt (i))
+					return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * @param tag contents
+		 * @return the element name sans prefix
+		 */
+		private String getName (StringBuffer tag)
+		{
+			int b = 0, e = 0;
+			while ((e < tag.length()) && (tag.charAt(e) != '/')
+					&& !Character.isWhitespace(tag.charAt(e)))
+			{
+				if (tag.charAt(e++) == ':')
+					b = e;
+			}
+			return tag.substring (b, e);
+		}
 	}
 	
   public static void usage (String m)
@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tdunnick.phinmsx.domain;
+
+import java.util.*;
+
+import tdunnick.phinmsx.util.*;
+
+/**
+ * Configurations loaded on top of a base configuration, kept so they
+ * aren't parsed, merged, and their passwords decrypted for every
+ * request.  Each is loaded again only when its file changes.  The
+ * properties handed out are sealed since requests share them.
+ * 
+ * @author tld
+ *
+ */
+public class ConfCache
+{
+	private Props base;
+	private String owner;
+	// loaded configurations by name
+	private HashMap confs = new HashMap ();
+	
+	/**
+	 * @param base properties merged with every configuration
+	 * @param owner class name (sans package) the configurations are for
+	 */
+	public ConfCache (Props base, String owner)
+	{
+		this.base = base;
+		this.owner = owner;
+	}
+	
+	/**
+	 * Get the properties for a configuration, loading them if this is the
+	 * first request or the file changed.  If a changed file fails to load
+	 * the last good properties are used until it is fixed.  Names that 
+	 * never loaded aren't kept, since they come from the sender.
+	 * 
+	 * @param conf name of configuration file
+	 * @return the properties or null if they can't be loaded
+	 */
+	public Props getProps (String conf)
+	{
+		WatchedFile w;
+		synchronized (confs)
+		{
+			if ((w = (WatchedFile) confs.get(conf)) == null)
+				confs.put(conf, w = new WatchedFile (conf));
+		}
+		synchronized (w)
+		{
+			Props old = (Props) w.getValue();
+			if (!w.changed())
+				return old;
+			Props p = new Props ();
+			if (!p.load(conf, base.getProps(), owner))
+			{
+				w.reset ();
+				if (old == null)
+				{
+					synchronized (confs)
+					{
+						if (confs.get(conf) == w)
+							confs.remove(conf);
+					}
+					return null;
+				}
+				base.getLogger().warning ("Failed reloading " + conf 
+						+ ", using previous configuration");
+				return old;
+			}
+			// requests still using the old ones can keep doing so, and 
+			// loggers are shared by context so we leave them open
+			p.seal ();
+			w.setValue(p);
+			return p;
+		}
+	}
+	
+	/**
+	 * Forget all the loaded configurations
+	 */
+	public void clear ()
+	{
+		synchronized (confs)
+		{
+			confs.clear ();
+		}
+	}
+}
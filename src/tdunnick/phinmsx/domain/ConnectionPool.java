@@ -0,0 +1,252 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tdunnick.phinmsx.domain;
+
+import java.sql.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * A simple pool of dB connections shared by all the configurations
+ * using the same database and credentials.  Each pooled connection
+ * also keeps its own cache of prepared statements.
+ *
+ * @author tld
+ *
+ */
+public class ConnectionPool
+{
+	// all the pools we know about
+	private static HashMap pools = new HashMap ();
+
+	private String url;
+	private String user;
+	private String passwd;
+	private int size;
+	private long timeout = 30000;
+	private Logger logger;
+	// connections not in use
+	private ArrayList idle = new ArrayList ();
+	// number of connections open (idle or in use)
+	private int open = 0;
+	// prepared statements for each connection
+	private IdentityHashMap statements = new IdentityHashMap ();
+
+	/**
+	 * create a pool - the JDBC driver should already be loaded
+	 *
+	 * @param url of database
+	 * @param user to connect as
+	 * @param passwd for user
+	 * @param size maximum number of connections
+	 * @param logger for errors
+	 */
+	public ConnectionPool (String url, String user, String passwd,
+			int size, Logger logger)
+	{
+		this.url = url;
+		this.user = user;
+		this.passwd = passwd;
+		this.size = (size < 1) ? 1 : size;
+		this.logger = logger;
+	}
+
+	/**
+	 * Find a shared pool
+	 *
+	 * @param key identifying the pool
+	 * @return the pool or null if not found
+	 */
+	public static synchronized ConnectionPool getPool (String key)
+	{
+		return (ConnectionPool) pools.get(key);
+	}
+
+	/**
+	 * Share a pool.  If one is already shared under this key, that
+	 * one is kept and returned instead.
+	 *
+	 * @param key identifying the pool
+	 * @param pool to share
+	 * @return the shared pool
+	 */
+	public static synchronized ConnectionPool addPool (String key,
+			ConnectionPool pool)
+	{
+		ConnectionPool p = (ConnectionPool) pools.get(key);
+		if (p != null)
+			return p;
+		pools.put (key, pool);
+		return pool;
+	}
+
+	/**
+	 * Get a connection from the pool, opening a new one if none are idle
+	 * and the pool isn't full.  Otherwise wait for one to be returned.
+	 *
+	 * @return the connection
+	 * @throws SQLException if can't connect or timed out
+	 */
+	public Connection getConnection () throws SQLException
+	{
+		long ends = System.currentTimeMillis() + timeout;
+		synchronized (this)
+		{
+			while (idle.isEmpty() && (open >= size))
+			{
+				long wait = ends - System.currentTimeMillis();
+				if (wait <= 0)
+					throw new SQLException ("Timed out waiting for a connection to " + url);
+				try
+				{
+					wait (wait);
+				}
+				catch (InterruptedException e)
+				{
+					throw new SQLException ("Interrupted waiting for a connection to " + url);
+				}
+			}
+			if (!idle.isEmpty())
+				return (Connection) idle.remove(idle.size() - 1);
+			open++;
+		}
+		// connect outside the lock so others aren't held up
+		try
+		{
+			return DriverManager.getConnection(url, user, passwd);
+		}
+		catch (SQLException e)
+		{
+			synchronized (this)
+			{
+				open--;
+				notify ();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Return a connection to the pool.
+	 *
+	 * @param conn to return
+	 * @param discard true if the connection should be closed (e.g. failed)
+	 */
+	public void release (Connection conn, boolean discard)
+	{
+		if (conn == null)
+			return;
+		try
+		{
+			if (!discard && !conn.isClosed())
+			{
+				synchronized (this)
+				{
+					idle.add(conn);
+					notify ();
+				}
+				return;
+			}
+		}
+		catch (SQLException e)
+		{
+		}
+		close (conn);
+		synchronized (this)
+		{
+			open--;
+			notify ();
+		}
+	}
+
+	/**
+	 * Get a prepared statement for this connection, preparing it only
+	 * the first time it is asked for.
+	 *
+	 * @param conn the statement is for
+	 * @param sql of the statement
+	 * @return the statement
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare (Connection conn, String sql)
+	  throws SQLException
+	{
+		HashMap s;
+		synchronized (this)
+		{
+			if ((s = (HashMap) statements.get(conn)) == null)
+				statements.put(conn, s = new HashMap ());
+		}
+		// only one thread ever has this connection, so no need to lock
+		PreparedStatement ps = (PreparedStatement) s.get(sql);
+		if (ps == null)
+		{
+			ps = conn.prepareStatement(sql);
+			s.put (sql, ps);
+		}
+		return ps;
+	}
+
+	/**
+	 * close a connection along with its statements
+	 * @param conn to close
+	 */
+	private void close (Connection conn)
+	{
+		HashMap s;
+		synchronized (this)
+		{
+			s = (HashMap) statements.remove(conn);
+		}
+		try
+		{
+			if (s != null)
+			{
+				Iterator it = s.values().iterator();
+				while (it.hasNext())
+					((PreparedStatement) it.next()).close();
+			}
+			if (!conn.isClosed())
+				conn.close ();
+		}
+		catch (SQLException e)
+		{
+		  logger.severe ("Failed closing connection - "
+					+ e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Close all the idle connections.  Those in use are still returned
+	 * normally, and new ones will be opened as needed.
+	 */
+	public void close ()
+	{
+		ArrayList l;
+		synchronized (this)
+		{
+			l = idle;
+			idle = new ArrayList ();
+			open -= l.size();
+			notifyAll ();
+		}
+		for (int i = 0; i < l.size(); i++)
+			close ((Connection) l.get(i));
+	}
+}
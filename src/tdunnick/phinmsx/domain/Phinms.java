@@ -20,6 +20,7 @@ package tdunnick.phinmsx.domain;
 
 import java.util.logging.*;
 import java.util.Date;
+import java.util.regex.Pattern;
 import java.text.SimpleDateFormat;
 import java.io.File;
 import java.net.URL;
@@ -70,7 +71,15 @@ public class Phinms
 	// supporting values
 	static private String phinmsPath = null;
 	static private String version = null;
-	static private SimpleDateFormat dfmt = new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss");
+	// formats aren't thread safe, so each thread gets its own
+	static private ThreadLocal dfmt = new ThreadLocal ()
+	{
+		protected Object initialValue ()
+		{
+			return new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss");
+		}
+	};
+	static private Pattern V28 = Pattern.compile (".*2[.]8[.].*");
 	static final String UNKNOWNVERSION = "Unknown PHIN-MS Version";
 	
   /**
@@ -186,8 +195,8 @@ public class Phinms
 	{
 		if (d == null)
 			d = new Date();
-		String s = dfmt.format(d);
-	  if (version.matches (".*2[.]8[.].*"))
+		String s = ((SimpleDateFormat) dfmt.get()).format(d);
+	  if (V28.matcher (getVersion ()).matches ())
 	  	s = s.replace('T', ' ');
 	  return s;
 
@@ -202,7 +211,7 @@ public class Phinms
 	{
 		if (d != null) try
 		{
-			return dfmt.parse(d.replace(' ', 'T')).getTime();
+			return ((SimpleDateFormat) dfmt.get()).parse(d.replace(' ', 'T')).getTime();
 		}
 		catch (Exception e)
 		{
@@ -33,8 +33,49 @@ public class PhinmsX
 	public final static String TEMPDIR = "tempDirectory";
 	// helper class
 	public final static String HELPER = "helper.class";
+	// "true" to run the helper after the sender has its response
+	public final static String HELPERPOSTACK = "helper.postAck";
+	// threads running post-ack helpers and how many may wait for one
+	public final static String POSTACKTHREADS = "postAckThreads";
+	public final static String POSTACKQUEUE = "postAckQueue";
 	// status file
 	public final static String STATUS = "status";
+	// number of recent messages shown in the status
+	public final static String STATUSSIZE = "statusSize";
+	// spool payloads to TEMPDIR using buffers of BUFFERSIZE
+	public final static String SPOOL = "spoolPayload";
+	public final static String BUFFERSIZE = "bufferSize";
+	// worker queue record ID's from a query (or "identity") or in blocks
+	public final static String RECORDIDQUERY = "recordIdQuery";
+	public final static String RECORDIDBLOCK = "recordIdBlock";
+	public final static String RECORDIDTABLE = "recordIdTable";
+	// "async" to write the worker queue behind through a journal
+	public final static String QUEUEWRITER = "queueWriter";
+	public final static String QUEUESIZE = "queueSize";
+	public final static String QUEUEBATCH = "queueBatch";
+	public final static String QUEUEJOURNAL = "queueJournal";
+	// payload durability none or fsync
+	public final static String DURABILITY = "durability";
+	// messages and payload bytes in flight at once, bytes charged a message
+	// of unknown length, how many may wait and for how long (ms), and how
+	// long (seconds) senders are told to back off
+	public final static String MAXREQUESTS = "maxRequests";
+	public final static String MAXREQUESTBYTES = "maxRequestBytes";
+	public final static String UNKNOWNREQUESTBYTES = "unknownRequestBytes";
+	public final static String MAXWAITING = "maxWaiting";
+	public final static String ADMISSIONWAIT = "admissionWait";
+	public final static String RETRYAFTER = "retryAfter";
+	// incoming files kept flat, or in date or hash sub-folders
+	public final static String INCOMINGLAYOUT = "incomingLayout";
+	// "true" to write logs from the background, what to do when LOGQUEUESIZE
+	// records are waiting (block, drop, or count)
+	public final static String LOGASYNC = "logAsync";
+	public final static String LOGQUEUESIZE = "logQueueSize";
+	public final static String LOGOVERFLOW = "logOverflow";
+	// port the stand alone ReceiverServer listens on
+	public final static String SERVERPORT = "serverPort";
+	// connections the stand alone ReceiverServer serves at once
+	public final static String SERVERCONNECTIONS = "serverConnections";
 
 	// a few configuration defaults
 	public final static String DFLTQUEUE = "workerqueue";
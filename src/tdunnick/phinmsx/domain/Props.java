@@ -42,7 +42,9 @@ public class Props
 	private XmlContent props = null;
 	private Passwords passwords = null;
 	private Logger logger = null;
-	private String tableName = null;
+	private ConnectionPool pool = null;
+	// set once loaded if these properties are shared
+	private boolean sealed = false;
 	Connection conn = null;
 		
 	
@@ -69,6 +71,8 @@ public class Props
 	public boolean close ()
 	{
 		closeConnection ();
+		if (pool != null)
+			pool.close ();
 		closeLog ();
 		return true;
 	}
@@ -95,7 +99,20 @@ public class Props
 	 */
 	public boolean load (String conf, XmlContent r)
 	{
-		String owner = getParentClassName ();
+		return load (conf, r, getParentClassName ());
+	}
+	
+	/**
+	 * Load a configuration for a given owner, for use when we aren't
+	 * called by the owner itself.
+	 * 
+	 * @param conf name of configuration file.
+	 * @param r properties to merge with
+	 * @param owner class name (sans package) these properties are for
+	 * @return true if successful
+	 */
+	public boolean load (String conf, XmlContent r, String owner)
+	{
 		String s = null;
 		File d = null;
 		
@@ -187,9 +204,11 @@ public class Props
 		{
 			// get receiver.xml
 			s = getProperty(PhinmsX.RECEIVERXML);
-			if (s == null)
+			if ((s == null) && (Phinms.getPath("config") != null))
 				s = Phinms.getPath("config") + "/receiver/receiver.xml";
-			if ((r = getProps(s)) == null)
+			if (s == null)
+				logger.warning ("No PHIN-MS found, set " + PhinmsX.RECEIVERXML);
+			else if ((r = getProps(s)) == null)
 				logger.severe ("Can't load " + s);
 		}
 		if ((r != null) && !props.merge (r, false))
@@ -288,28 +307,19 @@ public class Props
   }
   
 	/**
-	 * get the name of the table for this QUEUENAME
+	 * get the name of the table for this QUEUENAME from the (shared)
+	 * queue map
 	 * @return
 	 */
 	public String getTableName ()
 	{
-		if (tableName != null)
-		  return tableName;
 		String queue = getProperty (PhinmsX.QUEUENAME);
-		String mapname = getProperty (Phinms.QUEUEMAP);
-		if ((queue == null) || (mapname == null))
+		if (queue == null)
 			return null;
-		// logger().debug("Loading queue map " + mapname);
-		XmlContent map = new XmlContent ();
-		if (!map.load (new File (mapname)))
+		QueueMap map = QueueMap.getMap (getProperty (Phinms.QUEUEMAP), logger);
+		if (map == null)
 			return null;
-		for (int i = 0; i < map.getTagCount("QueueMap.workerQueue"); i++)
-		{
-			String prefix = "QueueMap.workerQueue[" + i + "].";
-			if (queue.equals(map.getValue(prefix + "queueId")))
-				return tableName = map.getValue(prefix + "tableName");
-		}
-		return null;
+		return map.getTableName (queue);
 	}
 	
 	/**
@@ -365,6 +375,11 @@ public class Props
 	 */
 	public void setProperty (String name, String value)
 	{
+		if (sealed)
+		{
+			logger.warning ("Can't set " + name + " in shared properties");
+			return;
+		}
 		logger.finest("Set " + name + " to " + value);
 		if ((props != null) && (propRoot != null))
 		{
@@ -375,6 +390,22 @@ public class Props
 			logger.warning ("Can't set " + name + " to " + value);
 	}
 
+	/**
+	 * Make these properties read only, so they can be shared.
+	 */
+	public void seal ()
+	{
+		sealed = true;
+	}
+	
+	/**
+	 * @return true if these properties are read only
+	 */
+	public boolean isSealed ()
+	{
+		return sealed;
+	}
+
 	/**
 	 * Load an XML properties files
 	 * 
@@ -479,7 +510,7 @@ public class Props
 			else
 				f = new FileHandler(logName + ".txt", false);
 			f.setFormatter(new PhinmsXFormatter ());
-			l.addHandler(f);
+			l.addHandler(getAsyncHandler (f));
 			l.setLevel(getLevel());
 			return true;
 		}
@@ -489,6 +520,24 @@ public class Props
 	  }
 	}
 	
+	/**
+	 * Put a handler behind an asynchronous one if logAsync is set
+	 * 
+	 * @param h handler
+	 * @return the handler to use
+	 */
+	private Handler getAsyncHandler (Handler h)
+	{
+		String s = getProperty (PhinmsX.LOGASYNC);
+		if ((s == null) || !s.equalsIgnoreCase("true"))
+			return h;
+		int size = 1024;
+		if (((s = getProperty (PhinmsX.LOGQUEUESIZE)) != null) && s.matches("[0-9]+"))
+			size = Integer.parseInt(s);
+		return new AsyncHandler (h, size, 
+				AsyncHandler.getPolicy (getProperty (PhinmsX.LOGOVERFLOW)));
+	}
+	
 	/**
 	 * force the use of this logger or create a new one if needed.
 	 * We use the Level to determine if this logger has been previously
@@ -588,15 +637,17 @@ public class Props
 	}
 	
 	/**
-	 * set up a dB connection
+	 * get the connection pool for this configuration's database.  Pools
+	 * are shared by all configurations with the same database and
+	 * credentials, so the password file is only read when a pool is
+	 * first created.
 	 * 
-	 * @param env for this connection
-	 * @return new connnection
+	 * @return the pool or null if the database can't be set up
 	 */
-	public Connection getConnection ()
+	public ConnectionPool getPool ()
 	{
-		if (conn != null)
-			return (conn);
+		if (pool != null)
+			return pool;
 		
 		String jdbcDriver = getProperty(Phinms.JDBCDRIVER);
 		String databaseUrl = getProperty(Phinms.DATABASEURL);
@@ -608,6 +659,11 @@ public class Props
 		String seed = getProperty (Phinms.SEED);
 		String passfile = getProperty(Phinms.PASSWORDFILE);
 		
+		String poolkey = jdbcDriver + "|" + databaseUrl + "|" + databaseUser 
+		  + "|" + databasePasswd + "|" + passfile;
+		if ((pool = ConnectionPool.getPool(poolkey)) != null)
+			return pool;
+		
 		Passwords pw = new Passwords ();
 		if (!pw.load(passfile, seed, key))
 		{
@@ -627,38 +683,83 @@ public class Props
 			logger.severe ("Unable to load " + jdbcDriver);
 			return null;
 		}
+		int size = 4;
+		String s = getProperty (Phinms.POOLSIZE);
+		if ((s != null) && s.matches("[0-9]+"))
+			size = Integer.parseInt(s);
+		return pool = ConnectionPool.addPool(poolkey, new ConnectionPool(
+				databaseUrl, databaseUser, databasePasswd, size, logger));
+	}
+	
+	/**
+	 * get a connection from the pool.  Caller is responsible for returning
+	 * it with closeConnection (conn, discard).
+	 * 
+	 * @return the connection or null if not available
+	 */
+	public Connection openConnection ()
+	{
+		if (getPool () == null)
+			return null;
 		try
 		{
-			conn = 
-				DriverManager.getConnection(databaseUrl, databaseUser, databasePasswd);
+			return pool.getConnection();
 		}
 		catch (Exception e)
 		{
 			logger.severe ("Unable to connect to " 
-					+ databaseUrl + " - " + e.getLocalizedMessage());
+					+ getProperty(Phinms.DATABASEURL) + " - " + e.getLocalizedMessage());
 			return (null);
 		}
-		return conn;
 	}
 	
 	/**
-	 * closes a connection
-	 * @param conn
+	 * return a connection to the pool
+	 * 
+	 * @param c connection to return
+	 * @param discard true to close it (e.g. after an error)
+	 */
+	public void closeConnection (Connection c, boolean discard)
+	{
+		if (pool != null)
+			pool.release(c, discard);
+	}
+	
+	/**
+	 * get a (cached) prepared statement for a pooled connection
+	 * 
+	 * @param c connection from openConnection()
+	 * @param sql to prepare
+	 * @return the statement
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare (Connection c, String sql)
+	  throws SQLException
+	{
+		return getPool ().prepare(c, sql);
+	}
+	
+	/**
+	 * set up a dB connection
+	 * 
+	 * @param env for this connection
+	 * @return new connnection
+	 */
+	public Connection getConnection ()
+	{
+		if (conn != null)
+			return (conn);
+		return conn = openConnection ();
+	}
+	
+	/**
+	 * returns the connection to the pool
 	 */
 	public void closeConnection ()
 	{
 		if (conn != null)
 		{
-			try
-			{
-				if (!conn.isClosed())
-				  conn.close ();
-			}
-			catch (SQLException e)
-			{
-			  logger.severe ("Failed closing connection - " 
-						+ e.getLocalizedMessage());
-			}
+			closeConnection (conn, false);
 		  conn = null;
 		}
 	}
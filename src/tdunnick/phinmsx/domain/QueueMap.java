@@ -0,0 +1,117 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package tdunnick.phinmsx.domain;
+
+import java.util.*;
+import java.util.logging.*;
+
+import tdunnick.phinmsx.util.*;
+
+/**
+ * A parsed PHIN-MS queue map, giving the worker queue table for each
+ * queue ID.  Maps are shared by everyone using the same file and read
+ * again only when it changes.  Each map is never changed once read, so
+ * it may be used freely after the file changes.
+ * 
+ * @author tld
+ *
+ */
+public class QueueMap
+{
+	// all the maps we know about, by file name
+	private static HashMap maps = new HashMap ();
+
+	// table names by queue ID
+	private HashMap tables = new HashMap ();
+	// table names in the order found
+	private ArrayList workers = new ArrayList ();
+	
+	private QueueMap ()
+	{
+	}
+	
+	/**
+	 * Get a queue map, reading it if this is the first time or the file
+	 * changed.  If a changed file can't be read (for example while it is 
+	 * being rewritten) the last good map is used until it can.
+	 * 
+	 * @param name of queue map file
+	 * @param logger for errors
+	 * @return the map or null if it can't be read
+	 */
+	public static QueueMap getMap (String name, Logger logger)
+	{
+		if (name == null)
+			return null;
+		WatchedFile w;
+		synchronized (maps)
+		{
+			if ((w = (WatchedFile) maps.get(name)) == null)
+				maps.put(name, w = new WatchedFile (name));
+		}
+		synchronized (w)
+		{
+			if (w.changed())
+			{
+				XmlContent x = new XmlContent ();
+				if (!x.load (w.getFile()))
+				{
+					w.reset ();
+					if (w.getValue() == null)
+						logger.severe("failed parsing " + name + " - " + x.getError());
+					else
+						logger.warning("failed parsing " + name + " - " + x.getError()
+								+ ", using previous map");
+					return (QueueMap) w.getValue();
+				}
+				QueueMap m = new QueueMap ();
+				int n = x.getTagCount("QueueMap.workerQueue");
+				for (int i = 0; i < n; i++)
+				{
+					String prefix = "QueueMap.workerQueue[" + i + "].";
+					String table = x.getValue(prefix + "tableName");
+					String queue = x.getValue(prefix + "queueId");
+					m.workers.add (table);
+					if ((queue != null) && !m.tables.containsKey(queue))
+						m.tables.put(queue, table);
+				}
+				logger.finest("found " + n + " worker queues in " + name);
+				w.setValue(m);
+			}
+			return (QueueMap) w.getValue();
+		}
+	}
+	
+	/**
+	 * @param queue ID
+	 * @return the worker queue table or null if not mapped
+	 */
+	public String getTableName (String queue)
+	{
+		return (String) tables.get(queue);
+	}
+	
+	/**
+	 * @return a list of all the worker queue tables
+	 */
+	public ArrayList getTables ()
+	{
+		return new ArrayList (workers);
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+/**
+ * Limits the messages the receiver works on at once, by count and by
+ * payload bytes.  A message over the limits waits its turn if there is
+ * room in the wait queue, and is turned away if not or if it waits too
+ * long.  A message larger than the byte limit is let in when nothing
+ * else is in flight, so it isn't refused forever.  A message of unknown
+ * size is charged a worst case size, the whole byte limit unless
+ * configured otherwise.
+ * 
+ * @author tld
+ *
+ */
+public class Admission
+{
+	private int maxRequests;
+	private long maxBytes;
+	private long unknownBytes;
+	private int maxWaiting;
+	private long timeout;
+	private int requests = 0;
+	private long bytes = 0;
+	private int waiting = 0;
+	private long refused = 0;
+	
+	/**
+	 * @param maxRequests in flight or 0 for no limit
+	 * @param maxBytes in flight or 0 for no limit
+	 * @param maxWaiting for their turn
+	 * @param timeout most milliseconds to wait
+	 */
+	public Admission (int maxRequests, long maxBytes, int maxWaiting, long timeout)
+	{
+		this (maxRequests, maxBytes, maxWaiting, timeout, maxBytes);
+	}
+	
+	/**
+	 * @param maxRequests in flight or 0 for no limit
+	 * @param maxBytes in flight or 0 for no limit
+	 * @param maxWaiting for their turn
+	 * @param timeout most milliseconds to wait
+	 * @param unknownBytes charged a message of unknown size
+	 */
+	public Admission (int maxRequests, long maxBytes, int maxWaiting, long timeout,
+			long unknownBytes)
+	{
+		this.maxRequests = maxRequests;
+		this.maxBytes = maxBytes;
+		this.maxWaiting = maxWaiting;
+		this.timeout = timeout;
+		this.unknownBytes = unknownBytes;
+	}
+	
+	/**
+	 * @param size of a message, or less than 0 if not known
+	 * @return bytes it is charged
+	 */
+	private long charge (long size)
+	{
+		return (size < 0) ? unknownBytes : size;
+	}
+	
+	/**
+	 * @param size of the message
+	 * @return true if it can start now
+	 */
+	private boolean fits (long size)
+	{
+		if (requests == 0)
+			return true;
+		if ((maxRequests > 0) && (requests >= maxRequests))
+			return false;
+		return (maxBytes <= 0) || (bytes + size <= maxBytes);
+	}
+	
+	/**
+	 * Let a message in, waiting if needed.  Every message let in must
+	 * leave().
+	 * 
+	 * @param size of the message in bytes, or less than 0 if not known
+	 * @return true if let in, false if turned away
+	 */
+	public synchronized boolean enter (long size)
+	{
+		size = charge (size);
+		if (!fits (size))
+		{
+			if (waiting >= maxWaiting)
+			{
+				refused++;
+				return false;
+			}
+			long ends = System.currentTimeMillis() + timeout;
+			waiting++;
+			try
+			{
+				while (!fits (size))
+				{
+					long wait = ends - System.currentTimeMillis();
+					if (wait <= 0)
+					{
+						refused++;
+						return false;
+					}
+					wait (wait);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				refused++;
+				return false;
+			}
+			finally
+			{
+				waiting--;
+			}
+		}
+		requests++;
+		bytes += size;
+		return true;
+	}
+	
+	/**
+	 * A message let in is done
+	 * 
+	 * @param size given to enter()
+	 */
+	public synchronized void leave (long size)
+	{
+		size = charge (size);
+		requests--;
+		bytes -= size;
+		notifyAll ();
+	}
+	
+	public synchronized int getRequests ()
+	{
+		return requests;
+	}
+	
+	public synchronized int getWaiting ()
+	{
+		return waiting;
+	}
+	
+	/**
+	 * @return messages turned away so far
+	 */
+	public synchronized long getRefused ()
+	{
+		return refused;
+	}
+}
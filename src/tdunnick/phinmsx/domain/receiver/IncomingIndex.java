@@ -0,0 +1,186 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+/**
+ * Hands out unique names for incoming files.  Files may be kept in one
+ * folder (flat), or spread over sub-folders by the date received
+ * (yyyy/MM/dd) or a hash of the name (00 to ff) so no one folder grows
+ * too large.  Names reserved by requests still in progress are tracked 
+ * in memory, so two requests never get the same name, and a name is 
+ * only handed out if no file has it on disk.  The disk is checked 
+ * outside our lock, so requests don't wait on each other's probes.
+ * 
+ * @author tld
+ *
+ */
+public class IncomingIndex
+{
+	public final static int FLAT = 0;
+	public final static int DATE = 1;
+	public final static int HASH = 2;
+	
+	// all the indexes we know about
+	private static HashMap indexes = new HashMap ();
+	
+	private String base;
+	private int layout;
+	private SimpleDateFormat fmt = new SimpleDateFormat ("yyyy/MM/dd");
+	// names by folder
+	private HashMap dirs = new HashMap ();
+	// folder names for reserved files by path
+	private HashMap reserved = new HashMap ();
+	
+	/**
+	 * names in one folder
+	 */
+	private class Dir
+	{
+		// reserved by requests in progress
+		HashSet reserved = new HashSet ();
+	}
+	
+	private IncomingIndex (String base, int layout)
+	{
+		this.base = base;
+		this.layout = layout;
+	}
+	
+	/**
+	 * Get the index for a folder
+	 * 
+	 * @param base folder, which may be empty or end with a separator
+	 * @param layout flat, date, or hash (null for flat)
+	 * @return the index
+	 */
+	public static synchronized IncomingIndex getIndex (String base, String layout)
+	{
+		int l = FLAT;
+		if ("date".equalsIgnoreCase(layout))
+			l = DATE;
+		else if ("hash".equalsIgnoreCase(layout))
+			l = HASH;
+		if (base == null)
+			base = "";
+		String key = l + base;
+		IncomingIndex index = (IncomingIndex) indexes.get(key);
+		if (index == null)
+			indexes.put(key, index = new IncomingIndex (base, l));
+		return index;
+	}
+	
+	/**
+	 * @param name of file
+	 * @return folder for this name, which is simply prefixed to the name
+	 */
+	private String getDir (String name)
+	{
+		String dir = base;
+		if (layout == FLAT)
+			return dir;
+		if ((dir.length() > 0) && !dir.endsWith("/") && !dir.endsWith(File.separator))
+			dir += File.separator;
+		if (layout == DATE)
+			return dir + fmt.format(new Date ()).replace('/', File.separatorChar)
+			  + File.separator;
+		if (layout == HASH)
+		{
+			String h = Integer.toHexString((name.hashCode() & 0xff) | 0x100);
+			return dir + h.substring(1) + File.separator;
+		}
+		return dir;
+	}
+	
+	/**
+	 * Get the names for a folder, creating it if this is the first time.
+	 * With the date layout, earlier folders are dropped once nothing in
+	 * them is reserved.
+	 * 
+	 * @param dir folder
+	 * @return the names
+	 */
+	private Dir getNames (File dir)
+	{
+		String path = dir.getPath();
+		Dir d = (Dir) dirs.get(path);
+		if (d != null)
+			return d;
+		if (layout == DATE)
+		{
+			Iterator it = dirs.values().iterator();
+			while (it.hasNext())
+			{
+				if (((Dir) it.next()).reserved.isEmpty())
+					it.remove ();
+			}
+		}
+		d = new Dir ();
+		if (!dir.exists())
+			dir.mkdirs ();
+		dirs.put(path, d);
+		return d;
+	}
+	
+	/**
+	 * Reserve a name for an incoming file.  The name is claimed in memory
+	 * first and then checked on disk, since others may drop files in the
+	 * folder too.
+	 * 
+	 * @param name of file
+	 * @return the file to use or null if the name is taken
+	 */
+	public File reserve (String name)
+	{
+		File f;
+		synchronized (this)
+		{
+			f = new File (getDir (name) + name);
+			Dir d = getNames (f.getAbsoluteFile().getParentFile());
+			if (!d.reserved.add(f.getName()))
+				return null;
+			reserved.put(f.getPath(), d);
+		}
+		if (f.exists())
+		{
+			release (f, false);
+			return null;
+		}
+		return f;
+	}
+	
+	/**
+	 * Release a name from reserve()
+	 * 
+	 * @param f file reserved
+	 * @param stored true if the file was stored under that name, after 
+	 * which it is found on disk
+	 */
+	public synchronized void release (File f, boolean stored)
+	{
+		Dir d = (Dir) reserved.remove(f.getPath());
+		if (d == null)
+			return;
+		d.reserved.remove(f.getName());
+	}
+}
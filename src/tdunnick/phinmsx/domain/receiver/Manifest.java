@@ -0,0 +1,105 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+import java.util.*;
+
+/**
+ * Pulls every simple element out of an XML style ebXML manifest in one
+ * pass, so routing and queue columns can use any of them without
+ * scanning the manifest again.  Only elements holding text (no child
+ * elements) are kept, under their name sans any namespace prefix.  The
+ * first occurrence of a name wins.  Values are taken as is, without
+ * decoding entities.
+ * 
+ * @author tld
+ *
+ */
+public class Manifest
+{
+	/**
+	 * Parse a manifest
+	 * 
+	 * @param manifest to parse, may be null
+	 * @return map of element names to values, empty if none found
+	 */
+	public static HashMap parse (String manifest)
+	{
+		HashMap fields = new HashMap ();
+		if (manifest == null)
+			return fields;
+		int len = manifest.length();
+		// name of the element we are in and where its text starts
+		String open = null;
+		int text = 0;
+		int i = manifest.indexOf('<');
+		while (i >= 0)
+		{
+			int e = manifest.indexOf('>', i + 1);
+			if (e < 0)
+				break;
+			char c = (i + 1 < len) ? manifest.charAt(i + 1) : '>';
+			if (c == '/')
+			{
+				String name = getName (manifest, i + 2, e);
+				if ((open != null) && open.equals(name) && !fields.containsKey(name))
+					fields.put(name, manifest.substring(text, i));
+				open = null;
+			}
+			else if ((c == '?') || (c == '!'))
+				open = null;
+			else if (manifest.charAt(e - 1) == '/')
+			{
+				String name = getName (manifest, i + 1, e - 1);
+				if (!fields.containsKey(name))
+					fields.put(name, "");
+				open = null;
+			}
+			else
+			{
+				open = getName (manifest, i + 1, e);
+				text = e + 1;
+			}
+			i = manifest.indexOf('<', e + 1);
+		}
+		return fields;
+	}
+	
+	/**
+	 * Get an element name from a tag, dropping any namespace prefix and
+	 * attributes
+	 * 
+	 * @param s holding the tag
+	 * @param b start of the name
+	 * @param e end of the tag
+	 * @return the name
+	 */
+	private static String getName (String s, int b, int e)
+	{
+		int n = b;
+		while ((n < e) && !Character.isWhitespace(s.charAt(n)))
+		{
+			if (s.charAt(n) == ':')
+				b = n + 1;
+			n++;
+		}
+		return s.substring(b, n);
+	}
+}
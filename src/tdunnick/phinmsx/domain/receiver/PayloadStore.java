@@ -0,0 +1,241 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import tdunnick.phinmsx.domain.*;
+
+/**
+ * Writes payloads to disk and publishes them to their final names.  A
+ * payload is written to a temporary file, made durable as configured,
+ * and then renamed so nobody ever sees a partial file.  Durability is
+ * one of...
+ * <ul>
+ * <li>none - leave it to the operating system (the default)</li>
+ * <li>fsync - sync each file before it is published</li>
+ * </ul>
+ * 
+ * @author tld
+ *
+ */
+public class PayloadStore
+{
+	public final static int NONE = 0;
+	public final static int FSYNC = 1;
+	
+	// all the stores we know about
+	private static HashMap stores = new HashMap ();
+	
+	private int mode;
+	
+	protected PayloadStore (int mode)
+	{
+		this.mode = mode;
+	}
+	
+	/**
+	 * Get the shared store for a configuration
+	 * 
+	 * @param props with durability settings
+	 * @return the store
+	 */
+	public static PayloadStore getStore (Props props)
+	{
+		int mode = NONE;
+		String s = props.getProperty (PhinmsX.DURABILITY);
+		if (s != null)
+		{
+			if (s.equalsIgnoreCase("fsync"))
+				mode = FSYNC;
+			else if (!s.equalsIgnoreCase("none"))
+				props.getLogger().warning ("Unknown durability " + s + ", using none");
+		}
+		return getStore (mode);
+	}
+	
+	/**
+	 * Get a shared store
+	 * 
+	 * @param mode of durability
+	 * @return the store
+	 */
+	public static synchronized PayloadStore getStore (int mode)
+	{
+		Integer key = new Integer (mode);
+		PayloadStore store = (PayloadStore) stores.get(key);
+		if (store == null)
+			stores.put(key, store = new PayloadStore (mode));
+		return store;
+	}
+	
+	/**
+	 * Write data to a (temporary) file
+	 * 
+	 * @param f file to write
+	 * @param data to write
+	 * @throws IOException
+	 */
+	public void write (File f, byte[] data) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream (f);
+		try
+		{
+			FileChannel ch = out.getChannel();
+			ByteBuffer b = ByteBuffer.wrap(data);
+			while (b.hasRemaining())
+				ch.write(b);
+		}
+		finally
+		{
+			out.close ();
+		}
+	}
+	
+	/**
+	 * Make a file durable and then move it to its final name.  An existing
+	 * file is never replaced.
+	 * 
+	 * @param tmp file written
+	 * @param dest name to publish it as
+	 * @throws IOException if it can't be published
+	 */
+	public void publish (File tmp, File dest) throws IOException
+	{
+		publish (tmp, dest, false);
+	}
+	
+	/**
+	 * Make a file durable and then move it to its final name.  The file
+	 * is renamed if possible, otherwise copied to a temporary file next to
+	 * the destination and renamed there.
+	 * 
+	 * @param tmp file written
+	 * @param dest name to publish it as
+	 * @param replace an existing file
+	 * @throws IOException if it can't be published
+	 */
+	public void publish (File tmp, File dest, boolean replace) throws IOException
+	{
+		sync (tmp);
+		if (dest.exists())
+		{
+			if (!replace)
+				throw new IOException (dest.getPath() + " already exists");
+			// rename over it where we can, otherwise remove it first
+			if (rename (tmp, dest))
+				return;
+			dest.delete ();
+		}
+		if (rename (tmp, dest))
+			return;
+		// likely on another device, so copy it over first
+		File d = dest.getAbsoluteFile().getParentFile();
+		File copy = File.createTempFile ("payload", null, d);
+		try
+		{
+			copy (tmp, copy);
+			sync (copy);
+			if (dest.exists() || !rename (copy, dest))
+				throw new IOException ("Unable to rename " + tmp.getPath() 
+						+ " to " + dest.getPath());
+		}
+		catch (IOException e)
+		{
+			copy.delete ();
+			throw e;
+		}
+		tmp.delete ();
+	}
+	
+	/**
+	 * Rename a file, which fails if the destination is on another device
+	 * 
+	 * @param from file
+	 * @param to new name
+	 * @return true if renamed
+	 */
+	protected boolean rename (File from, File to)
+	{
+		return from.renameTo(to);
+	}
+	
+	/**
+	 * Copy a file
+	 * 
+	 * @param from file
+	 * @param to file
+	 * @throws IOException
+	 */
+	private void copy (File from, File to) throws IOException
+	{
+		FileInputStream in = new FileInputStream (from);
+		FileOutputStream out = null;
+		try
+		{
+			out = new FileOutputStream (to);
+			FileChannel src = in.getChannel();
+			FileChannel dst = out.getChannel();
+			long size = src.size(), pos = 0;
+			while (pos < size)
+				pos += src.transferTo(pos, size - pos, dst);
+		}
+		finally
+		{
+			in.close ();
+			if (out != null)
+				out.close ();
+		}
+	}
+	
+	/**
+	 * Make a file durable as configured
+	 * 
+	 * @param f file to sync
+	 * @throws IOException
+	 */
+	public void sync (File f) throws IOException
+	{
+		if (mode == FSYNC)
+			force (f);
+	}
+	
+	/**
+	 * sync a file to disk
+	 * 
+	 * @param f file
+	 * @throws IOException
+	 */
+	private void force (File f) throws IOException
+	{
+		RandomAccessFile r = new RandomAccessFile (f, "rw");
+		try
+		{
+			r.getChannel().force(true);
+		}
+		finally
+		{
+			r.close ();
+		}
+	}
+}
@@ -0,0 +1,720 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+
+import tdunnick.phinmsx.domain.*;
+
+/**
+ * Write behind for the worker queue.  Records are added to a bounded
+ * queue and a background thread inserts them in batches.  Updates to
+ * records already added go through the same queue, so they always
+ * follow the insert.  Every record is first appended to a journal, and 
+ * marked there once it is committed, so anything still queued when we 
+ * stop (or crash) is written the next time we start.  The journal is 
+ * synced to disk before a record is accepted, with each sync covering 
+ * everything written by other threads while waiting for it.  A crash 
+ * between a commit and its mark being synced inserts that record again.
+ * <p>
+ * The journal is a sequence of entries, either 'R' (insert) or 'U'
+ * (update) followed by the sequence number, configuration, table, and 
+ * record, or 'C' followed by the sequence number of a committed record.  
+ * It is emptied whenever the queue drains, and rewritten with only the
+ * records still queued when it grows past twice the queue capacity.
+ *
+ * @author tld
+ *
+ */
+public class QueueWriter implements Runnable
+{
+	// time to wait before retrying a failed batch
+	private final static long RETRY = 5000;
+	// times a record is tried on its own before it is given up
+	private final static int TRIES = 3;
+
+	private Props props;
+	private ConfCache confs;
+	private Logger logger;
+	private File journal;
+	private FileOutputStream file = null;
+	private DataOutputStream out = null;
+	// entries written since the journal was last rewritten
+	private int logged = 0;
+	// count of journal writes, and of those known synced
+	private long written = 0;
+	private long synced = 0;
+	// changes each time the journal is (re)opened
+	private int generation = 0;
+	// held while syncing, so only one thread syncs at a time
+	private Object syncLock = new Object ();
+	private int capacity;
+	private int batch;
+	private LinkedList queue = new LinkedList ();
+	private long seq = 0;
+	private Thread thread = null;
+	private boolean running = false;
+
+	/**
+	 * one queued record
+	 */
+	private class Entry
+	{
+		long seq;
+		Props props;
+		String conf;
+		String table;
+		RcvRecord rec;
+		boolean update = false;
+		int tries = 0;
+	}
+
+	/**
+	 * @param props base configuration
+	 * @param confs for records replayed from the journal
+	 * @param journal file
+	 * @param capacity of the in memory queue
+	 * @param batch maximum records inserted at once
+	 */
+	public QueueWriter (Props props, ConfCache confs, File journal, 
+			int capacity, int batch)
+	{
+		this.props = props;
+		this.confs = confs;
+		this.logger = props.getLogger ();
+		this.journal = journal;
+		this.capacity = (capacity < 1) ? 1 : capacity;
+		this.batch = (batch < 1) ? 1 : batch;
+	}
+
+	/**
+	 * Replay the journal and start the background writer
+	 *
+	 * @return true if successful
+	 */
+	public boolean start ()
+	{
+		ArrayList pending = replay ();
+		synchronized (this)
+		{
+			for (int i = 0; i < pending.size(); i++)
+			{
+				Entry e = (Entry) pending.get(i);
+				e.seq = ++seq;
+				queue.add (e);
+			}
+			try
+			{
+				compact ();
+			}
+			catch (IOException e)
+			{
+				logger.severe ("Can't open queue journal " + journal.getPath()
+						+ " - " + e.getMessage());
+				return false;
+			}
+			if (!pending.isEmpty())
+				logger.info ("Replaying " + pending.size() + " queue records");
+			running = true;
+		}
+		thread = new Thread (this, "QueueWriter");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Stop the background writer after it empties the queue.  Anything it
+	 * can't insert stays in the journal.
+	 */
+	public void stop ()
+	{
+		synchronized (this)
+		{
+			running = false;
+			notifyAll ();
+		}
+		try
+		{
+			if (thread != null)
+				thread.join ();
+		}
+		catch (InterruptedException e)
+		{
+		}
+		synchronized (this)
+		{
+			close ();
+		}
+	}
+
+	/**
+	 * Queue a record for insert.  If the queue is full or we aren't running
+	 * the record is inserted right away instead.  The record is in the 
+	 * synced journal before this returns.
+	 *
+	 * @param props configuration for the record
+	 * @param conf name of the configuration or null for the base
+	 * @param rec to insert
+	 * @return true if queued or inserted
+	 */
+	public boolean add (Props props, String conf, RcvRecord rec)
+	{
+		return queue (props, conf, rec, false);
+	}
+
+	/**
+	 * Queue an update to a record added earlier.  When the queue is full an
+	 * update is only queued if its insert is still waiting, and then only
+	 * up to twice the capacity, otherwise it is done right away like an 
+	 * insert.  If we aren't running the record is updated right away too.
+	 *
+	 * @param props configuration for the record
+	 * @param conf name of the configuration or null for the base
+	 * @param rec to update
+	 * @return true if queued or updated
+	 * @see RcvRecord#update
+	 */
+	public boolean update (Props props, String conf, RcvRecord rec)
+	{
+		return queue (props, conf, rec, true);
+	}
+
+	private boolean queue (Props props, String conf, RcvRecord rec, 
+			boolean update)
+	{
+		String table = props.getTableName ();
+		if (table == null)
+		{
+			logger.severe ("Can't queue record - no table for queue");
+			return false;
+		}
+		long w = 0;
+		synchronized (this)
+		{
+			if (running && (out != null) && ((queue.size() < capacity) 
+					|| (update && (queue.size() < 2 * capacity) && waiting (table, rec))))
+			{
+				Entry e = new Entry ();
+				e.seq = ++seq;
+				e.props = props;
+				e.conf = conf;
+				e.table = table;
+				e.rec = rec;
+				e.update = update;
+				try
+				{
+					log (e);
+					w = ++written;
+					queue.add (e);
+					notifyAll ();
+				}
+				catch (IOException ex)
+				{
+					logger.severe ("Can't write queue journal - " + ex.getMessage());
+				}
+			}
+		}
+		if (w == 0)
+			return update ? rec.update (props, table) : rec.insert (props, table);
+		sync (w);
+		return true;
+	}
+	
+	/**
+	 * Check for a queued insert with the same local file name, which is
+	 * how updates find their record
+	 * 
+	 * @param table of the record
+	 * @param rec update
+	 * @return true if the insert is still queued
+	 */
+	private boolean waiting (String table, RcvRecord rec)
+	{
+		String name = rec.getLocalFileName();
+		Iterator it = queue.iterator();
+		while (it.hasNext())
+		{
+			Entry e = (Entry) it.next();
+			if (!e.update && e.table.equals(table) && (name != null)
+					&& name.equals(e.rec.getLocalFileName()))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Make sure the journal is on disk up to a given write.  Whoever gets
+	 * to sync first covers all the writes made so far, so those waiting 
+	 * behind are usually already done.
+	 * 
+	 * @param w count of the write that must be synced
+	 */
+	private void sync (long w)
+	{
+		synchronized (syncLock)
+		{
+			if (synced >= w)
+				return;
+			long upto;
+			int gen;
+			FileDescriptor fd;
+			synchronized (this)
+			{
+				if (out == null)
+					return;
+				upto = written;
+				gen = generation;
+				try
+				{
+					out.flush ();
+					fd = file.getFD ();
+				}
+				catch (IOException e)
+				{
+					logger.severe ("Can't write queue journal - " + e.getMessage());
+					return;
+				}
+			}
+			try
+			{
+				fd.sync ();
+			}
+			catch (IOException e)
+			{
+				// a rewritten journal was synced with everything still queued
+				synchronized (this)
+				{
+					if (gen == generation)
+					{
+						logger.severe ("Can't sync queue journal - " + e.getMessage());
+						return;
+					}
+				}
+			}
+			synced = upto;
+		}
+	}
+
+	/**
+	 * @return number of records waiting
+	 */
+	public synchronized int size ()
+	{
+		return queue.size ();
+	}
+
+	/**
+	 * Background writer.  Take up to a batch of records and insert those
+	 * for the same configuration and table together.
+	 */
+	public void run ()
+	{
+		while (true)
+		{
+			ArrayList l = new ArrayList ();
+			synchronized (this)
+			{
+				while (running && queue.isEmpty())
+				{
+					try
+					{
+						wait ();
+					}
+					catch (InterruptedException e)
+					{
+						running = false;
+					}
+				}
+				if (queue.isEmpty())
+					return;
+				for (int i = 0; (i < batch) && (i < queue.size()); i++)
+					l.add (queue.get(i));
+			}
+			ArrayList done = new ArrayList ();
+			boolean ok = true;
+			// records whose insert is kept for another try
+			HashSet held = new HashSet ();
+			while (!l.isEmpty())
+			{
+				ArrayList group = next (l, held);
+				if (group.isEmpty())
+					break;
+				ArrayList tried = new ArrayList (group);
+				if (!insert (group))
+					ok = false;
+				for (int i = 0; i < tried.size(); i++)
+				{
+					Entry e = (Entry) tried.get(i);
+					if (!e.update && !group.contains(e))
+						held.add (key (e));
+				}
+				done.addAll (group);
+			}
+			long w = commit (done);
+			if (w > 0)
+				sync (w);
+			if ((w >= 0) && ok)
+				continue;
+			// when stopping leave anything failed for the next start
+			synchronized (this)
+			{
+				if (!running)
+					return;
+			}
+			pause ();
+		}
+	}
+
+	/**
+	 * Remove the records that can go in one batch with the first one,
+	 * those for the same configuration and table, and all inserts or all
+	 * updates.  An update is left for later while its record's insert is
+	 * ahead of it, and dropped from this batch (so it stays queued) if 
+	 * that insert is being held for another try.
+	 *
+	 * @param l records to pick from
+	 * @param held keys of records whose insert is held
+	 * @return the records removed, empty if only held updates were left
+	 */
+	private ArrayList next (ArrayList l, HashSet held)
+	{
+		ArrayList group = new ArrayList ();
+		Entry first = null;
+		// inserts not in the group, ahead of the record looked at
+		HashSet ahead = new HashSet ();
+		Iterator it = l.iterator();
+		while (it.hasNext())
+		{
+			Entry e = (Entry) it.next();
+			String key = key (e);
+			if (e.update && held.contains(key))
+			{
+				it.remove ();
+				continue;
+			}
+			if (first == null)
+				first = e;
+			if ((e.update == first.update) && e.table.equals(first.table) 
+					&& ((e.conf == null) ? (first.conf == null) : e.conf.equals(first.conf))
+					&& !(e.update && ahead.contains(key)))
+			{
+				group.add (e);
+				it.remove ();
+			}
+			else if (!e.update)
+				ahead.add (key);
+		}
+		return group;
+	}
+	
+	/**
+	 * @param e queued record
+	 * @return key matching an update to the insert of its record
+	 */
+	private String key (Entry e)
+	{
+		return e.table + "\n" + e.rec.getLocalFileName();
+	}
+
+	/**
+	 * Insert a group of records with the same configuration and table.  If
+	 * the batch fails (or these are updates) each is tried on its own, and 
+	 * a record that keeps failing is given up so it doesn't block the 
+	 * queue forever.  Tries aren't counted while the database can't be
+	 * reached.
+	 *
+	 * @param group of records, left with only those that can be removed
+	 * from the queue
+	 * @return false if any records need to be tried again
+	 */
+	private boolean insert (ArrayList group)
+	{
+		Entry first = (Entry) group.get(0);
+		ArrayList recs = new ArrayList ();
+		for (int i = 0; i < group.size(); i++)
+			recs.add (((Entry) group.get(i)).rec);
+		if (!first.update && RcvRecord.insert (first.props, first.table, recs))
+			return true;
+		ArrayList failed = new ArrayList ();
+		for (int i = 0; i < group.size(); i++)
+		{
+			Entry e = (Entry) group.get(i);
+			if (!(e.update ? e.rec.update (e.props, e.table) 
+					: e.rec.insert (e.props, e.table)))
+				failed.add (e);
+		}
+		if (failed.isEmpty())
+			return true;
+		// if nothing went in the database may be down, so keep them all
+		if ((failed.size() == group.size()) && !isUp (first.props))
+		{
+			group.clear ();
+			return false;
+		}
+		boolean ok = true;
+		for (int i = 0; i < failed.size(); i++)
+		{
+			Entry e = (Entry) failed.get(i);
+			if (++e.tries < TRIES)
+			{
+				group.remove (e);
+				ok = false;
+			}
+			else
+				logger.severe ("Giving up queueing " + e.rec.getLocalFileName()
+						+ " to " + e.table);
+		}
+		return ok;
+	}
+
+	/**
+	 * @return true if we can get a connection to this database
+	 */
+	private boolean isUp (Props props)
+	{
+		java.sql.Connection conn = props.openConnection ();
+		if (conn == null)
+			return false;
+		props.closeConnection (conn, false);
+		return true;
+	}
+
+	/**
+	 * Mark records committed and take them off the queue.  If the queue
+	 * is then empty, the journal is started over, or if the journal has
+	 * grown too large it is rewritten with what is still queued.
+	 *
+	 * @param done records committed
+	 * @return count of the journal write to sync, 0 if none, or -1 if
+	 * the journal can't be written
+	 */
+	private synchronized long commit (ArrayList done)
+	{
+		if ((out == null) || done.isEmpty())
+			return 0;
+		long w = 0;
+		try
+		{
+			for (int i = 0; i < done.size(); i++)
+			{
+				Entry e = (Entry) done.get(i);
+				out.writeByte ('C');
+				out.writeLong (e.seq);
+			}
+			w = ++written;
+		}
+		catch (IOException e)
+		{
+			logger.severe ("Can't write queue journal - " + e.getMessage());
+			w = -1;
+		}
+		queue.removeAll (done);
+		try
+		{
+			if (queue.isEmpty())
+				open (false);
+			else if (logged > 2 * capacity)
+				compact ();
+			else
+				return w;
+		}
+		catch (IOException e)
+		{
+			logger.severe ("Can't rewrite queue journal - " + e.getMessage());
+			if (out == null)
+			{
+				try
+				{
+					open (true);
+				}
+				catch (IOException ex)
+				{
+				}
+			}
+		}
+		return (w < 0) ? w : 0;
+	}
+
+	/**
+	 * wait a bit before trying again
+	 */
+	private synchronized void pause ()
+	{
+		try
+		{
+			wait (RETRY);
+		}
+		catch (InterruptedException e)
+		{
+			running = false;
+		}
+	}
+
+	/**
+	 * Write the records still queued to a new journal, sync it, and then 
+	 * replace the old one.
+	 * 
+	 * @throws IOException
+	 */
+	private void compact () throws IOException
+	{
+		File f = new File (journal.getPath() + ".new");
+		close ();
+		file = new FileOutputStream (f);
+		out = new DataOutputStream (new BufferedOutputStream (file));
+		for (int i = 0; i < queue.size(); i++)
+			log ((Entry) queue.get(i));
+		out.flush ();
+		file.getFD ().sync ();
+		close ();
+		if (!f.renameTo(journal))
+		{
+			journal.delete ();
+			if (!f.renameTo(journal))
+				throw new IOException ("can't rename " + f.getPath());
+		}
+		open (true);
+		logged = queue.size ();
+	}
+
+	/**
+	 * (Re)open the journal
+	 *
+	 * @param append true to keep what is already there
+	 * @throws IOException
+	 */
+	private void open (boolean append) throws IOException
+	{
+		close ();
+		file = new FileOutputStream (journal, append);
+		out = new DataOutputStream (new BufferedOutputStream (file));
+		generation++;
+		if (!append)
+			logged = 0;
+	}
+
+	private void close ()
+	{
+		if (out == null)
+			return;
+		try
+		{
+			out.close ();
+		}
+		catch (IOException e)
+		{
+			logger.severe ("Can't close queue journal - " + e.getMessage());
+		}
+		out = null;
+		file = null;
+	}
+
+	/**
+	 * append a record to the journal.  The entry is put together first and
+	 * written at once, so a record that can't be written (a field over
+	 * 64K) never leaves part of an entry behind.
+	 *
+	 * @param e record
+	 * @throws IOException
+	 */
+	private void log (Entry e) throws IOException
+	{
+		ByteArrayOutputStream b = new ByteArrayOutputStream ();
+		DataOutputStream d = new DataOutputStream (b);
+		d.writeByte (e.update ? 'U' : 'R');
+		d.writeLong (e.seq);
+		d.writeUTF (e.conf == null ? "" : e.conf);
+		d.writeUTF (e.table);
+		e.rec.write (d);
+		d.flush ();
+		b.writeTo (out);
+		logged++;
+	}
+
+	/**
+	 * Read the journal for records never committed.  A partial entry at
+	 * the end (from a crash while writing) is ignored.
+	 *
+	 * @return the records in the order queued
+	 */
+	private ArrayList replay ()
+	{
+		LinkedHashMap pending = new LinkedHashMap ();
+		if (!journal.exists())
+			return new ArrayList ();
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream (new BufferedInputStream (
+					new FileInputStream (journal)));
+			while (true)
+			{
+				int type = in.read ();
+				if (type < 0)
+					break;
+				Long n = new Long (in.readLong ());
+				if (type == 'C')
+				{
+					pending.remove (n);
+					continue;
+				}
+				if ((type != 'R') && (type != 'U'))
+					throw new IOException ("Bad journal entry type " + type);
+				Entry e = new Entry ();
+				e.update = (type == 'U');
+				e.conf = in.readUTF ();
+				e.table = in.readUTF ();
+				e.rec = RcvRecord.read (in);
+				if (e.conf.length() == 0)
+				{
+					e.conf = null;
+					e.props = props;
+				}
+				else if ((e.props = confs.getProps(e.conf)) == null)
+				{
+					logger.severe ("Failed reading " + e.conf);
+					e.props = props;
+				}
+				pending.put (n, e);
+			}
+		}
+		catch (EOFException e)
+		{
+			logger.warning ("Queue journal " + journal.getPath() + " was truncated");
+		}
+		catch (IOException e)
+		{
+			logger.severe ("Failed reading queue journal " + journal.getPath()
+					+ " - " + e.getMessage());
+		}
+		try
+		{
+			if (in != null)
+				in.close ();
+		}
+		catch (IOException e)
+		{
+		}
+		return new ArrayList (pending.values());
+	}
+}
@@ -19,6 +19,7 @@
 
 package tdunnick.phinmsx.domain.receiver;
 
+import java.io.*;
 import java.util.*;
 import tdunnick.phinmsx.domain.*;
 import tdunnick.phinmsx.util.*;
@@ -34,6 +35,8 @@ public class RcvEnv
 {
 	// properties for this environment
 	public Props props = null;
+	// and where they came from, null for the servlet's own
+	public String conf = null;
 	
 	// values set from the incoming message METADATA
 	// incoming file name
@@ -42,6 +45,15 @@ public class RcvEnv
 	public String fileSuffix = null;
 	// path to destination file
 	public String filePath = null;
+	// and its name reserved in the incoming index
+	public File reserved = null;
+	// message service and action
+	public String service = null;
+	public String action = null;
+	// fields from the message manifest, see Manifest
+	public HashMap manifest = null;
+	// milliseconds spent in each stage, see RcvMetrics
+	public long[] times = RcvMetrics.newTimes ();
 	// return payload and name
 	public String payloadName = null;
 	public byte[] payload = null;
@@ -52,6 +64,83 @@ public class RcvEnv
 	public String applicationError = "none";
 	public String applicationResponse = "success";
   
+  /**
+   * Get the file name with the suffix, and any extension just before
+   * it, removed.  For example "report.hl7.1234" with suffix "1234" 
+   * gives "report".  The first place the suffix fits is used.
+   * 
+   * @return the base name
+   */
+  public String getBaseName ()
+  {
+  	String s = fileName;
+  	int n = fileSuffix.length();
+  	for (int i = s.indexOf('.'); i >= 0; i = s.indexOf('.', i + 1))
+  	{
+  		// an extension between this dot and the next comes off too
+  		int j = s.indexOf('.', i + 1);
+  		if ((j >= 0) && s.startsWith(fileSuffix, j + 1))
+  			return s.substring(0, i) + s.substring(j + 1 + n);
+  		if (s.startsWith(fileSuffix, i + 1))
+  			return s.substring(0, i) + s.substring(i + 1 + n);
+  	}
+  	return s;
+  }
+  
+  /**
+   * Add the time spent in a stage
+   * 
+   * @param stage from RcvMetrics
+   * @param start time the stage started
+   * @return the current time
+   */
+  public long time (int stage, long start)
+  {
+  	long now = System.currentTimeMillis();
+  	if (times[stage] < 0)
+  		times[stage] = 0;
+  	times[stage] += now - start;
+  	return now;
+  }
+  
+  /**
+   * Copy this environment for work that continues after the response,
+   * such as a post-ack helper.  Stage times start over.
+   *
+   * @return the copy
+   */
+  public RcvEnv copy ()
+  {
+  	RcvEnv env = new RcvEnv ();
+  	env.props = props;
+  	env.conf = conf;
+  	env.fileName = fileName;
+  	env.fileSuffix = fileSuffix;
+  	env.filePath = filePath;
+  	env.service = service;
+  	env.action = action;
+  	env.manifest = manifest;
+  	env.payloadName = payloadName;
+  	env.payload = payload;
+  	env.applicationStatus = applicationStatus;
+  	env.applicationError = applicationError;
+  	env.applicationResponse = applicationResponse;
+  	return env;
+  }
+
+  /**
+   * Get a field from the message manifest, for example to route on
+   * 
+   * @param name of the manifest element
+   * @return its value or null if not in the manifest
+   */
+  public String getManifest (String name)
+  {
+  	if (manifest == null)
+  		return null;
+  	return (String) manifest.get (name);
+  }
+
   /**
    * returns one of the environments properties prepending the root
    * 
@@ -0,0 +1,242 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+import java.io.*;
+import java.util.*;
+
+import tdunnick.phinmsx.util.*;
+
+/**
+ * Latency histograms for each stage of receiving a message, kept by
+ * stage, service, action, and configuration.  Times are in milliseconds.
+ * Histograms are found without locking, and each has its own lock, so
+ * requests rarely wait on each other to record.
+ * 
+ * @author tld
+ *
+ */
+public class RcvMetrics
+{
+	// stages timed
+	public final static int PARSE = 0;
+	public final static int DECRYPT = 1;
+	public final static int WRITE = 2;
+	public final static int HELPER = 3;
+	public final static int QUEUE = 4;
+	public final static int TOTAL = 5;
+	public final static String[] STAGES = 
+	  { "parse", "decrypt", "write", "helper", "queue", "total" };
+	// most label combinations kept before lumping the rest together
+	private final static int MAXSERIES = 1000;
+	private final static String OTHER = "other";
+	// percentiles reported and how they are named in JSON and Prometheus
+	private final static double[] QUANTILES = { 50, 90, 99, 99.9 };
+	private final static String[] PERCENTILES = { "p50", "p90", "p99", "p999" };
+	private final static String[] FRACTIONS = { "0.5", "0.9", "0.99", "0.999" };
+	// label names
+	private final static String[] NAMES = { "stage", "service", "action", "conf" };
+	
+	// series by key, replaced (not changed) when one is added
+	private static volatile TreeMap series = new TreeMap ();
+	
+	/**
+	 * one set of labels and its histogram
+	 */
+	private static class Series
+	{
+		String[] labels;
+		Histogram h = new Histogram ();
+	}
+	
+	/**
+	 * @return times for a new request, none yet recorded
+	 */
+	public static long[] newTimes ()
+	{
+		long[] t = new long[STAGES.length];
+		Arrays.fill (t, -1);
+		return t;
+	}
+	
+	/**
+	 * Record the stage times for a request
+	 * 
+	 * @param env of the request
+	 */
+	public static void record (RcvEnv env)
+	{
+		for (int i = 0; i < env.times.length; i++)
+		{
+			if (env.times[i] >= 0)
+				getHistogram (STAGES[i], env.service, env.action, env.conf)
+				  .record (env.times[i]);
+		}
+	}
+	
+	/**
+	 * Get the histogram for a stage, adding it if needed
+	 * 
+	 * @param stage name
+	 * @param service of the message
+	 * @param action of the message
+	 * @param conf used or null for the default
+	 * @return the histogram
+	 */
+	public static Histogram getHistogram (String stage, String service, 
+			String action, String conf)
+	{
+		String[] labels = { stage, service, action, conf };
+		for (int i = 1; i < labels.length; i++)
+		{
+			if (labels[i] == null)
+				labels[i] = "";
+		}
+		String key = getKey (labels);
+		Series s = (Series) series.get (key);
+		if (s != null)
+			return s.h;
+		synchronized (RcvMetrics.class)
+		{
+			if ((s = (Series) series.get (key)) == null)
+			{
+				if (series.size() >= MAXSERIES)
+				{
+					labels[1] = labels[2] = labels[3] = OTHER;
+					key = getKey (labels);
+					if ((s = (Series) series.get (key)) != null)
+						return s.h;
+				}
+				TreeMap m = new TreeMap (series);
+				s = new Series ();
+				s.labels = labels;
+				m.put (key, s);
+				series = m;
+			}
+		}
+		return s.h;
+	}
+	
+	private static String getKey (String[] labels)
+	{
+		StringBuffer b = new StringBuffer ();
+		for (int i = 0; i < labels.length; i++)
+			b.append (labels[i]).append ('\n');
+		return b.toString ();
+	}
+	
+	/**
+	 * Write the histograms as JSON
+	 * 
+	 * @param out to write to
+	 */
+	public static void writeJson (PrintWriter out)
+	{
+		out.print ("{\"unit\":\"ms\",\"stages\":[");
+		Iterator it = series.values().iterator();
+		while (it.hasNext())
+		{
+			Series s = (Series) it.next();
+			Histogram h = s.h.copy ();
+			out.print ("{");
+			for (int i = 0; i < NAMES.length; i++)
+				out.print ("\"" + NAMES[i] + "\":\"" + jsonEscape (s.labels[i]) + "\",");
+			out.print ("\"count\":" + h.getCount() + ",\"sum\":" + h.getSum() 
+					+ ",\"max\":" + h.getMax());
+			for (int i = 0; i < QUANTILES.length; i++)
+				out.print (",\"" + PERCENTILES[i] + "\":" + h.getValueAt (QUANTILES[i]));
+			out.print (it.hasNext() ? "}," : "}");
+		}
+		out.println ("]}");
+	}
+	
+	/**
+	 * Write the histograms as Prometheus summaries
+	 * 
+	 * @param out to write to
+	 */
+	public static void writePrometheus (PrintWriter out)
+	{
+		String name = "phinmsx_receiver_stage_milliseconds";
+		out.println ("# HELP " + name + " Time spent in each stage of receiving a message");
+		out.println ("# TYPE " + name + " summary");
+		StringBuffer max = new StringBuffer ();
+		Iterator it = series.values().iterator();
+		while (it.hasNext())
+		{
+			Series s = (Series) it.next();
+			Histogram h = s.h.copy ();
+			StringBuffer b = new StringBuffer ();
+			for (int i = 0; i < NAMES.length; i++)
+			{
+				if (i > 0)
+					b.append (',');
+				b.append (NAMES[i]).append ("=\"").append (promEscape (s.labels[i]))
+				  .append ('"');
+			}
+			String labels = b.toString ();
+			for (int i = 0; i < QUANTILES.length; i++)
+				out.println (name + "{" + labels + ",quantile=\"" 
+						+ FRACTIONS[i] + "\"} " 
+						+ h.getValueAt (QUANTILES[i]));
+			out.println (name + "_sum{" + labels + "} " + h.getSum ());
+			out.println (name + "_count{" + labels + "} " + h.getCount ());
+			max.append (name + "_max{" + labels + "} " + h.getMax () + "\n");
+		}
+		out.println ("# HELP " + name + "_max Longest time spent in each stage");
+		out.println ("# TYPE " + name + "_max gauge");
+		out.print (max.toString ());
+	}
+	
+	private static String jsonEscape (String s)
+	{
+		StringBuffer b = new StringBuffer ();
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if ((c == '"') || (c == '\\'))
+				b.append ('\\').append (c);
+			else if (c < ' ')
+			{
+				String h = Integer.toHexString (c | 0x10000);
+				b.append ("\\u").append (h.substring (1));
+			}
+			else
+				b.append (c);
+		}
+		return b.toString ();
+	}
+	
+	private static String promEscape (String s)
+	{
+		StringBuffer b = new StringBuffer ();
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if ((c == '"') || (c == '\\'))
+				b.append ('\\').append (c);
+			else if (c == '\n')
+				b.append ("\\n");
+			else
+				b.append (c);
+		}
+		return b.toString ();
+	}
+}
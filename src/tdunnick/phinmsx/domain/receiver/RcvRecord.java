@@ -18,10 +18,11 @@
  */
 
 package tdunnick.phinmsx.domain.receiver;
+import java.io.*;
 import java.sql.*;
+import java.util.*;
 
-import tdunnick.phinmsx.domain.Props;
-import tdunnick.phinmsx.util.StrUtil;
+import tdunnick.phinmsx.domain.*;
 
 import java.util.logging.*;
 
@@ -47,44 +48,148 @@ public class RcvRecord
 	status;
 	
 	
-	private int getNextRecordId (Props props, String tablename)
+	/**
+	 * get the next record ID.  If the configuration gives a query (e.g. for
+	 * a sequence) use it, otherwise take one from the shared allocator.
+	 * The connection must not be in a transaction.
+	 * 
+	 * @param props for this queue
+	 * @param conn to the database
+	 * @param tablename of the queue
+	 * @return the ID, or 0 if the database assigns it
+	 * @throws SQLException
+	 */
+	private int getNextRecordId (Props props, Connection conn, String tablename)
 	throws SQLException
 	{
-		int id = 1;
-		
-		Statement stmt = props.query("select max(recordId) from " + tablename);
-		ResultSet res = stmt.getResultSet ();
-		if (res == null)
-			return (0);
-    if (res.next())
-			id = res.getInt(1) + 1;
-    res.close();
-    stmt.close();
+		String q = props.getProperty (PhinmsX.RECORDIDQUERY);
+		if (q == null)
+			return getIds (props, tablename).next(conn, getBlock (props));
+		if (isIdentity (props))
+			return 0;
+		int id = 0;
+		ResultSet res = props.prepare(conn, q).executeQuery();
+		if (res.next())
+			id = res.getInt(1);
+		res.close();
 		return id;
 	}
 	
-	private boolean insertRecord (Props props, String tablename)
-    throws SQLException
+	/**
+	 * @return true if the database assigns the recordId
+	 */
+	private boolean isIdentity (Props props)
+	{
+		return "identity".equalsIgnoreCase(props.getProperty (PhinmsX.RECORDIDQUERY));
+	}
+	
+	/**
+	 * @return the shared ID allocator for this table
+	 */
+	private RecordIds getIds (Props props, String tablename)
+	{
+		return RecordIds.getIds(props.getProperty(Phinms.DATABASEURL), tablename,
+				props.getProperty(PhinmsX.RECORDIDTABLE));
+	}
+	
+	/**
+	 * @return number of ID's to reserve at a time
+	 */
+	private int getBlock (Props props)
 	{
-		int recordId = getNextRecordId (props, tablename);
-		String upd =  "insert into " + tablename
-	  + " (recordId, messageId, payloadName, localFileName, service, action, "
+		String s = props.getProperty (PhinmsX.RECORDIDBLOCK);
+		if ((s == null) || !s.matches("[0-9]+"))
+			return 100;
+		return Integer.parseInt(s);
+	}
+	
+	/**
+	 * get the insert statement for a table
+	 * 
+	 * @param tablename for the insert
+	 * @param identity true if the database assigns the recordId
+	 * @return SQL with parameters for each field
+	 */
+	private String getInsert (String tablename, boolean identity)
+	{
+		return "insert into " + tablename
+	  + (identity ? " (" : " (recordId, ") 
+	  + "messageId, payloadName, localFileName, service, action, "
 	  + "arguments, fromPartyId, messageRecipient, errorCode, "
 	  + "errorMessage, processingStatus, applicationStatus, encryption, receivedTime, "
-	  + "lastUpdateTime, processId) values (" + recordId + ","
-	  + quote (messageId) + "," + quote (payloadName) + "," 
-	  + quote (localFileName) + ","  + quote (service) + "," 
-	  + quote (action) + "," + quote (arguments)  + "," 
-	  + quote (fromPartyId) + "," + quote (messageRecipient) + "," 
-	  + quote (errorCode) + "," + quote (errorMessage) + ","
-	  + quote (processingStatus) + "," + quote (applicationStatus) + ","
-	  + quote (encryption) + "," + quote (receivedTime) + "," 
-	  + quote (lastUpdateTime) + "," + quote (processId) + ")";
-		Statement stmt = props.query(upd);
-		boolean ok = stmt.getUpdateCount() == 1;
-		stmt.close();
-		return ok;
+	  + "lastUpdateTime, processId) values (" + (identity ? "" : "?,")
+	  + "?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 	}
+	
+	/**
+	 * @return the inserted fields in the order of the insert statement
+	 */
+	private String[] getFields ()
+	{
+		String[] f = { messageId, payloadName, localFileName, service, action,
+			arguments, fromPartyId, messageRecipient, errorCode, errorMessage,
+			processingStatus, applicationStatus, encryption, receivedTime,
+			lastUpdateTime, processId };
+		return f;
+	}
+	
+	/**
+	 * set the fields from a getFields() list
+	 * @param f fields
+	 */
+	private void setFields (String[] f)
+	{
+		int i = 0;
+		messageId = f[i++];
+		payloadName = f[i++];
+		localFileName = f[i++];
+		service = f[i++];
+		action = f[i++];
+		arguments = f[i++];
+		fromPartyId = f[i++];
+		messageRecipient = f[i++];
+		errorCode = f[i++];
+		errorMessage = f[i++];
+		processingStatus = f[i++];
+		applicationStatus = f[i++];
+		encryption = f[i++];
+		receivedTime = f[i++];
+		lastUpdateTime = f[i++];
+		processId = f[i++];
+	}
+	
+	/**
+	 * get the insert statement for this configuration, with the
+	 * record's values set
+	 * 
+	 * @param props for this queue
+	 * @param conn to the database
+	 * @param tablename of the queue
+	 * @param id from getNextRecordId()
+	 * @return the statement ready to execute
+	 * @throws SQLException
+	 */
+	private PreparedStatement bind (Props props, Connection conn, String tablename,
+			int id) throws SQLException
+	{
+		boolean identity = isIdentity (props);
+		PreparedStatement ps = props.prepare(conn, getInsert (tablename, identity));
+		int i = 1;
+		if (!identity)
+			ps.setInt(i++, id);
+		String[] f = getFields ();
+		for (int j = 0; j < f.length; j++)
+			setString (ps, i++, f[j]);
+		return ps;
+	}
+	
+	private boolean insertRecord (Props props, Connection conn, String tablename)
+    throws SQLException
+	{
+		int id = getNextRecordId (props, conn, tablename);
+		return bind (props, conn, tablename, id).executeUpdate() == 1;
+	}
+	
 	/**
 	 * "Push" to the reciever's queue.  Normally I like the SQL to
 	 * live in the xml configuration to easily accommodate differences
@@ -94,25 +199,207 @@ public class RcvRecord
 	 * @return
 	 */
 	public boolean insert (Props props)
+	{
+		return insert (props, props.getTableName ());
+	}
+	
+	/**
+	 * Push to a specific queue table
+	 * 
+	 * @param props for the database
+	 * @param tablename of the queue
+	 * @return true if inserted
+	 */
+	public boolean insert (Props props, String tablename)
 	{
 		boolean ok = false;
+		if (tablename == null)
+		{
+			props.getLogger ().severe ("Insert failed - no table for queue");
+			return false;
+		}
+		Connection conn = props.openConnection ();
+		if (conn == null)
+			return false;
 		try
 		{
-		  ok = insertRecord (props, props.getTableName ());
-			props.closeConnection();
+			try
+			{
+			  ok = insertRecord (props, conn, tablename);
+			}
+			catch (SQLException e)
+			{
+				// someone else may have used our ID's, so try a new block
+				props.getLogger ().warning ("Insert failed, retrying " + e.getMessage());
+				getIds (props, tablename).reset ();
+			  ok = insertRecord (props, conn, tablename);
+			}
+			props.closeConnection(conn, false);
 		}
 		catch (SQLException e)
 		{
 			props.getLogger ().severe ("Insert failed " + e.getMessage());
+			props.closeConnection(conn, true);
 		}
 		return ok;
 	}
 	
-	private String quote (String s)
+	/**
+	 * Push a list of records to a queue table as a single batch.  Either
+	 * all of them are committed or none are.
+	 * 
+	 * @param props for the database
+	 * @param tablename of the queue
+	 * @param records to insert
+	 * @return true if all were inserted
+	 */
+	public static boolean insert (Props props, String tablename, List records)
+	{
+		if (records.isEmpty())
+			return true;
+		if (tablename == null)
+		{
+			props.getLogger ().severe ("Insert failed - no table for queue");
+			return false;
+		}
+		Connection conn = props.openConnection ();
+		if (conn == null)
+			return false;
+		boolean discard = false;
+		try
+		{
+			// ID's are reserved before our own transaction starts
+			RcvRecord rec = (RcvRecord) records.get(0);
+			int[] ids = new int[records.size()];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = rec.getNextRecordId (props, conn, tablename);
+			conn.setAutoCommit(false);
+			try
+			{
+				PreparedStatement ps = null;
+				for (int i = 0; i < records.size(); i++)
+				{
+					ps = ((RcvRecord) records.get(i)).bind (props, conn, tablename, ids[i]);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				conn.commit();
+				return true;
+			}
+			catch (SQLException e)
+			{
+				props.getLogger ().warning ("Batch insert of " + records.size() 
+						+ " failed " + e.getMessage());
+				conn.rollback();
+				rec.getIds (props, tablename).reset ();
+			}
+			finally
+			{
+				conn.setAutoCommit(true);
+			}
+		}
+		catch (SQLException e)
+		{
+			props.getLogger ().severe ("Batch insert failed " + e.getMessage());
+			discard = true;
+		}
+		finally
+		{
+			props.closeConnection(conn, discard);
+		}
+		return false;
+	}
+	
+	/**
+	 * Write back the outcome of processing done after the record was 
+	 * inserted.  The record is found by its local file name, which is
+	 * unique to each stored payload.
+	 * 
+	 * If no record matches (for example its insert was given up) there
+	 * is nothing to update, so that is only warned about.
+	 * 
+	 * @param props for the database
+	 * @param tablename of the queue
+	 * @return true unless the update failed
+	 */
+	public boolean update (Props props, String tablename)
+	{
+		if (tablename == null)
+		{
+			props.getLogger ().severe ("Update failed - no table for queue");
+			return false;
+		}
+		Connection conn = props.openConnection ();
+		if (conn == null)
+			return false;
+		try
+		{
+			PreparedStatement ps = props.prepare(conn, "update " + tablename
+					+ " set applicationStatus=?, errorCode=?, errorMessage=?,"
+					+ " lastUpdateTime=? where localFileName=?");
+			setString (ps, 1, applicationStatus);
+			setString (ps, 2, errorCode);
+			setString (ps, 3, errorMessage);
+			setString (ps, 4, lastUpdateTime);
+			setString (ps, 5, localFileName);
+			if (ps.executeUpdate() == 0)
+				props.getLogger ().warning ("Update found no record for " 
+						+ localFileName + " in " + tablename);
+			props.closeConnection(conn, false);
+			return true;
+		}
+		catch (SQLException e)
+		{
+			props.getLogger ().severe ("Update failed " + e.getMessage());
+			props.closeConnection(conn, true);
+		}
+		return false;
+	}
+	
+	/**
+	 * Write this record's inserted fields
+	 * 
+	 * @param out to write to
+	 * @throws IOException
+	 */
+	public void write (DataOutput out) throws IOException
+	{
+		String[] f = getFields ();
+		out.writeByte(f.length);
+		for (int i = 0; i < f.length; i++)
+		{
+			out.writeBoolean(f[i] != null);
+			if (f[i] != null)
+				out.writeUTF(f[i]);
+		}
+	}
+	
+	/**
+	 * Read a record written by write()
+	 * 
+	 * @param in to read from
+	 * @return the record
+	 * @throws IOException
+	 */
+	public static RcvRecord read (DataInput in) throws IOException
+	{
+		String[] f = new RcvRecord ().getFields ();
+		if (in.readByte() != f.length)
+			throw new IOException ("Bad queue record");
+		for (int i = 0; i < f.length; i++)
+			f[i] = in.readBoolean() ? in.readUTF() : null;
+		RcvRecord rec = new RcvRecord ();
+		rec.setFields (f);
+		return rec;
+	}
+	
+	private void setString (PreparedStatement ps, int i, String s)
+	  throws SQLException
 	{
 		if (s == null)
-			return "null";
-		return "'" + StrUtil.replace(s, "'", "''") + "'";
+			ps.setNull(i, Types.VARCHAR);
+		else
+			ps.setString(i, s);
 	}
 	
   public String getService()
@@ -185,6 +472,18 @@ public class RcvRecord
 		this.messageId = messageId;
 	}
 
+	/**
+	 * Fill in the columns carried in the message manifest
+	 * 
+	 * @param manifest fields from Manifest.parse()
+	 */
+	public void setManifest(Map manifest)
+	{
+		String s = (String) manifest.get("MessageId");
+		if (s != null)
+			messageId = s;
+	}
+
 	public String getApplicationStatus()
 	{
 		return applicationStatus;
@@ -24,14 +24,17 @@ import java.io.*;
 import java.util.logging.*;
 import org.apache.xerces.impl.dv.util.Base64;
 
-import tdunnick.phinmsx.util.StrUtil;
+import tdunnick.phinmsx.util.*;
 
-public class RcvRequest
+public class RcvRequest implements MimeHandler
 {
 	private String filename = null;
 	private byte[] payload = null;
+	private File payloadFile = null;
 	private HashMap arguments = new HashMap ();
 	private Logger logger = null;
+	private File spool = null;
+	private int bufsize = MimeReader.BUFSIZE;
 	
 	
 	
@@ -44,16 +47,45 @@ public class RcvRequest
   {
   	this.logger = logger;
   }
+  
+  /**
+   * Spool payloads to a temporary file in this folder rather than
+   * keeping them in memory.  Base64 encoded payloads are decoded as
+   * they are read, so memory use is bounded by the buffer size.
+   * 
+   * @param dir for temporary payload files or null to keep in memory
+   * @param size of read and decode buffers
+   */
+  public void setSpool (File dir, int size)
+  {
+  	spool = dir;
+  	if (size > 0)
+  		bufsize = size;
+  }
 
   /**
-   * Parse an entire stream
+   * Parse an entire stream, including the headers naming the boundary
    * @param in
    * @return
    */
   public boolean parse (InputStream in)
   {
-  	String rq = readIn (in);
-  	return parse (getBoundary (rq), rq);
+  	MimeReader rd = new MimeReader (in, bufsize);
+  	try
+  	{
+  		String header = (String) rd.readHeaders ().get("content-type");
+  		if (header == null)
+  		{
+  			logger.severe ("Request missing Content-Type");
+  			return false;
+  		}
+  		return parse (getBoundary (header), rd);
+  	}
+  	catch (IOException e)
+  	{
+  		logger.severe ("Failed reading parse - " + e.getLocalizedMessage());
+  		return false;
+  	}
   }
   
 	/**
@@ -65,7 +97,20 @@ public class RcvRequest
 	 */
 	public boolean parse (String header, InputStream in)
   {
-		return parse (getBoundary (header), readIn (in));
+		if (header == null)
+		{
+			logger.severe ("Request missing Content-Type");
+			return false;
+		}
+		try
+		{
+			return parse (getBoundary (header), new MimeReader (in, bufsize));
+		}
+  	catch (IOException e)
+  	{
+  		logger.severe ("Failed reading parse - " + e.getLocalizedMessage());
+  		return false;
+  	}
   }
 	
 	/**
@@ -77,50 +122,172 @@ public class RcvRequest
 	 */
 	public boolean parse (String boundary, String rq)
 	{
-  	int p, e;
-  	
-   // parse the request - first get the multipart boundary
-    e = rq.indexOf("--" + boundary, 0);
-    while ((p = e + boundary.length() + 3) < rq.length() - 2)
-    {
-    	// System.out.println ("Next part at " + p);
-    	if ((e = rq.indexOf ("--" + boundary, p)) < 0)
-    	{
-    		logger.severe ("Request mulitpart missing closing boundary");
-    		return false;
-    	}
-    	String part = rq.substring(p, e);
-    	if (part.indexOf("Content-Type: text/plain\n") > 0)
-    	{
-    		String[] args = part.substring(part.indexOf ("\n\n") + 2).split("[&]");
-    		for (int i = 0; i < args.length; i++)
-    		{
-    			String[] hdr = args[i].split("=");
-  				// System.out.println (hdr[0] + ":" + hdr[1]);
-    			if (hdr.length == 2)
-    			  arguments.put(hdr[0].trim(), hdr[1].trim());
-    		}
-    	}
-    	else if ((part.indexOf("Content-Type: Application/Octet-Stream\n") > 0)
-    			|| (part.indexOf("Content-Type: text/xml\n") > 0))
-    	{
-    		String pl = part.substring(part.indexOf ("\n\n") + 2).trim();
-    		if (part.indexOf("Content-Transfer-Encoding: base64\n") > 0)
-    			payload = Base64.decode(pl);
-    		else
-    			payload = pl.getBytes(); 
-    		int f = part.indexOf("name=\"");
-    		if (f < 0)
-    		{
-      		logger.severe ("Request mulitpart payload missing name");
-    			return false;
-    		}
-        f += 6;
-    		filename = part.substring (f, part.indexOf ('"', f));
-    	}
-    }
-    return true;
-  }
+		try
+		{
+			return parse (boundary, 
+					new MimeReader (new ByteArrayInputStream (rq.getBytes())));
+		}
+  	catch (IOException e)
+  	{
+  		logger.severe ("Failed reading parse - " + e.getLocalizedMessage());
+  		return false;
+  	}
+	}
+	
+	/**
+	 * Parse the parts from a reader using this boundary.  Each part is
+	 * handed back to us as it is found.
+	 * 
+	 * @param boundary
+	 * @param rd
+	 * @return
+	 * @throws IOException
+	 */
+	private boolean parse (String boundary, MimeReader rd) throws IOException
+	{
+		if (boundary == null)
+			return false;
+		if (!rd.read (boundary, this))
+		{
+  		logger.severe ("Request mulitpart missing closing boundary");
+  		return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Handle one part of the request as it is read.  Text parts hold
+	 * our arguments, and octet-stream or xml parts the payload.
+	 * 
+	 * @see tdunnick.phinmsx.util.MimeHandler#part(java.util.HashMap, java.io.InputStream)
+	 */
+	public boolean part (HashMap headers, InputStream body) throws IOException
+	{
+		logger.finest ("part: " + headers.toString());
+		String type = (String) headers.get ("content-type");
+		if (type == null)
+			return true;
+		type = type.toLowerCase ();
+  	if (type.startsWith("text/plain"))
+  	{
+  		String[] args = readBody (body).toString("ISO-8859-1").split("[&]");
+  		for (int i = 0; i < args.length; i++)
+  		{
+  			String[] hdr = args[i].split("=");
+				// System.out.println (hdr[0] + ":" + hdr[1]);
+  			if (hdr.length == 2)
+  			  arguments.put(hdr[0].trim(), hdr[1].trim());
+  		}
+  	}
+  	else if (type.startsWith("application/octet-stream")
+  			|| type.startsWith("text/xml"))
+  	{
+  		if ((filename = getName (headers)) == null)
+  		{
+    		logger.severe ("Request mulitpart payload missing name");
+  			return false;
+  		}
+  		String enc = (String) headers.get("content-transfer-encoding");
+  		boolean base64 = (enc != null) && enc.equalsIgnoreCase("base64");
+  		if (spool != null)
+  			return spoolBody (body, base64);
+  		if (base64)
+  			payload = Base64.decode(readBody (body).toString("ISO-8859-1"));
+  		else
+  			payload = readBody (body).toByteArray();
+  	}
+  	return true;
+	}
+	
+	/**
+	 * get the payload name from the part's disposition (or type)
+	 * 
+	 * @param headers of the part
+	 * @return the name or null if not found
+	 */
+	private String getName (HashMap headers)
+	{
+		String s = (String) headers.get ("content-disposition");
+		int f;
+		if ((s == null) || ((f = s.indexOf("name=\"")) < 0))
+		{
+			s = (String) headers.get ("content-type");
+			if ((f = s.indexOf("name=\"")) < 0)
+				return null;
+		}
+    f += 6;
+    int e = s.indexOf ('"', f);
+    if (e < 0)
+    	return null;
+		return s.substring (f, e);
+	}
+	
+	/**
+	 * copy a part's body to a temporary file, decoding as we go if needed.
+	 * Only the last payload part is kept, so an earlier spool file is 
+	 * removed.
+	 * 
+	 * @param body of the part
+	 * @param base64 true if body is base64 encoded
+	 * @return true if successful
+	 */
+	private boolean spoolBody (InputStream body, boolean base64)
+	{
+		String p = filename;
+		if (p.length() < 3)
+			p += "_tmp";
+		OutputStream out = null;
+		if (payloadFile != null)
+			payloadFile.delete ();
+		payloadFile = null;
+		try
+		{
+			payloadFile = File.createTempFile(p, null, spool);
+			out = new FileOutputStream (payloadFile);
+			if (base64)
+				out = new Base64Decoder (out, bufsize);
+			byte[] b = new byte[bufsize];
+			int n;
+			while ((n = body.read (b)) > 0)
+				out.write(b, 0, n);
+			out.close ();
+			return true;
+		}
+		catch (IOException e)
+		{
+			logger.severe ("Failed spooling payload " + filename + " - " 
+					+ e.getLocalizedMessage());
+			try
+			{
+				if (out != null)
+					out.close ();
+			}
+			catch (IOException ex)
+			{
+			}
+			if (payloadFile != null)
+				payloadFile.delete ();
+			payloadFile = null;
+			return false;
+		}
+	}
+	
+	/**
+	 * read a part's body into memory
+	 * 
+	 * @param body of the part
+	 * @return the data read
+	 * @throws IOException
+	 */
+	private ByteArrayOutputStream readBody (InputStream body) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream ();
+		byte[] b = new byte[bufsize];
+		int n;
+		while ((n = body.read (b)) > 0)
+			out.write(b, 0, n);
+		return out;
+	}
   
   public String getArgument (String name)
   {
@@ -132,27 +299,17 @@ public class RcvRequest
   	return payload;
   }
   
-  public String getFileName ()
+  /**
+   * @return the spooled payload or null if not spooled
+   */
+  public File getPayloadFile ()
   {
-  	return filename;
+  	return payloadFile;
   }
   
-  private String readIn (InputStream in)
+  public String getFileName ()
   {
-    try
-    {
-    	StringBuffer b = new StringBuffer ();
-    	int c;
-    	while ((c = in.read()) > 0)
-    		b.append ((char) c);
-      logger.finest("read:\n" + b.toString());
-    	return StrUtil.replace(b.toString(), "\r\n", "\n");
-    }
-    catch (IOException e)
-    {
-    	logger.severe ("Failed reading parse - " + e.getLocalizedMessage());
-    	return null;
-    }
+  	return filename;
   }
   
   private String getBoundary (String m)
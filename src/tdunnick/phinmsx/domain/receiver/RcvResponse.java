@@ -18,29 +18,81 @@
  */
 package tdunnick.phinmsx.domain.receiver;
 
+import java.io.*;
 import java.util.*;
 
-import org.apache.xerces.impl.dv.util.Base64;
+import tdunnick.phinmsx.util.*;
 
+/**
+ * Composes the MIME multipart response returned to the PHINMS receiver.
+ * The response is written straight to a stream.  The length is worked 
+ * out from the parts before anything is written, and the payload is 
+ * base64 encoded in chunks as it goes, so the whole response is never 
+ * held in memory.
+ * 
+ * @author tld
+ *
+ */
 public class RcvResponse
 {
 	private static int Sequence = 0;
 	
+	/**
+	 * Get the response as a string buffer, for logging or testing
+	 * 
+	 * @see #write
+	 */
   public StringBuffer getResponse (String status, String error, 
   		String msg, byte[] payload, String filename)
+  {
+  	ByteArrayOutputStream out = new ByteArrayOutputStream ();
+  	try
+  	{
+  		write (out, status, error, msg, payload, filename);
+  		return new StringBuffer (out.toString ("ISO-8859-1"));
+  	}
+  	catch (IOException e)
+  	{
+  		// can't happen with a byte array
+  		return null;
+  	}
+  }
+  
+  /**
+   * Write the response
+   * 
+   * @param out stream to write to
+   * @param status of the request
+   * @param error if any
+   * @param msg application response
+   * @param payload to return or null
+   * @param filename of the payload
+   * @throws IOException
+   */
+  public void write (OutputStream out, String status, String error, 
+  		String msg, byte[] payload, String filename) throws IOException
   {
   	String boundary = getBoundary();
-  	StringBuffer r = new StringBuffer ();
-  	r.append ("--" + boundary + "\n");
-  	srText (r, status, error, msg);
+  	byte[] text = getBytes ("--" + boundary + "\n" + srText (status, error, msg));
+  	byte[] part = null;
+  	byte[] end = getBytes ("--" + boundary + "--");
+  	long len = text.length + end.length;
   	if ((payload != null) && (filename != null))
   	{
-	  	r.append("--" + boundary + "\n");
-	  	srPayload (r, payload, filename);
+  		part = getBytes ("--" + boundary + "\n" + srPayload (filename));
+  		len += part.length + Base64Encoder.getLength (payload.length) + 1;
+  	}
+  	out.write (getBytes (srHeader (boundary, len)));
+  	out.write (text);
+  	if (part != null)
+  	{
+  		out.write (part);
+  		Base64Encoder enc = new Base64Encoder (out);
+  		enc.write (payload);
+  		enc.finish ();
+  		out.write ('\n');
   	}
-  	r.append("--" + boundary + "--");
-    srHeader (r, boundary);
-  	return r;	
+  	out.write (end);
   }
   
   private synchronized String getBoundary ()
@@ -49,27 +101,30 @@ public class RcvResponse
   	+ RcvResponse.Sequence++ + "_boundary";
   }
   
-  private void srHeader (StringBuffer r, String boundary)
+  private byte[] getBytes (String s) throws IOException
+  {
+  	return s.getBytes ("ISO-8859-1");
+  }
+  
+  private String srHeader (String boundary, long len)
   {
-  	int len = r.length();
-  	r.insert(0, "Content-Type: multipart/related; type=\"text/xml\";" 
+  	return "Content-Type: multipart/related; type=\"text/xml\";" 
 		+ " boundary=\"" + boundary + "\";"
 		+ " start=\"textmimepart\"\n"
-		+ "Content-Length: " + len + "\n\n");
+		+ "Content-Length: " + len + "\n\n";
   }
   
-  private void srText (StringBuffer r, String status, String error, String msg)
+  private String srText (String status, String error, String msg)
   {
-  	r.append("Content-ID: <textmimepart>\nContent-Type: text/plain\n\n"
-  		+ "status=" + status + "&error="+ error + "&appdata=" + msg + "\n");
+  	return "Content-ID: <textmimepart>\nContent-Type: text/plain\n\n"
+  		+ "status=" + status + "&error="+ error + "&appdata=" + msg + "\n";
   }
   
-  private void srPayload (StringBuffer r, byte[] payload, String filename)
+  private String srPayload (String filename)
   {
-  	r.append ("Content-ID: <payloadmimepart>\n"
+  	return "Content-ID: <payloadmimepart>\n"
   		+ "Content-Type: Application/Octet-Stream\n"
   		+ "Content-Transfer-Encoding: base64\n"
-  		+ "Content-Disposition: attachment; name=\"" + filename + "\"\n\n"
-  		+ new String (Base64.encode(payload)) + "\n");
+  		+ "Content-Disposition: attachment; name=\"" + filename + "\"\n\n";
   }
 }
@@ -35,7 +35,7 @@ public class RcvStatus
 	String version = null;
 	String phinmsVersion = null;
 	String[] fields = null;
-  ArrayList records = null;
+  StatusRing ring = null;
   
   private RcvStatus ()
   {
@@ -78,11 +78,23 @@ public class RcvStatus
 
 	public ArrayList getRecords()
 	{
-		return records;
+		if (ring == null)
+			return null;
+		return ring.getRecords();
 	}
 
-	public void setRecords(ArrayList records)
+	/**
+	 * @return counts of each status, error, and response seen
+	 */
+	public TreeMap getCounts()
 	{
-		this.records = records;
+		if (ring == null)
+			return null;
+		return ring.getCounts();
+	}
+
+	public void setRing(StatusRing ring)
+	{
+		this.ring = ring;
 	}
 }
@@ -0,0 +1,226 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Hands out worker queue record ID's for a table.  ID's are reserved in
+ * blocks from a counter row kept in the database, so each block is only
+ * ever given to one allocator, whether in this JVM or another Receiver
+ * sharing the database.  All threads share one allocator per table.
+ * <p>
+ * The counter table has one row per queue table, and is created if it
+ * doesn't exist:
+ * <pre>
+ * create table phinmsx_recordid (tableName varchar(255) not null primary key,
+ *   nextId integer not null)
+ * </pre>
+ * Anything else inserting into the queue without this table (PHIN-MS
+ * itself, for example) may still collide, so in that case use a sequence
+ * or identity column instead (see recordIdQuery).
+ *
+ * @author tld
+ *
+ */
+public class RecordIds
+{
+	// default name of the counter table
+	public final static String COUNTER = "phinmsx_recordid";
+	
+	private static HashMap tables = new HashMap ();
+
+	private String table;
+	private String counter;
+	// next ID to give out and last one reserved
+	private int next = 1;
+	private int last = 0;
+	// true once the counter table has been created (or found)
+	private boolean created = false;
+
+	private RecordIds (String table, String counter)
+	{
+		this.table = table;
+		this.counter = counter;
+	}
+
+	/**
+	 * Get the allocator for a table
+	 *
+	 * @param key unique to the database holding the table
+	 * @param table name
+	 * @param counter table name or null for the default
+	 * @return the allocator
+	 */
+	public static synchronized RecordIds getIds (String key, String table,
+			String counter)
+	{
+		if (counter == null)
+			counter = COUNTER;
+		key += "/" + counter + "/" + table;
+		RecordIds ids = (RecordIds) tables.get(key);
+		if (ids == null)
+			tables.put(key, ids = new RecordIds (table, counter));
+		return ids;
+	}
+
+	/**
+	 * Get the next ID, reserving a new block if needed.  The connection
+	 * must not be in the middle of a transaction, since the block is 
+	 * reserved in one of its own.
+	 *
+	 * @param conn to use if a new block is needed
+	 * @param block number of ID's to reserve
+	 * @return the ID
+	 * @throws SQLException
+	 */
+	public synchronized int next (Connection conn, int block)
+	  throws SQLException
+	{
+		if (next > last)
+			reserve (conn, (block < 1) ? 1 : block);
+		return next++;
+	}
+
+	/**
+	 * Reserve a block by moving the counter past it.  The block starts
+	 * at the counter or after the highest ID in the table, whichever is
+	 * larger, which picks up any records added by others.  Updating the
+	 * row first locks it, so others reserving at the same time wait for
+	 * our commit.
+	 *
+	 * @param conn to the database
+	 * @param block size
+	 * @throws SQLException
+	 */
+	private void reserve (Connection conn, int block) throws SQLException
+	{
+		create (conn);
+		boolean auto = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try
+		{
+			int id = lock (conn);
+			int max = query (conn, "select max(recordId) from " + table) + 1;
+			if (max > id)
+				id = max;
+			PreparedStatement ps = conn.prepareStatement("update " + counter 
+					+ " set nextId=? where tableName=?");
+			ps.setInt(1, id + block);
+			ps.setString(2, table);
+			ps.executeUpdate();
+			ps.close();
+			conn.commit();
+			next = id;
+			last = id + block - 1;
+		}
+		catch (SQLException e)
+		{
+			conn.rollback();
+			throw e;
+		}
+		finally
+		{
+			conn.setAutoCommit(auto);
+		}
+	}
+	
+	/**
+	 * Lock our counter row, adding it if this is the first reservation
+	 * 
+	 * @param conn in a transaction
+	 * @return the counter's next ID
+	 * @throws SQLException
+	 */
+	private int lock (Connection conn) throws SQLException
+	{
+		PreparedStatement ps = conn.prepareStatement("update " + counter 
+				+ " set nextId=nextId where tableName=?");
+		ps.setString(1, table);
+		int n = ps.executeUpdate();
+		ps.close();
+		if (n == 0)
+		{
+			ps = conn.prepareStatement("insert into " + counter 
+					+ " (tableName, nextId) values (?, 1)");
+			ps.setString(1, table);
+			ps.executeUpdate();
+			ps.close();
+			return 1;
+		}
+		ps = conn.prepareStatement("select nextId from " + counter
+				+ " where tableName=?");
+		ps.setString(1, table);
+		ResultSet res = ps.executeQuery();
+		int id = res.next() ? res.getInt(1) : 1;
+		res.close();
+		ps.close();
+		return id;
+	}
+	
+	/**
+	 * Create the counter table the first time through.  If it already
+	 * exists the create just fails.
+	 * 
+	 * @param conn to the database
+	 */
+	private void create (Connection conn)
+	{
+		if (created)
+			return;
+		try
+		{
+			Statement stmt = conn.createStatement();
+			stmt.executeUpdate("create table " + counter 
+					+ " (tableName varchar(255) not null primary key,"
+					+ " nextId integer not null)");
+			stmt.close();
+		}
+		catch (SQLException e)
+		{
+		}
+		created = true;
+	}
+	
+	/**
+	 * @return the integer result of a query or 0 if none
+	 */
+	private int query (Connection conn, String sql) throws SQLException
+	{
+		Statement stmt = conn.createStatement();
+		ResultSet res = stmt.executeQuery(sql);
+		int id = 0;
+		if (res.next())
+			id = res.getInt(1);
+		res.close();
+		stmt.close();
+		return id;
+	}
+
+	/**
+	 * Drop what is left of the current block, for example after a
+	 * duplicate key.  The next ID will come from a new block.
+	 */
+	public synchronized void reset ()
+	{
+		last = next - 1;
+	}
+}
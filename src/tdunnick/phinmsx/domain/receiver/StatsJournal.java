@@ -0,0 +1,464 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+import java.io.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Keeps receiver statistics in a StatusRing and appends each event to
+ * a journal from the background, so they survive a restart (or crash)
+ * with at most the last second lost.  Requests only hold a lock long
+ * enough to queue an event.  The writer keeps its own tally of what the
+ * journal holds, and when the journal grows too long replaces it with a 
+ * snapshot of that tally and the latest events, which is also done at 
+ * start up after replaying it.
+ * <p>
+ * The journal is a sequence of entries, 'H' followed by the names of
+ * the counted fields, 'N' followed by a field, value, and count, 'R'
+ * followed by the fields of an event already counted (in a snapshot), 
+ * or 'E' followed by the fields of a new event.  A status file saved with 
+ * serialization by earlier versions is read once and converted.
+ * 
+ * @author tld
+ *
+ */
+public class StatsJournal implements Runnable
+{
+	// time between writes
+	private final static long FLUSH = 1000;
+	// events written beyond the size of the ring before a snapshot
+	private final static int COMPACT = 1000;
+	
+	private StatusRing ring;
+	private String[] fields;
+	private File journal;
+	private Logger logger;
+	private DataOutputStream out = null;
+	// guards the queue and running
+	private Object lock = new Object ();
+	// events waiting to be written
+	private ArrayList queue = new ArrayList ();
+	private boolean running = false;
+	// events written since the last snapshot
+	private int written = 0;
+	// counts (long[1]) by value, maps by field, and the latest events
+	// (oldest first) in the journal, only used by the writer
+	private HashMap tally = new HashMap ();
+	private LinkedList recent = new LinkedList ();
+	private Thread thread = null;
+	
+	/**
+	 * @param ring for the statistics
+	 * @param fields names to count each event field under, null if not counted
+	 * @param journal file or null if not kept
+	 * @param logger for errors
+	 */
+	public StatsJournal (StatusRing ring, String[] fields, File journal, 
+			Logger logger)
+	{
+		this.ring = ring;
+		this.fields = fields;
+		this.journal = journal;
+		this.logger = logger;
+	}
+	
+	/**
+	 * Replay the journal, write a new snapshot, and start writing in the
+	 * background
+	 * 
+	 * @return true if successful
+	 */
+	public boolean start ()
+	{
+		if (journal == null)
+			return false;
+		int n = replay ();
+		logger.finest("Loaded " + n + " statistics");
+		load ();
+		if (!snapshot ())
+			return false;
+		synchronized (lock)
+		{
+			running = true;
+		}
+		thread = new Thread (this, "StatsJournal");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+	
+	/**
+	 * Write anything waiting and stop
+	 */
+	public void stop ()
+	{
+		synchronized (lock)
+		{
+			running = false;
+			lock.notifyAll ();
+		}
+		try
+		{
+			if (thread != null)
+				thread.join ();
+		}
+		catch (InterruptedException e)
+		{
+		}
+		close ();
+	}
+	
+	/**
+	 * Add an event
+	 * 
+	 * @param rec event fields
+	 */
+	public void add (String[] rec)
+	{
+		apply (rec, fields);
+		synchronized (lock)
+		{
+			if (running)
+				queue.add (rec);
+		}
+	}
+	
+	/**
+	 * Add an event to the ring and count it
+	 * 
+	 * @param rec event
+	 * @param names to count the fields under
+	 */
+	private void apply (String[] rec, String[] names)
+	{
+		ring.add (rec);
+		for (int i = 0; (i < rec.length) && (i < names.length); i++)
+		{
+			if (names[i] != null)
+				ring.count (names[i], rec[i]);
+		}
+	}
+	
+	/**
+	 * Start the writer's tally from what is in the ring
+	 */
+	private void load ()
+	{
+		Iterator it = ring.getCounts().entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry e = (Map.Entry) it.next();
+			Iterator v = ((Map) e.getValue()).entrySet().iterator();
+			while (v.hasNext())
+			{
+				Map.Entry c = (Map.Entry) v.next();
+				tally ((String) e.getKey(), (String) c.getKey(), 
+						((Long) c.getValue()).longValue());
+			}
+		}
+		ArrayList l = ring.getRecords();
+		for (int i = l.size() - 1; i >= 0; i--)
+			remember ((String[]) l.get(i));
+	}
+	
+	/**
+	 * Add to the writer's count of a field value
+	 * 
+	 * @param field name
+	 * @param value seen, null counted as "null" as the ring does
+	 * @param n times seen
+	 */
+	private void tally (String field, String value, long n)
+	{
+		if (value == null)
+			value = "null";
+		HashMap m = (HashMap) tally.get(field);
+		if (m == null)
+			tally.put(field, m = new HashMap ());
+		long[] c = (long[]) m.get(value);
+		if (c == null)
+			m.put(value, c = new long[1]);
+		c[0] += n;
+	}
+	
+	/**
+	 * Keep an event for the next snapshot
+	 * 
+	 * @param rec event
+	 */
+	private void remember (String[] rec)
+	{
+		recent.addLast(rec);
+		if (recent.size() > ring.getSize())
+			recent.removeFirst();
+	}
+	
+	/**
+	 * Background writer
+	 */
+	public void run ()
+	{
+		while (true)
+		{
+			ArrayList l;
+			boolean stopping;
+			synchronized (lock)
+			{
+				try
+				{
+					if (running)
+						lock.wait (FLUSH);
+				}
+				catch (InterruptedException e)
+				{
+					running = false;
+				}
+				stopping = !running;
+				l = queue;
+				queue = new ArrayList ();
+			}
+			for (int i = 0; i < l.size(); i++)
+			{
+				String[] rec = (String[]) l.get(i);
+				for (int j = 0; (j < rec.length) && (j < fields.length); j++)
+				{
+					if (fields[j] != null)
+						tally (fields[j], rec[j], 1);
+				}
+				remember (rec);
+			}
+			try
+			{
+				for (int i = 0; (out != null) && (i < l.size()); i++)
+					write ((String[]) l.get(i));
+				if (out != null)
+					out.flush ();
+			}
+			catch (IOException e)
+			{
+				logger.severe ("Failed writing statistics to " + journal.getPath() 
+						+ " - " + e.getMessage());
+			}
+			if (written > ring.getSize() + COMPACT)
+				snapshot ();
+			if (stopping)
+				return;
+		}
+	}
+	
+	/**
+	 * Replace the journal with the writer's counts and latest events
+	 * 
+	 * @return true if successful
+	 */
+	private boolean snapshot ()
+	{
+		File f = new File (journal.getPath() + ".new");
+		try
+		{
+			close ();
+			out = new DataOutputStream (new BufferedOutputStream (
+					new FileOutputStream (f)));
+			out.writeByte ('H');
+			writeFields (fields);
+			Iterator it = tally.entrySet().iterator();
+			while (it.hasNext())
+			{
+				Map.Entry e = (Map.Entry) it.next();
+				Iterator v = ((Map) e.getValue()).entrySet().iterator();
+				while (v.hasNext())
+				{
+					Map.Entry c = (Map.Entry) v.next();
+					out.writeByte ('N');
+					out.writeUTF ((String) e.getKey());
+					out.writeUTF ((String) c.getKey());
+					out.writeLong (((long[]) c.getValue())[0]);
+				}
+			}
+			// oldest first so replay leaves them in order
+			it = recent.iterator();
+			while (it.hasNext())
+			{
+				out.writeByte ('R');
+				writeFields ((String[]) it.next());
+			}
+			close ();
+			// some systems won't rename over an existing file
+			if (!f.renameTo (journal))
+			{
+				journal.delete ();
+				if (!f.renameTo (journal))
+					throw new IOException ("can't rename " + f.getPath());
+			}
+			out = new DataOutputStream (new BufferedOutputStream (
+					new FileOutputStream (journal, true)));
+			written = 0;
+			return true;
+		}
+		catch (IOException e)
+		{
+			logger.severe ("Failed writing statistics to " + journal.getPath() 
+					+ " - " + e.getMessage());
+			close ();
+			return false;
+		}
+	}
+	
+	/**
+	 * append an event
+	 * 
+	 * @param rec event
+	 * @throws IOException
+	 */
+	private void write (String[] rec) throws IOException
+	{
+		out.writeByte ('E');
+		writeFields (rec);
+		written++;
+	}
+	
+	private void writeFields (String[] s) throws IOException
+	{
+		out.writeByte (s.length);
+		for (int i = 0; i < s.length; i++)
+		{
+			out.writeBoolean (s[i] != null);
+			if (s[i] != null)
+				out.writeUTF (s[i]);
+		}
+	}
+	
+	private String[] readFields (DataInputStream in) throws IOException
+	{
+		String[] s = new String[in.readUnsignedByte()];
+		for (int i = 0; i < s.length; i++)
+		{
+			if (in.readBoolean ())
+				s[i] = in.readUTF ();
+		}
+		return s;
+	}
+	
+	private void close ()
+	{
+		if (out == null)
+			return;
+		try
+		{
+			out.close ();
+		}
+		catch (IOException e)
+		{
+			logger.severe ("Can't close " + journal.getPath() + " - " + e.getMessage());
+		}
+		out = null;
+	}
+	
+	/**
+	 * Read the journal into the ring.  A partial entry at the end (from 
+	 * a crash while writing) is ignored.  If only a snapshot is found
+	 * (from a crash or failure while it replaced the journal) it is used.
+	 * 
+	 * @return number of events read
+	 */
+	private int replay ()
+	{
+		File f = journal;
+		File snap = new File (journal.getPath() + ".new");
+		if (!f.exists() && snap.exists())
+		{
+			logger.warning ("Recovering statistics from " + snap.getPath());
+			if (!snap.renameTo (f))
+				f = snap;
+		}
+		if (!f.exists())
+			return 0;
+		int n = 0;
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream (new BufferedInputStream (
+					new FileInputStream (f)));
+			in.mark (1);
+			if (in.read () != 'H')
+			{
+				in.reset ();
+				return legacy (in);
+			}
+			String[] names = readFields (in);
+			while (true)
+			{
+				int type = in.read ();
+				if (type < 0)
+					break;
+				if (type == 'E')
+					apply (readFields (in), names);
+				else if (type == 'R')
+					ring.add (readFields (in));
+				else if (type == 'N')
+					ring.setCount (in.readUTF (), in.readUTF (), in.readLong ());
+				else if (type == 'H')
+					names = readFields (in);
+				else
+					throw new IOException ("Bad statistics entry type " + type);
+				if ((type == 'E') || (type == 'R'))
+					n++;
+			}
+		}
+		catch (EOFException e)
+		{
+			logger.warning ("Statistics " + f.getPath() + " were truncated");
+		}
+		catch (Exception e)
+		{
+			logger.warning ("Couldn't read statistics from " + f.getPath()
+					+ " - " + e.getMessage());
+		}
+		finally
+		{
+			try
+			{
+				if (in != null)
+					in.close ();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * Read a list of events saved with serialization, newest first
+	 * 
+	 * @param in stream to read
+	 * @return number of events read
+	 * @throws Exception
+	 */
+	private int legacy (InputStream in) throws Exception
+	{
+		ArrayList l = (ArrayList) new ObjectInputStream (in).readObject();
+		for (int i = l.size() - 1; i >= 0; i--)
+			apply ((String[]) l.get(i), fields);
+		return l.size();
+	}
+}
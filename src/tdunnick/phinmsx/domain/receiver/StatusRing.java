@@ -0,0 +1,206 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.domain.receiver;
+
+import java.util.*;
+
+/**
+ * Keeps the most recent receiver events in a fixed size ring, along 
+ * with running counts of the values seen for each field.  Writers only
+ * hold a lock long enough to claim a slot or bump one stripe of a 
+ * counter, and readers take a snapshot without locking at all, so a
+ * large window doesn't slow down requests.
+ * 
+ * @author tld
+ *
+ */
+public class StatusRing
+{
+	// counter stripes, a power of two
+	private final static int STRIPES = 8;
+	
+	private Object[] ring;
+	// number of events ever added
+	private volatile int added = 0;
+	private Object lock = new Object ();
+	// counters by field and value, replaced (not changed) when one is added
+	private volatile HashMap counters = new HashMap ();
+	
+	/**
+	 * one count, spread over stripes so threads rarely share a lock
+	 */
+	private static class Counter
+	{
+		int[] cells = new int[STRIPES];
+		Object[] locks = new Object[STRIPES];
+		// restored from an earlier run
+		long base = 0;
+		
+		Counter ()
+		{
+			for (int i = 0; i < STRIPES; i++)
+				locks[i] = new Object ();
+		}
+		
+		void add ()
+		{
+			int i = System.identityHashCode(Thread.currentThread()) & (STRIPES - 1);
+			synchronized (locks[i])
+			{
+				cells[i]++;
+			}
+		}
+		
+		long get ()
+		{
+			long n = base;
+			for (int i = 0; i < STRIPES; i++)
+				n += cells[i];
+			return n;
+		}
+	}
+	
+	/**
+	 * @param size number of events kept
+	 */
+	public StatusRing (int size)
+	{
+		ring = new Object[(size < 1) ? 1 : size];
+	}
+	
+	/**
+	 * @return number of events kept
+	 */
+	public int getSize ()
+	{
+		return ring.length;
+	}
+	
+	/**
+	 * Add an event, replacing the oldest one if the ring is full.
+	 * 
+	 * @param rec event, which should not be changed afterwards
+	 */
+	public void add (Object rec)
+	{
+		int n;
+		synchronized (lock)
+		{
+			n = added;
+			// on overflow start over, keeping our place in the ring
+			added = (n < Integer.MAX_VALUE) ? n + 1 
+					: ring.length + (n % ring.length) + 1;
+		}
+		ring[n % ring.length] = rec;
+	}
+	
+	/**
+	 * Get a snapshot of the events.  An event still being added may be
+	 * missed.
+	 * 
+	 * @return the events, newest first
+	 */
+	public ArrayList getRecords ()
+	{
+		int n = added;
+		int l = Math.min (n, ring.length);
+		ArrayList records = new ArrayList (l);
+		for (int i = 1; i <= l; i++)
+		{
+			Object rec = ring[(n - i) % ring.length];
+			if (rec != null)
+				records.add (rec);
+		}
+		return records;
+	}
+	
+	/**
+	 * Count a value seen for a field
+	 * 
+	 * @param field name
+	 * @param value seen
+	 */
+	public void count (String field, String value)
+	{
+		getCounter (field, value).add ();
+	}
+	
+	/**
+	 * Restore a count, for example from a saved copy.  This should be
+	 * done before anything else is counted.
+	 * 
+	 * @param field name
+	 * @param value seen
+	 * @param n times seen
+	 */
+	public void setCount (String field, String value, long n)
+	{
+		getCounter (field, value).base = n;
+	}
+	
+	/**
+	 * Get the counter for a field value, adding it if needed
+	 * 
+	 * @param field name
+	 * @param value seen
+	 * @return the counter
+	 */
+	private Counter getCounter (String field, String value)
+	{
+		String key = field + "\n" + value;
+		Counter c = (Counter) counters.get (key);
+		if (c == null)
+		{
+			synchronized (this)
+			{
+				if ((c = (Counter) counters.get (key)) == null)
+				{
+					HashMap m = new HashMap (counters);
+					m.put (key, c = new Counter ());
+					counters = m;
+				}
+			}
+		}
+		return c;
+	}
+	
+	/**
+	 * Get the counts so far
+	 * 
+	 * @return counts (Long) by value, sorted maps by field
+	 */
+	public TreeMap getCounts ()
+	{
+		TreeMap counts = new TreeMap ();
+		Iterator it = counters.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry e = (Map.Entry) it.next();
+			String key = (String) e.getKey();
+			int i = key.indexOf ('\n');
+			String field = key.substring (0, i);
+			TreeMap m = (TreeMap) counts.get (field);
+			if (m == null)
+				counts.put (field, m = new TreeMap ());
+			m.put (key.substring (i + 1), new Long (((Counter) e.getValue()).get ()));
+		}
+		return counts;
+	}
+}
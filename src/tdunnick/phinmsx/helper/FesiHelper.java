@@ -20,19 +20,62 @@
 package tdunnick.phinmsx.helper;
 
 import java.io.*;
+import java.util.*;
 import tdunnick.phinmsx.domain.*;
 import tdunnick.phinmsx.domain.payload.FesiPayload;
 import tdunnick.phinmsx.domain.payload.Payload;
 import tdunnick.phinmsx.domain.receiver.RcvEnv;
+import tdunnick.phinmsx.util.*;
 import FESI.jslib.*;
 
-public class FesiHelper extends SimpleHelper
+public class FesiHelper extends SimpleHelper implements ThreadSafeHelper
 {	
   public final static String SCRIPT = "helper.script";
-  private JSGlobalObject global = null;
+  // true to reuse evaluators between messages
+  public final static String REUSE = "helper.reuse";
+  // most idle evaluators kept for each script
+  private final static int MAXIDLE = 16;
+  // scripts read, by path
+  private static HashMap scripts = new HashMap ();
+  
+  /**
+   * A script as read, and the evaluators that have run it if they are
+   * reused.  Globals and functions the script defines stay in its 
+   * evaluators, so they persist between messages handled by that script 
+   * (but not others).  When the script changes it gets new evaluators.
+   */
+  private static class Script
+  {
+  	String text;
+  	LinkedList idle = new LinkedList ();
+  	
+  	Script (String text)
+  	{
+  		this.text = text;
+  	}
+  }
   
 	public FesiHelper()
 	{
+	}
+	
+	/**
+	 * Get an evaluator, building a new one if none are idle.  Building one
+	 * loads the FESI extensions, which is slow, so they may be reused.
+	 * 
+	 * @param idle evaluators for this script or null to always build one
+	 * @return the evaluator or null if it can't be built
+	 */
+	private JSGlobalObject getEvaluator (LinkedList idle)
+	{
+		if (idle != null)
+		{
+			synchronized (idle)
+			{
+				if (!idle.isEmpty())
+					return (JSGlobalObject) idle.removeFirst();
+			}
+		}
 		try
 		{
 			String[] extensions = new String[] 
@@ -41,12 +84,30 @@ public class FesiHelper extends SimpleHelper
 					"FESI.Extensions.FileIO",
 					"FESI.Extensions.JavaRegExp"
 			};
-			global = JSUtil.makeEvaluator(extensions);
+			return JSUtil.makeEvaluator(extensions);
 		}
 		catch (Exception e)
 		{
 			System.err.println ("Failed initializing: " + e.getMessage());
 		}
+		return null;
+	}
+	
+	/**
+	 * Done with an evaluator
+	 * 
+	 * @param global from getEvaluator()
+	 * @param idle evaluators it came from, or null
+	 */
+	private void release (JSGlobalObject global, LinkedList idle)
+	{
+		if (idle == null)
+			return;
+		synchronized (idle)
+		{
+			if ((global != null) && (idle.size() < MAXIDLE))
+				idle.addFirst(global);
+		}
 	}
 
  /**
@@ -76,9 +137,17 @@ public class FesiHelper extends SimpleHelper
 		try
 		{
 			FileInputStream inp = new FileInputStream(f);
-			byte data[] = new byte[inp.available()];
-			inp.read(data);
+			byte data[] = new byte[(int) f.length()];
+			int n, l = 0;
+			while ((l < data.length) && ((n = inp.read(data, l, data.length - l)) > 0))
+				l += n;
 			inp.close();
+			if (l < data.length)
+			{
+				byte[] b = new byte[l];
+				System.arraycopy(data, 0, b, 0, l);
+				data = b;
+			}
 			return data;
 		}
 		catch (IOException e)
@@ -88,12 +157,25 @@ public class FesiHelper extends SimpleHelper
 	}
 	
 	/**
-	 * read a FESI script as specified in the helper's properties
+	 * get a FESI script as specified in the helper's properties.  The
+	 * script is only read again if the file changed.
 	 * 
 	 * @param props
 	 * @return null if it fails
 	 */
 	public String getScript (Props props)
+	{
+		Script s = loadScript (props);
+		return (s == null) ? null : s.text;
+	}
+	
+	/**
+	 * get the script, along with its evaluators
+	 * 
+	 * @param props
+	 * @return null if it fails
+	 */
+	private Script loadScript (Props props)
 	{
 		String progname = props.getProperty(SCRIPT);
 		if (progname == null)
@@ -101,18 +183,33 @@ public class FesiHelper extends SimpleHelper
 			props.getLogger().severe ("Missing script name in configuration");
 			return null;
 		}
-		byte[] data = readFile (progname);
-		if (data == null)
+		WatchedFile w;
+		synchronized (scripts)
 		{
-			props.getLogger().severe ("Cannot read script " + progname);
-			return null;
+			if ((w = (WatchedFile) scripts.get(progname)) == null)
+				scripts.put(progname, w = new WatchedFile (progname));
+		}
+		synchronized (w)
+		{
+			if (w.changed())
+			{
+				byte[] data = readFile (progname);
+				w.setValue(data == null ? null : new Script (new String (data)));
+			}
+			if (w.getValue() == null)
+			{
+				props.getLogger().severe ("Cannot read script " + progname);
+				// try again next time
+				w.reset ();
+				return null;
+			}
+			return (Script) w.getValue();
 		}
-		return new String (data);
 	}
 	
 	/**
 	 * Run the fesi interpreter for this script and data with extensions
-	 * for regular expressions, basic and file IO
+	 * for regular expressions, basic and file IO, in a new evaluator
 	 * 
 	 * @param script to run
 	 * @param var name for object added
@@ -121,6 +218,22 @@ public class FesiHelper extends SimpleHelper
 	 */
 	protected Object interpret (String script, FesiPayload payload)
 	{
+		return interpret (script, payload, null);
+	}
+	
+	/**
+	 * Run a script in one of the given evaluators
+	 * 
+	 * @param script to run
+	 * @param payload to add to FESI environment
+	 * @param idle evaluators for this script or null for a new one
+	 * @return oject returned from FESI environment
+	 */
+	private Object interpret (String script, FesiPayload payload, LinkedList idle)
+	{
+		JSGlobalObject global = getEvaluator (idle);
+		if (global == null)
+			return null;
 		try
 		{
 			if (payload != null)
@@ -132,6 +245,36 @@ public class FesiHelper extends SimpleHelper
 			System.err.println ("Failed: " + e.getMessage());
 			return null;
 		}
+		finally
+		{
+			// don't hold on to the payload while idle
+			try
+			{
+				if (payload != null)
+					global.setMember(payload.getName(), null);
+			}
+			catch (Exception e)
+			{
+			}
+			release (global, idle);
+		}
+	}
+	
+	/**
+	 * Evaluators are only reused if configured to, since anything a 
+	 * script leaves in its globals (like payload data) is then seen by
+	 * later messages.
+	 * 
+	 * @param env for helper
+	 * @param script to run
+	 * @return its idle evaluators or null for a new one
+	 */
+	private LinkedList getIdle (RcvEnv env, Script script)
+	{
+		String s = env.props.getProperty(REUSE);
+		if ((s != null) && s.equalsIgnoreCase("true"))
+			return script.idle;
+		return null;
 	}
 	
 	/*
@@ -142,7 +285,7 @@ public class FesiHelper extends SimpleHelper
 	 */
 	protected byte[] process (RcvEnv env, byte[] data)
 	{
-		String script = getScript (env.props);
+		Script script = loadScript (env.props);
 		if (script == null)
 		{
 			env.applicationError = "aborted";
@@ -154,12 +297,12 @@ public class FesiHelper extends SimpleHelper
 		if (data != null)
 		{
 			FesiPayload payload = getPayload (env, data);
-		  result = interpret (script, payload);
+		  result = interpret (script.text, payload, getIdle (env, script));
 		  data = payload.getData ();
 		}
 		else
 		{
-			result = interpret (script, null);
+			result = interpret (script.text, null, getIdle (env, script));
 		}
 		if (result == null)
 			result = "Processed " + data.length + " bytes";
@@ -0,0 +1,121 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.helper;
+
+import java.util.*;
+
+/**
+ * Keeps the helpers for a configuration so they aren't loaded and built
+ * for every message.  A helper declaring itself a ThreadSafeHelper is
+ * shared by all requests, otherwise each request borrows an instance
+ * and returns it when done.
+ * 
+ * @author tld
+ *
+ */
+public class HelperPool
+{
+	// all the pools we know about
+	private static HashMap pools = new HashMap ();
+	// most idle instances kept
+	private final static int MAXIDLE = 16;
+	
+	private Class c;
+	private RcvHelper shared = null;
+	private LinkedList idle = new LinkedList ();
+	
+	private HelperPool (Class c)
+	{
+		this.c = c;
+	}
+	
+	/**
+	 * Get the pool for a helper class, loading the class the first time
+	 * it is asked for.
+	 * 
+	 * @param conf name of the configuration or null for the default
+	 * @param name of the helper class
+	 * @return the pool
+	 * @throws Exception if the class can't be loaded or isn't a helper
+	 */
+	public static synchronized HelperPool getPool (String conf, String name)
+	  throws Exception
+	{
+		String key = (conf == null ? "" : conf) + "|" + name;
+		HelperPool pool = (HelperPool) pools.get(key);
+		if (pool == null)
+		{
+			Class c = Class.forName(name);
+			if (!RcvHelper.class.isAssignableFrom(c))
+				throw new ClassCastException (name + " is not a helper");
+			pools.put(key, pool = new HelperPool (c));
+		}
+		return pool;
+	}
+	
+	/**
+	 * @return true if this helper is shared
+	 */
+	private boolean isShared ()
+	{
+		return Arrays.asList(c.getInterfaces()).contains(ThreadSafeHelper.class);
+	}
+	
+	/**
+	 * Get a helper to use
+	 * 
+	 * @return the helper
+	 * @throws Exception if a new one can't be created
+	 */
+	public RcvHelper get () throws Exception
+	{
+		synchronized (this)
+		{
+			if (shared != null)
+				return shared;
+			if (!idle.isEmpty())
+				return (RcvHelper) idle.removeFirst();
+		}
+		// build it outside the lock since this may be slow
+		RcvHelper h = (RcvHelper) c.newInstance();
+		if (isShared ())
+		{
+			synchronized (this)
+			{
+				if (shared == null)
+					shared = h;
+				return shared;
+			}
+		}
+		return h;
+	}
+	
+	/**
+	 * Done using a helper
+	 * 
+	 * @param h helper from get()
+	 */
+	public synchronized void release (RcvHelper h)
+	{
+		if ((h == null) || (h == shared) || (idle.size() >= MAXIDLE))
+			return;
+		idle.addFirst(h);
+	}
+}
@@ -24,7 +24,7 @@ import java.util.*;
 
 import tdunnick.phinmsx.domain.receiver.RcvEnv;
 
-public class Hl7AckHelper implements RcvHelper
+public class Hl7AckHelper implements ThreadSafeHelper
 {
   String code = "AA";
   String comment = "MSG OK";
@@ -20,12 +20,13 @@
 package tdunnick.phinmsx.helper;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.logging.*;
 import tdunnick.phinmsx.model.*;
 import tdunnick.phinmsx.domain.*;
 import tdunnick.phinmsx.domain.receiver.RcvEnv;
+import tdunnick.phinmsx.domain.receiver.PayloadStore;
+import tdunnick.phinmsx.domain.receiver.IncomingIndex;
 import tdunnick.phinmsx.util.*;
 
 /**
@@ -41,19 +42,19 @@ import tdunnick.phinmsx.util.*;
  * @author Thomas Dunnick
  *
  */
-public class SimpleHelper implements RcvHelper
+public class SimpleHelper implements ThreadSafeHelper
 {
   /**
    * Get a property specific to the helper, or if not found return the
    * one provided by the receiver.
    * 
    * @param name of property
-   * @return empty string or property found
+   * @return null or property found
    */
   protected String getProperty (RcvEnv env, String name)
   {
   	String s = env.getProperty("helper." + name);
-  	if (s.length() == 0)
+  	if (s == null)
   	  s = env.getProperty(name);
   	return (s);
   }
@@ -78,6 +79,16 @@ public class SimpleHelper implements RcvHelper
 		return File.createTempFile(p, null, new File(getProperty(env, PhinmsX.TEMPDIR)));
 	}
 
+	/**
+	 * @param env of response
+	 * @return true if the helper replaces the receiver's file
+	 */
+  protected boolean isOverwrite (RcvEnv env)
+  {
+  	String s = env.getProperty ("helper.overwrite");
+  	return (s != null) && s.equalsIgnoreCase("true");
+  }
+  
 	/**
 	 * Create a path name for the incoming file based on directory and extensions
 	 * specified in the environment. In particular, strip off the process ID and
@@ -85,29 +96,59 @@ public class SimpleHelper implements RcvHelper
 	 * Otherwise simply tag on the extension.  If the helper has "overwrite" set
 	 * to true just return the receiver's file path.
 	 * 
+	 * The name is reserved in the folder's index until released.
+	 * 
 	 * @param env environment with naming information
-	 * @return true if path successfully set, false if file exists
+	 * @return the file, or null if there is no helper folder or the file exists
 	 */
   protected File getFilePath (RcvEnv env)
 	{
-  	if (env.getProperty ("helper.overwrite").equalsIgnoreCase("true"))
+  	if (isOverwrite (env))
   		return new File (env.filePath);
-		String folder = env.getProperty("helper." + Phinms.INCOMINGDIR);
+		IncomingIndex index = getIndex (env);
+		if (index == null)
+			return null;
 		String ext = getProperty (env, PhinmsX.FILEEXTENSION);
+		if (ext == null)
+			ext = "";
 		// strip suffix and extension, add our extension
-		String filePath = folder +
-			env.fileName.replaceFirst("([.][^.]*){0,1}[.]" + env.fileSuffix,"") + ext;
-		File f = new File (env.filePath);
-		if (!f.exists())
+		String name = env.getBaseName() + ext;
+		File f = index.reserve (name);
+		if (f != null)
 			return f;
-		getLogger(env).finest ("File " + env.filePath + " exists, trying full name");
+		getLogger(env).finest ("File " + name + " exists, trying full name");
 		// if the above wasn't unique, or the preferred extension didn't match
 		// simply add it
-		env.filePath = folder + env.fileName + ext;
-		f = new File (env.filePath);
-		if (!f.exists())
-			return f;
-		return null;
+		return index.reserve (env.fileName + ext);
+	}
+  
+  /**
+   * @param env of response
+   * @return index of the helper folder or null if none
+   */
+  private IncomingIndex getIndex (RcvEnv env)
+  {
+		String folder = env.getProperty("helper." + Phinms.INCOMINGDIR);
+		if (folder == null)
+			return null;
+		return IncomingIndex.getIndex (folder, 
+				getProperty (env, PhinmsX.INCOMINGLAYOUT));
+  }
+	
+	/**
+	 * Release a name from getFilePath()
+	 * 
+	 * @param env of response
+	 * @param f file
+	 * @param stored true if the data was stored there
+	 */
+	private void release (RcvEnv env, File f, boolean stored)
+	{
+		if (isOverwrite (env))
+			return;
+		IncomingIndex index = getIndex (env);
+		if (index != null)
+			index.release (f, stored);
 	}
 	
 	/**
@@ -116,7 +157,7 @@ public class SimpleHelper implements RcvHelper
 	 * Note that if we get this far, the environment should have a valid
 	 * filename!  We write to a temp file, and then rename it. The helper 
 	 * folder should be on the same device as the temp folder
-	 * in order to rename the file.
+	 * or the file gets copied.
 	 * 
 	 * @param data to write
 	 * @return true if successful
@@ -126,25 +167,25 @@ public class SimpleHelper implements RcvHelper
 		File outFile = getFilePath(env);
 		if (outFile == null)
 			return true;
+		File tmpFile = null;
 		try
 		{
 			// include userDir subdirectory in payload path
-			File tmpFile = getTmpFile(env);
-			FileOutputStream fos = new FileOutputStream(tmpFile);
-			fos.write(data);
-			fos.flush();
-			fos.close();
-			if (!tmpFile.renameTo(outFile))
-			{
-				getLogger(env).severe ("ERROR: Unable to rename " + tmpFile.getPath() + 
-						" to "	+ outFile.getPath());
-			}
+			tmpFile = getTmpFile(env);
+			PayloadStore store = PayloadStore.getStore (env.props);
+			store.write(tmpFile, data);
+			store.publish(tmpFile, outFile, isOverwrite (env));
 		}
 		catch (IOException e)
 		{
-			getLogger(env).severe ("Failed writing data to " + outFile.getPath());
+			getLogger(env).severe ("Failed writing data to " + outFile.getPath()
+					+ " - " + e.getMessage());
+			if (tmpFile != null)
+				tmpFile.delete();
+			release (env, outFile, false);
 			return false;
 		}
+		release (env, outFile, true);
 		return true;
 	}
 		
@@ -616,8 +616,10 @@ public class MonitorModel
 	 */
 	private ArrayList getWorkers ()
 	{
-		return getXMLprops (props.getProperty (Phinms.QUEUEMAP), 
-				"QueueMap.workerQueue", "tableName");
+		QueueMap map = QueueMap.getMap (props.getProperty (Phinms.QUEUEMAP), logger);
+		if (map == null)
+			return null;
+		return map.getTables ();
 	}
 	
 	/**
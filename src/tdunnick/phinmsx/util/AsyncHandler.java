@@ -0,0 +1,265 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.util;
+
+import java.util.logging.*;
+
+/**
+ * Hands log records to a background thread that formats them and
+ * passes them on to another handler in batches.  Records wait in a 
+ * fixed size ring.  When it is full, depending on the overflow policy,
+ * the caller waits, records below INFO are dropped (others wait), or
+ * any record is dropped and counted.  A count of dropped records is 
+ * logged once there is room again.
+ * <p>
+ * The other handler is given one record per batch holding the already
+ * formatted text, so a FileHandler writes and flushes once per batch
+ * while still rotating files as usual.
+ * 
+ * @author tld
+ *
+ */
+public class AsyncHandler extends Handler implements Runnable
+{
+	// overflow policies
+	public final static int BLOCK = 0;
+	public final static int DROPFINE = 1;
+	public final static int COUNT = 2;
+	// most text passed on at once
+	private final static int BATCH = 0x10000;
+	
+	private Handler target;
+	private int policy;
+	private LogRecord[] ring;
+	private int head = 0;
+	private int count = 0;
+	private long dropped = 0;
+	// a batch is being written
+	private boolean busy = false;
+	private boolean running = true;
+	private Thread thread;
+	
+	/**
+	 * passes on text already formatted
+	 */
+	private static class Passthrough extends Formatter
+	{
+		public String format (LogRecord rec)
+		{
+			return rec.getMessage ();
+		}
+	}
+	
+	/**
+	 * @param target handler to pass records on to
+	 * @param size of the ring
+	 * @param policy BLOCK, DROPFINE, or COUNT when the ring is full
+	 */
+	public AsyncHandler (Handler target, int size, int policy)
+	{
+		this.target = target;
+		this.policy = policy;
+		ring = new LogRecord[(size < 1) ? 1 : size];
+		// we format, the target just writes
+		setFormatter (target.getFormatter ());
+		target.setFormatter (new Passthrough ());
+		thread = new Thread (this, "AsyncHandler");
+		thread.setDaemon (true);
+		thread.start ();
+	}
+	
+	/**
+	 * @param s policy name, block, drop, or count
+	 * @return the policy, BLOCK if not known
+	 */
+	public static int getPolicy (String s)
+	{
+		if ("drop".equalsIgnoreCase (s))
+			return DROPFINE;
+		if ("count".equalsIgnoreCase (s))
+			return COUNT;
+		return BLOCK;
+	}
+	
+	public void publish (LogRecord rec)
+	{
+		if (!isLoggable (rec))
+			return;
+		// the caller has to be found on the caller's thread
+		rec.getSourceClassName ();
+		synchronized (this)
+		{
+			while (running && (count == ring.length))
+			{
+				if ((policy == COUNT) || ((policy == DROPFINE) 
+						&& (rec.getLevel().intValue() < Level.INFO.intValue())))
+				{
+					dropped++;
+					return;
+				}
+				try
+				{
+					wait ();
+				}
+				catch (InterruptedException e)
+				{
+					dropped++;
+					return;
+				}
+			}
+			if (!running)
+				return;
+			ring[(head + count++) % ring.length] = rec;
+			if (count == 1)
+				notifyAll ();
+		}
+	}
+	
+	/**
+	 * Background writer.  Format everything waiting, up to a batch, and
+	 * pass it on.
+	 */
+	public void run ()
+	{
+		StringBuffer b = new StringBuffer ();
+		while (true)
+		{
+			long lost;
+			Level level = Level.ALL;
+			synchronized (this)
+			{
+				while (running && (count == 0))
+				{
+					try
+					{
+						wait ();
+					}
+					catch (InterruptedException e)
+					{
+						running = false;
+					}
+				}
+				if ((count == 0) && (dropped == 0))
+				{
+					notifyAll ();
+					return;
+				}
+				lost = dropped;
+				dropped = 0;
+				busy = true;
+			}
+			b.setLength (0);
+			if (lost > 0)
+			{
+				LogRecord rec = new LogRecord (Level.WARNING, 
+						"Dropped " + lost + " log records");
+				rec.setSourceClassName (getClass().getName());
+				rec.setSourceMethodName ("run");
+				b.append (getFormatter ().format (rec));
+			}
+			while (b.length() < BATCH)
+			{
+				LogRecord rec;
+				synchronized (this)
+				{
+					if (count == 0)
+						break;
+					rec = ring[head];
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					if (count-- == ring.length)
+						notifyAll ();
+				}
+				if (rec.getLevel().intValue() > level.intValue())
+					level = rec.getLevel();
+				try
+				{
+					b.append (getFormatter ().format (rec));
+				}
+				catch (Exception e)
+				{
+					reportError (null, e, ErrorManager.FORMAT_FAILURE);
+				}
+			}
+			LogRecord batch = new LogRecord (level, b.toString ());
+			try
+			{
+				target.publish (batch);
+				target.flush ();
+			}
+			catch (Exception e)
+			{
+				// this batch is lost, but the writer carries on
+				reportError (null, e, ErrorManager.WRITE_FAILURE);
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					busy = false;
+					notifyAll ();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Wait for everything queued so far to be written
+	 */
+	public void flush ()
+	{
+		synchronized (this)
+		{
+			while (running && ((count > 0) || busy))
+			{
+				try
+				{
+					wait (1000);
+				}
+				catch (InterruptedException e)
+				{
+					break;
+				}
+			}
+		}
+		target.flush ();
+	}
+	
+	/**
+	 * Write anything waiting and close the target
+	 */
+	public void close ()
+	{
+		synchronized (this)
+		{
+			running = false;
+			notifyAll ();
+		}
+		try
+		{
+			if (Thread.currentThread() != thread)
+				thread.join ();
+		}
+		catch (InterruptedException e)
+		{
+		}
+		target.close ();
+	}
+}
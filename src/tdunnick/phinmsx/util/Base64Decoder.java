@@ -0,0 +1,156 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.util;
+
+import java.io.*;
+
+/**
+ * Decodes base64 text written to it, passing the binary result on to
+ * the underlying stream.  Data may arrive in any size chunks, white
+ * space is ignored, and decoding stops at the first pad character.
+ *
+ * @author tld
+ *
+ */
+public class Base64Decoder extends FilterOutputStream
+{
+	private final static byte[] DECODE = new byte[128];
+	static
+	{
+		String alphabet =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < DECODE.length; i++)
+			DECODE[i] = -1;
+		for (int i = 0; i < alphabet.length(); i++)
+			DECODE[alphabet.charAt(i)] = (byte) i;
+	}
+
+	private int bits = 0;
+	private int count = 0;
+	private boolean padded = false;
+	private byte[] buf;
+	private int len = 0;
+
+	public Base64Decoder (OutputStream out)
+	{
+		this (out, 4096);
+	}
+
+	/**
+	 * @param out stream for decoded data
+	 * @param size of the decoded data buffer
+	 */
+	public Base64Decoder (OutputStream out, int size)
+	{
+		super (out);
+		buf = new byte[Math.max(size, 3)];
+	}
+
+	public void write (int c) throws IOException
+	{
+		if (padded)
+			return;
+		c &= 0xff;
+		if ((c == ' ') || (c == '\n') || (c == '\r') || (c == '\t'))
+			return;
+		if (c == '=')
+		{
+			padded = true;
+			return;
+		}
+		int v = (c < DECODE.length) ? DECODE[c] : -1;
+		if (v < 0)
+			throw new IOException ("Invalid base64 character " + (char) c);
+		bits = (bits << 6) | v;
+		if (++count == 4)
+		{
+			if (len + 3 > buf.length)
+				drain ();
+			buf[len++] = (byte) (bits >> 16);
+			buf[len++] = (byte) (bits >> 8);
+			buf[len++] = (byte) bits;
+			bits = count = 0;
+		}
+	}
+
+	public void write (byte[] b, int off, int n) throws IOException
+	{
+		for (int i = off; i < off + n; i++)
+			write (b[i]);
+	}
+
+	/**
+	 * Pass on decoded data
+	 * @throws IOException
+	 */
+	private void drain () throws IOException
+	{
+		if (len > 0)
+			out.write (buf, 0, len);
+		len = 0;
+	}
+
+	/**
+	 * Decode any partial quantum left at the end of the data.  No more
+	 * data should be written after this.
+	 *
+	 * @throws IOException
+	 */
+	public void finish () throws IOException
+	{
+		if (count == 1)
+		{
+			// only reported once, so a second close still closes
+			bits = count = 0;
+			padded = true;
+			throw new IOException ("Truncated base64 data");
+		}
+		if (len + 2 > buf.length)
+			drain ();
+		if (count == 2)
+			buf[len++] = (byte) (bits >> 4);
+		else if (count == 3)
+		{
+			buf[len++] = (byte) (bits >> 10);
+			buf[len++] = (byte) (bits >> 2);
+		}
+		bits = count = 0;
+		padded = true;
+		drain ();
+	}
+
+	public void flush () throws IOException
+	{
+		drain ();
+		out.flush ();
+	}
+
+	public void close () throws IOException
+	{
+		try
+		{
+			finish ();
+		}
+		finally
+		{
+			out.close ();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.util;
+
+import java.io.*;
+
+/**
+ * Encodes binary data written to it as base64 text, passing the text
+ * on to the underlying stream in chunks.  No line breaks are added.
+ *
+ * @author tld
+ *
+ */
+public class Base64Encoder extends FilterOutputStream
+{
+	private final static byte[] ENCODE = 
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+		.getBytes();
+
+	private int bits = 0;
+	private int count = 0;
+	private byte[] buf;
+	private int len = 0;
+
+	public Base64Encoder (OutputStream out)
+	{
+		this (out, 4096);
+	}
+
+	/**
+	 * @param out stream for encoded text
+	 * @param size of the encoded text buffer
+	 */
+	public Base64Encoder (OutputStream out, int size)
+	{
+		super (out);
+		buf = new byte[Math.max(size, 4)];
+	}
+
+	/**
+	 * @param n bytes of data
+	 * @return length of the encoded text
+	 */
+	public static long getLength (long n)
+	{
+		return ((n + 2) / 3) * 4;
+	}
+
+	public void write (int c) throws IOException
+	{
+		bits = (bits << 8) | (c & 0xff);
+		if (++count == 3)
+		{
+			if (len + 4 > buf.length)
+				drain ();
+			buf[len++] = ENCODE[(bits >> 18) & 0x3f];
+			buf[len++] = ENCODE[(bits >> 12) & 0x3f];
+			buf[len++] = ENCODE[(bits >> 6) & 0x3f];
+			buf[len++] = ENCODE[bits & 0x3f];
+			bits = count = 0;
+		}
+	}
+
+	public void write (byte[] b, int off, int n) throws IOException
+	{
+		for (int i = off; i < off + n; i++)
+			write (b[i]);
+	}
+
+	/**
+	 * Pass on encoded text
+	 * @throws IOException
+	 */
+	private void drain () throws IOException
+	{
+		if (len > 0)
+			out.write (buf, 0, len);
+		len = 0;
+	}
+
+	/**
+	 * Encode and pad any partial quantum left at the end of the data.  
+	 * No more data should be written after this.
+	 *
+	 * @throws IOException
+	 */
+	public void finish () throws IOException
+	{
+		if (len + 4 > buf.length)
+			drain ();
+		if (count == 1)
+		{
+			buf[len++] = ENCODE[(bits >> 2) & 0x3f];
+			buf[len++] = ENCODE[(bits << 4) & 0x3f];
+			buf[len++] = '=';
+			buf[len++] = '=';
+		}
+		else if (count == 2)
+		{
+			buf[len++] = ENCODE[(bits >> 10) & 0x3f];
+			buf[len++] = ENCODE[(bits >> 4) & 0x3f];
+			buf[len++] = ENCODE[(bits << 2) & 0x3f];
+			buf[len++] = '=';
+		}
+		bits = count = 0;
+		drain ();
+	}
+
+	public void flush () throws IOException
+	{
+		drain ();
+		out.flush ();
+	}
+
+	public void close () throws IOException
+	{
+		finish ();
+		out.close ();
+	}
+}
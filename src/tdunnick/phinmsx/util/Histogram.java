@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.util;
+
+/**
+ * Log linear histogram of non-negative values, in the style of HDR
+ * histograms.  Each power of two range is split into eight buckets, 
+ * so any value is reported within 12.5% while only a few hundred
+ * counters cover everything from one to years of milliseconds.
+ * 
+ * @author tld
+ *
+ */
+public class Histogram
+{
+	// sub buckets per power of two, as bits
+	private final static int BITS = 3;
+	private final static int SUB = 1 << BITS;
+	// largest power of two tracked, anything larger is counted there
+	private final static int TOP = 40;
+	
+	private long[] counts = new long[(TOP - BITS + 2) * SUB];
+	private long count = 0;
+	private long sum = 0;
+	private long max = 0;
+	
+	/**
+	 * @param v value
+	 * @return bucket holding this value
+	 */
+	private static int getIndex (long v)
+	{
+		if (v < SUB)
+			return (int) ((v < 0) ? 0 : v);
+		int e = 63;
+		while ((v & (1L << e)) == 0)
+			e--;
+		if (e > TOP)
+			return (TOP - BITS + 2) * SUB - 1;
+		return (e - BITS + 1) * SUB + (int) ((v >> (e - BITS)) & (SUB - 1));
+	}
+	
+	/**
+	 * @param i bucket
+	 * @return largest value held in this bucket
+	 */
+	private static long getHighest (int i)
+	{
+		if (i < SUB)
+			return i;
+		int e = i / SUB + BITS - 1;
+		return ((long) (SUB + i % SUB + 1) << (e - BITS)) - 1;
+	}
+	
+	/**
+	 * Record a value
+	 * 
+	 * @param v to record
+	 */
+	public synchronized void record (long v)
+	{
+		if (v < 0)
+			v = 0;
+		counts[getIndex (v)]++;
+		count++;
+		sum += v;
+		if (v > max)
+			max = v;
+	}
+	
+	/**
+	 * @return a copy for reporting, so others aren't held up
+	 */
+	public synchronized Histogram copy ()
+	{
+		Histogram h = new Histogram ();
+		System.arraycopy (counts, 0, h.counts, 0, counts.length);
+		h.count = count;
+		h.sum = sum;
+		h.max = max;
+		return h;
+	}
+	
+	public synchronized long getCount ()
+	{
+		return count;
+	}
+	
+	public synchronized long getSum ()
+	{
+		return sum;
+	}
+	
+	public synchronized long getMax ()
+	{
+		return max;
+	}
+	
+	/**
+	 * Get the value at a percentile
+	 * 
+	 * @param p percentile from 0 to 100
+	 * @return the highest value that could be at that percentile
+	 */
+	public synchronized long getValueAt (double p)
+	{
+		if (count == 0)
+			return 0;
+		long want = (long) Math.ceil (count * Math.min (p, 100.0) / 100.0);
+		if (want < 1)
+			want = 1;
+		long n = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			if ((n += counts[i]) >= want)
+				return Math.min (getHighest (i), max);
+		}
+		return max;
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Consumer for the parts of a MIME multipart message as they are
+ * read by the MimeReader.
+ *
+ * @author tld
+ *
+ */
+public interface MimeHandler
+{
+	/**
+	 * Called once for each part found.  The body stream ends at the
+	 * next boundary, and anything left unread is skipped by the reader.
+	 *
+	 * @param headers of the part keyed by lower case name
+	 * @param body of the part
+	 * @return false to abandon the parse
+	 * @throws IOException
+	 */
+	public boolean part (HashMap headers, InputStream body) throws IOException;
+}
@@ -0,0 +1,322 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Streaming reader for MIME multipart messages.  The stream is read
+ * through a byte buffer and boundaries are found as the data arrives,
+ * so no part (or the whole message) is ever held in memory unless the
+ * handler chooses to.  Lines may end with either CRLF or LF.
+ *
+ * @author tld
+ *
+ */
+public class MimeReader
+{
+	public final static int BUFSIZE = 8192;
+
+	private InputStream in;
+	private byte[] buf;
+	private int pos = 0;
+	private int lim = 0;
+	private boolean eof = false;
+
+	public MimeReader (InputStream in)
+	{
+		this (in, BUFSIZE);
+	}
+
+	public MimeReader (InputStream in, int size)
+	{
+		this.in = in;
+		if (size < 16)
+			size = 16;
+		buf = new byte[size];
+	}
+
+	/**
+	 * Make sure at least need bytes are buffered unless we hit the end
+	 * of the stream.  Unread data is moved to the front of the buffer
+	 * and the buffer grown if it is too small.
+	 *
+	 * @param need bytes wanted
+	 * @throws IOException
+	 */
+	private void fill (int need) throws IOException
+	{
+		if (pos > 0)
+		{
+			System.arraycopy(buf, pos, buf, 0, lim - pos);
+			lim -= pos;
+			pos = 0;
+		}
+		if (need > buf.length)
+		{
+			byte[] b = new byte[Math.max(need, buf.length * 2)];
+			System.arraycopy(buf, 0, b, 0, lim);
+			buf = b;
+		}
+		while (!eof && (lim < need))
+		{
+			int n = in.read(buf, lim, buf.length - lim);
+			if (n < 0)
+				eof = true;
+			else
+				lim += n;
+		}
+	}
+
+	/**
+	 * Read a line of text, stripping the line terminator.
+	 *
+	 * @return the line or null at end of stream
+	 * @throws IOException
+	 */
+	public String readLine () throws IOException
+	{
+		int i = pos;
+		while (true)
+		{
+			while ((i < lim) && (buf[i] != '\n'))
+				i++;
+			if ((i < lim) || eof)
+				break;
+			int scanned = i - pos;
+			fill (scanned + 1);
+			i = pos + scanned;
+		}
+		if ((i == pos) && (i == lim))
+			return null;
+		int e = i;
+		if ((e > pos) && (buf[e - 1] == '\r'))
+			e--;
+		String s = new String (buf, pos, e - pos, "ISO-8859-1");
+		pos = (i < lim) ? i + 1 : i;
+		return s;
+	}
+
+	/**
+	 * Read a block of headers up to the first empty line.  Folded
+	 * headers are joined.
+	 *
+	 * @return headers keyed by lower case name
+	 * @throws IOException
+	 */
+	public HashMap readHeaders () throws IOException
+	{
+		HashMap headers = new HashMap ();
+		String line, name = null;
+		while (((line = readLine ()) != null) && (line.length() > 0))
+		{
+			char c = line.charAt(0);
+			if (((c == ' ') || (c == '\t')) && (name != null))
+			{
+				headers.put(name, headers.get(name) + " " + line.trim());
+				continue;
+			}
+			int i = line.indexOf(':');
+			if (i < 1)
+				continue;
+			name = line.substring(0, i).trim().toLowerCase();
+			headers.put(name, line.substring(i + 1).trim());
+		}
+		return headers;
+	}
+
+	/**
+	 * Read all the parts of a multipart body separated by this boundary.
+	 * Anything before the first boundary is ignored.
+	 *
+	 * @param boundary separating parts
+	 * @param handler given each part
+	 * @return false if the handler fails or the boundaries are broken
+	 * @throws IOException
+	 */
+	public boolean read (String boundary, MimeHandler handler)
+	  throws IOException
+	{
+		String d = "--" + boundary;
+		String line;
+
+		while (((line = readLine ()) != null) && !line.startsWith(d))
+			;
+		if (line == null)
+			return false;
+		if (line.startsWith (d + "--"))
+			return true;
+		while (true)
+		{
+			HashMap headers = readHeaders ();
+			Part part = new Part (d.getBytes("ISO-8859-1"));
+			if (!handler.part(headers, part))
+				return false;
+			if (!part.drain())
+				return false;
+			// whatever follows the boundary tells us if this was the last
+			if (((line = readLine ()) == null) || line.startsWith("--"))
+				return true;
+		}
+	}
+
+	/**
+	 * The body of a single part, ending at the next boundary.
+	 */
+	private class Part extends InputStream
+	{
+		private byte[] delim;
+		private boolean start = true;
+		private boolean done = false;
+		private boolean found = false;
+		private byte[] one = new byte[1];
+
+		Part (byte[] delim)
+		{
+			this.delim = delim;
+		}
+
+		/**
+		 * Check for a line break followed by the boundary delimiter
+		 *
+		 * @param i index of possible line break
+		 * @return length of the line break or 0 if no match
+		 */
+		private int match (int i)
+		{
+			int j = i;
+			if (buf[j] == '\r')
+			{
+				if ((++j >= lim) || (buf[j] != '\n'))
+					return 0;
+			}
+			else if (buf[j] != '\n')
+				return 0;
+			j++;
+			if (lim - j < delim.length)
+				return 0;
+			for (int k = 0; k < delim.length; k++)
+			{
+				if (buf[j + k] != delim[k])
+					return 0;
+			}
+			return j - i;
+		}
+
+		/**
+		 * Find the number of buffered bytes that are certainly body.
+		 *
+		 * @return bytes available or -1 at the end of this part
+		 * @throws IOException
+		 */
+		private int next () throws IOException
+		{
+			int need = delim.length + 2;
+			while (!done)
+			{
+				if (!eof && (lim - pos < need))
+					fill (need);
+				if (start)
+				{
+					// an empty body puts the delimiter right at the start
+					start = false;
+					if (lim - pos >= delim.length)
+					{
+						int k = 0;
+						while ((k < delim.length) && (buf[pos + k] == delim[k]))
+							k++;
+						if (k == delim.length)
+						{
+							pos += delim.length;
+							done = found = true;
+							break;
+						}
+					}
+				}
+				int i;
+				for (i = pos; i < lim; i++)
+				{
+					if ((buf[i] != '\r') && (buf[i] != '\n'))
+						continue;
+					if ((!eof && (lim - i < need)) || (match (i) > 0))
+						break;
+				}
+				if (i > pos)
+					return i - pos;
+				if (pos == lim)
+				{
+					// ran out of stream before the boundary
+					done = true;
+					break;
+				}
+				int m = match (pos);
+				if (m > 0)
+				{
+					pos += m + delim.length;
+					done = found = true;
+					break;
+				}
+				fill (lim - pos + 1);
+			}
+			return -1;
+		}
+
+		/**
+		 * Skip whatever is left of this part
+		 *
+		 * @return true if the closing boundary was found
+		 * @throws IOException
+		 */
+		boolean drain () throws IOException
+		{
+			int n;
+			while ((n = next ()) > 0)
+				pos += n;
+			return found;
+		}
+
+		public int read () throws IOException
+		{
+			if (read (one, 0, 1) < 0)
+				return -1;
+			return one[0] & 0xff;
+		}
+
+		public int read (byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			int n = next ();
+			if (n < 0)
+				return -1;
+			if (n > len)
+				n = len;
+			System.arraycopy(buf, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		public int available () throws IOException
+		{
+			return done ? 0 : Math.max(next (), 0);
+		}
+	}
+}
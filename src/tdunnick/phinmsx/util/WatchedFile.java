@@ -0,0 +1,88 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.util;
+
+import java.io.*;
+
+/**
+ * A file and something built from it, like a script or configuration.
+ * The file's modification time and length are remembered so we can
+ * tell when the value needs to be built again.
+ * 
+ * @author tld
+ *
+ */
+public class WatchedFile
+{
+	private File file;
+	private long modified = -1;
+	private long length = -1;
+	private Object value = null;
+	
+	public WatchedFile (String path)
+	{
+		this (new File (path));
+	}
+	
+	public WatchedFile (File file)
+	{
+		this.file = file;
+	}
+	
+	/**
+	 * Check the file, noting the current time and length if it changed.
+	 * The first check always finds a change.
+	 * 
+	 * @return true if the file changed since the last check
+	 */
+	public synchronized boolean changed ()
+	{
+		long m = file.lastModified();
+		long l = file.length();
+		if ((m == modified) && (l == length))
+			return false;
+		modified = m;
+		length = l;
+		return true;
+	}
+	
+	/**
+	 * Forget the last check, so the next one finds a change
+	 */
+	public synchronized void reset ()
+	{
+		modified = length = -1;
+	}
+	
+	public File getFile ()
+	{
+		return file;
+	}
+	
+	public synchronized Object getValue ()
+	{
+		return value;
+	}
+	
+	public synchronized void setValue (Object value)
+	{
+		this.value = value;
+	}
+}
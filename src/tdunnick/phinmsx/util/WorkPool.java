@@ -0,0 +1,154 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package tdunnick.phinmsx.util;
+
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * A fixed number of threads working through a bounded queue of jobs.
+ * When the queue is full (or the pool is stopped) a job is run by the
+ * caller instead, which slows the caller down rather than losing work
+ * or growing without limit.
+ * 
+ * @author tld
+ *
+ */
+public class WorkPool implements Runnable
+{
+	private String name;
+	private int capacity;
+	private Logger logger;
+	private LinkedList queue = new LinkedList ();
+	private Thread[] threads;
+	private boolean running = true;
+	
+	/**
+	 * @param name for the threads
+	 * @param size number of threads
+	 * @param capacity jobs waiting before the caller runs them
+	 * @param logger for failed jobs
+	 */
+	public WorkPool (String name, int size, int capacity, Logger logger)
+	{
+		this.name = name;
+		this.capacity = (capacity < 0) ? 0 : capacity;
+		this.logger = logger;
+		threads = new Thread[(size < 1) ? 1 : size];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread (this, name + "-" + i);
+			threads[i].setDaemon (true);
+			threads[i].start ();
+		}
+	}
+	
+	/**
+	 * Queue a job, or run it now if the queue is full
+	 * 
+	 * @param job to run
+	 */
+	public void execute (Runnable job)
+	{
+		synchronized (this)
+		{
+			if (running && (queue.size() < capacity))
+			{
+				queue.add (job);
+				notify ();
+				return;
+			}
+		}
+		run (job);
+	}
+	
+	/**
+	 * @return jobs waiting
+	 */
+	public synchronized int size ()
+	{
+		return queue.size ();
+	}
+	
+	/**
+	 * Finish the jobs waiting and stop the threads
+	 */
+	public void stop ()
+	{
+		synchronized (this)
+		{
+			running = false;
+			notifyAll ();
+		}
+		for (int i = 0; i < threads.length; i++)
+		{
+			try
+			{
+				threads[i].join ();
+			}
+			catch (InterruptedException e)
+			{
+			}
+		}
+	}
+	
+	public void run ()
+	{
+		while (true)
+		{
+			Runnable job;
+			synchronized (this)
+			{
+				while (running && queue.isEmpty())
+				{
+					try
+					{
+						wait ();
+					}
+					catch (InterruptedException e)
+					{
+						running = false;
+					}
+				}
+				if (queue.isEmpty())
+					return;
+				job = (Runnable) queue.removeFirst ();
+			}
+			run (job);
+		}
+	}
+	
+	/**
+	 * Run a job, logging anything it throws
+	 * 
+	 * @param job to run
+	 */
+	private void run (Runnable job)
+	{
+		try
+		{
+			job.run ();
+		}
+		catch (Throwable e)
+		{
+			logger.log (Level.SEVERE, name + " job failed - " + e.getMessage(), e);
+		}
+	}
+}
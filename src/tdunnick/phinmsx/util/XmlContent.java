@@ -52,6 +52,12 @@ import javax.xml.parsers.*;
  * "Values" are set and retrieved as text nodes, with only one logical "Value"
  * per names element path.
  * 
+ * Lookups by name use a flattened view of the document, mapping the full
+ * path of every element (e.g. "foo.bar[1].junk[0]") to the element and its
+ * value.  It is built on the first lookup and rebuilt after the document
+ * changes.  Changing the DOM directly (e.g. through getDoc() or an element
+ * returned here) should be followed by setDoc() so the view is rebuilt.
+ * 
  * @author tld
  * 
  */
@@ -60,6 +66,9 @@ public class XmlContent
   private Document doc = null;
   private boolean beautify = false;
   private String lastError = "none";
+  // flattened view of the document by full path
+  private HashMap elements = null;
+  private HashMap values = null;
 
   public String getError ()
   {
@@ -72,6 +81,8 @@ public class XmlContent
    */
   public Document getDoc()
 	{
+  	// the caller may change it
+  	invalidate ();
 		return doc;
 	}
 
@@ -83,6 +94,7 @@ public class XmlContent
 	{
 		this.doc = doc;
 		beautify = false;
+		invalidate ();
 	}
 	
 	/**
@@ -93,6 +105,7 @@ public class XmlContent
 	{
 		doc = null;
 		beautify = false;
+		invalidate ();
 		try
 		{
 			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -116,6 +129,7 @@ public class XmlContent
   {
   	doc = null;
   	beautify = false;
+  	invalidate ();
   	if (is == null)
   		return false;
   	try
@@ -312,22 +326,10 @@ public class XmlContent
   {
 		if ((doc == null) || (names == null) || (names.length() == 0))
 			return null;
-		String root = names;
-		int dot = names.indexOf(".");
-		if (dot > 0)
-		{
-			root = names.substring(0, dot);
-			names = names.substring (dot + 1);
-	  }
-	  else
-	  	names = "";
-		Element e = doc.getDocumentElement();
-		if ((e == null) || (!root.equals(e.getNodeName())))
-		{
-			lastError = "Root does not match " + names;
-			return null;
-		}
-		return getElement (e, names);
+		Element e = (Element) getElements ().get(getPath (names));
+		if (e == null)
+			lastError = "No element for " + names;
+		return e;
   }
   
   /**
@@ -379,6 +381,7 @@ public class XmlContent
   {
   	if ((e == null) || (names == null))
   		return null;
+  	invalidate ();
 		String[] name = names.split("[.]");
 		int i;
 		for (i = 0; i < name.length; i++)
@@ -406,6 +409,19 @@ public class XmlContent
    * @return element for the added (or found) tag
    */
   public Element addElement (String names)
+  {
+  	invalidate ();
+  	return addPath (names);
+  }
+  
+  /**
+   * Adds all the needed elements for names, leaving it to the caller to
+   * update the flattened view.
+   * 
+   * @param names to add
+   * @return element for the added (or found) tag
+   */
+  private Element addPath (String names)
   {
 		if ((doc == null) || (names == null) || (names.length() == 0))
 			return null;
@@ -462,7 +478,9 @@ public class XmlContent
    */
   public String getValue (String names)
 	{
-    return getNodeValue (getElement (names));
+  	if ((doc == null) || (names == null) || (names.length() == 0))
+  		return null;
+    return (String) getValues ().get(getPath (names));
 	}
   
   /**
@@ -535,6 +553,7 @@ public class XmlContent
   {
   	if (value == null)
   		value = "";
+  	invalidate ();
   	return setValue (addENode (e, names), value); 	
   }
   
@@ -552,7 +571,11 @@ public class XmlContent
   {
   	if (value == null)
   		value = "";
-  	return setValue (addElement (names), value);
+  	Element e = addPath (names);
+  	if (!setValue (e, value))
+  		return false;
+  	update (getPath (names), e, value);
+  	return true;
   }
   
   /**
@@ -566,6 +589,7 @@ public class XmlContent
   	Element e = getElement (names);
   	if (e == null)
   		return false;
+  	invalidate ();
   	while (true)
   	{
   		Node n = e.getFirstChild();
@@ -620,8 +644,11 @@ public class XmlContent
    */
   public int getTagCount (String names)
   {
+  	if ((doc == null) || (names == null))
+  		return 0;
+  	HashMap m = getElements ();
   	int cnt = 0;
-  	while (getElement (names + "[" + cnt + "]") != null)
+  	while (m.containsKey(getPath (names + "[" + cnt + "]")))
   		cnt++;
   	return cnt;
   }
@@ -763,12 +790,146 @@ public class XmlContent
   {
   	if (doc == null)
   		return;
+  	invalidate ();
 		beautify (doc.getDocumentElement(), tabsz, 1);
 		doc.normalize();
 		// note if transform indent needed in save above
 		beautify = (tabsz >= 0);
   }
   
+  /**
+   * Get the full path for names as used in the flattened view, with every
+   * tag after the root indexed and redundant dots dropped.  For example,
+   * "foo.bar..junk[2]" gives "foo.bar[0].junk[2]".
+   * 
+   * @param names to convert
+   * @return the path
+   */
+  private String getPath (String names)
+  {
+  	int dot = names.indexOf('.');
+  	if (dot <= 0)
+  		return names;
+  	StringBuffer b = new StringBuffer (names.length() + 16);
+  	b.append (names.substring(0, dot));
+  	int len = names.length();
+  	while (dot < len)
+  	{
+  		int start = dot + 1;
+  		if ((dot = names.indexOf('.', start)) < 0)
+  			dot = len;
+  		if (dot == start)
+  			continue;
+  		String name = names.substring(start, dot);
+  		int i = name.lastIndexOf('[');
+  		b.append('.');
+  		if (i > 0)
+  		{
+  			b.append(name.substring(0, i));
+  			b.append('[');
+  			b.append(parseInt (name.substring(i + 1)));
+  			b.append(']');
+  		}
+  		else
+  		{
+  			b.append(name);
+  			b.append("[0]");
+  		}
+  	}
+  	return b.toString();
+  }
+  
+  /**
+   * Add an element and all its children to the flattened view
+   * 
+   * @param e element
+   * @param path to the element
+   * @param el elements by path
+   * @param val values by path
+   */
+  private void flatten (Element e, String path, HashMap el, HashMap val)
+  {
+  	el.put(path, e);
+  	val.put(path, getNodeValue (e));
+  	HashMap counts = new HashMap ();
+  	for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling())
+  	{
+  		if (n.getNodeType() != Node.ELEMENT_NODE)
+  			continue;
+  		String name = n.getNodeName();
+  		Integer c = (Integer) counts.get(name);
+  		int i = (c == null) ? 0 : c.intValue();
+  		counts.put(name, new Integer (i + 1));
+  		flatten ((Element) n, path + "." + name + "[" + i + "]", el, val);
+  	}
+  }
+  
+  /**
+   * Build the flattened view if needed
+   */
+  private synchronized void flatten ()
+  {
+  	if (elements != null)
+  		return;
+  	HashMap el = new HashMap ();
+  	HashMap val = new HashMap ();
+  	Element e = (doc == null) ? null : doc.getDocumentElement();
+  	if (e != null)
+  		flatten (e, e.getNodeName(), el, val);
+  	values = val;
+  	elements = el;
+  }
+  
+  /**
+   * @return elements by full path
+   */
+  private synchronized HashMap getElements ()
+  {
+  	flatten ();
+  	return elements;
+  }
+  
+  /**
+   * @return values by full path
+   */
+  private synchronized HashMap getValues ()
+  {
+  	flatten ();
+  	return values;
+  }
+  
+  /**
+   * Drop the flattened view after the document changed
+   */
+  private synchronized void invalidate ()
+  {
+  	elements = values = null;
+  }
+  
+  /**
+   * Note a new value in the flattened view.  If the element was already
+   * there only the values change, and they are copied so anyone still
+   * reading the old ones isn't disturbed.  Otherwise elements were added
+   * and the view is rebuilt when next needed.
+   * 
+   * @param path of the element
+   * @param e element set
+   * @param value set
+   */
+  private synchronized void update (String path, Element e, String value)
+  {
+  	if (elements == null)
+  		return;
+  	if (elements.get(path) != e)
+  	{
+  		invalidate ();
+  		return;
+  	}
+  	HashMap val = (HashMap) values.clone();
+  	val.put(path, value.trim());
+  	values = val;
+  }
+  
   private int parseInt (String s)
   {
   	int v = 0;
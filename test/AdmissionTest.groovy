@@ -0,0 +1,72 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.domain.receiver.*;
+
+/**
+ * @author tld
+ *
+ */
+public class AdmissionTest extends GroovyTestCase
+{
+	void testRequests ()
+	{
+		Admission a = new Admission (2, 0, 0, 100)
+		assert a.enter (10) : "first refused"
+		assert a.enter (10) : "second refused"
+		assert !a.enter (10) : "third let in"
+		assert a.getRefused () == 1 : "refusal not counted"
+		a.leave (10)
+		assert a.enter (10) : "not let in after leave"
+	}
+	
+	void testBytes ()
+	{
+		Admission a = new Admission (0, 100, 0, 100)
+		assert a.enter (1000) : "large message refused when idle"
+		assert !a.enter (1) : "let in over byte limit"
+		a.leave (1000)
+		assert a.enter (60) : "refused under byte limit"
+		assert !a.enter (60) : "let in over byte limit"
+		assert !a.enter (-1) : "unknown size let in over byte limit"
+		a.leave (60)
+		assert a.enter (-1) : "unknown size refused when idle"
+		assert !a.enter (1) : "let in beside unknown size"
+		a.leave (-1)
+		Admission b = new Admission (0, 100, 0, 100, 30)
+		assert b.enter (60) : "refused under byte limit"
+		assert b.enter (-1) : "unknown size refused under byte limit"
+		assert !b.enter (-1) : "unknown size let in over byte limit"
+	}
+	
+	void testWait ()
+	{
+		Admission a = new Admission (1, 0, 1, 5000)
+		assert a.enter (1) : "first refused"
+		Thread t = Thread.start { Thread.sleep (200); a.leave (1) }
+		long start = System.currentTimeMillis ()
+		assert a.enter (1) : "waiting message refused"
+		assert System.currentTimeMillis () - start >= 150 : "didn't wait"
+		t.join ()
+		Admission b = new Admission (1, 0, 1, 100)
+		b.enter (1)
+		assert !b.enter (1) : "let in after timeout"
+	}
+}
@@ -6,15 +6,32 @@ public class AllTests
 	public static Test suite()
 	{
 		TestSuite suite = new TestSuite("PhinmsX tests");
+		suite.addTestSuite(AdmissionTest.class);
+		suite.addTestSuite(AsyncHandlerTest.class);
+		suite.addTestSuite(ConfCacheTest.class);
 		suite.addTestSuite(EncryptorTest.class);
 		suite.addTestSuite(XmlContentTest.class);
 		suite.addTestSuite(Hl7AckTest.class);
 		suite.addTestSuite(Hl7BarParserTest.class);
 		suite.addTestSuite(Hl7MsgTest.class);
+		suite.addTestSuite(IncomingIndexTest.class);
+		suite.addTestSuite(KeyCacheTest.class);
+		suite.addTestSuite(ManifestTest.class);
+		suite.addTestSuite(HelperPoolTest.class);
+		suite.addTestSuite(HistogramTest.class);
 		suite.addTestSuite(MimeTests.class);
+		suite.addTestSuite(MimeReaderTest.class);
 		suite.addTestSuite(PasswordsTest.class);
+		suite.addTestSuite(PayloadEncryptorTest.class);
+		suite.addTestSuite(PayloadStoreTest.class);
+		suite.addTestSuite(QueueMapTest.class);
+		suite.addTestSuite(QueueWriterTest.class);
+		suite.addTestSuite(RecordIdsTest.class);
 		suite.addTestSuite(ReceiverTest.class);
+		suite.addTestSuite(ReceiverServerTest.class);
+		suite.addTestSuite(StatusRingTest.class);
 		suite.addTestSuite(StrUtilTest.class);
+		suite.addTestSuite(WorkPoolTest.class);
 		return suite;
 	}
 }
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import java.util.logging.*;
+import tdunnick.phinmsx.util.*;
+
+/**
+ * @author tld
+ *
+ */
+public class AsyncHandlerTest extends GroovyTestCase
+{
+	File f
+	
+	void setUp() throws Exception
+	{
+		f = File.createTempFile ("async", ".txt")
+	}
+	
+	void tearDown() throws Exception
+	{
+		f.delete ()
+	}
+	
+	Logger getLogger (int size, int policy)
+	{
+		FileHandler fh = new FileHandler (f.getPath(), false)
+		fh.setFormatter (new PhinmsXFormatter ())
+		Logger l = Logger.getAnonymousLogger ()
+		l.setUseParentHandlers (false)
+		l.setLevel (Level.ALL)
+		l.addHandler (new AsyncHandler (fh, size, policy))
+		return l
+	}
+	
+	void close (Logger l)
+	{
+		l.getHandlers().each { it.close () }
+	}
+	
+	void testWrite ()
+	{
+		Logger l = getLogger (4, AsyncHandler.BLOCK)
+		for (int i = 0; i < 100; i++)
+			l.info ("message " + i)
+		close (l)
+		List lines = f.readLines ()
+		assert lines.size () == 100 : "lost records " + lines.size ()
+		assert lines[99].contains ("message 99") : "out of order"
+		assert !lines[0].contains ("AsyncHandler.") : "source found on wrong thread " + lines[0]
+	}
+	
+	void testCount ()
+	{
+		Logger l = getLogger (1, AsyncHandler.COUNT)
+		for (int i = 0; i < 1000; i++)
+			l.fine ("message " + i)
+		close (l)
+		int kept = 0, lost = 0
+		f.readLines().each {
+			def m = (it =~ /Dropped ([0-9]+) log records/)
+			if (m.find ())
+				lost += Integer.parseInt (m.group (1))
+			else
+				kept++
+		}
+		assert kept + lost == 1000 : "drops not counted " + kept + "+" + lost
+	}
+	
+	void testFailure ()
+	{
+		FailingHandler fh = new FailingHandler ()
+		fh.setFormatter (new PhinmsXFormatter ())
+		AsyncHandler h = new AsyncHandler (fh, 4, AsyncHandler.BLOCK)
+		h.setErrorManager (fh.errors)
+		Logger l = Logger.getAnonymousLogger ()
+		l.setUseParentHandlers (false)
+		l.addHandler (h)
+		l.info ("lost")
+		h.flush ()
+		assert fh.errors.count == 1 : "failure not reported"
+		for (int i = 0; i < 10; i++)
+			l.info ("message " + i)
+		h.close ()
+		assert fh.text.contains ("message 9") : "writer stopped after a failure"
+	}
+}
+
+/**
+ * Fails its first batch
+ */
+class FailingHandler extends Handler
+{
+	CountingErrors errors = new CountingErrors ()
+	boolean failed = false
+	String text = ""
+
+	void publish (LogRecord rec)
+	{
+		if (!failed)
+		{
+			failed = true
+			throw new IllegalStateException ("disk full")
+		}
+		text += getFormatter ().format (rec)
+	}
+
+	void flush ()
+	{
+	}
+
+	void close ()
+	{
+	}
+}
+
+class CountingErrors extends ErrorManager
+{
+	int count = 0
+
+	void error (String msg, Exception ex, int code)
+	{
+		count++
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.domain.*;
+import tdunnick.phinmsx.util.*;
+
+/**
+ * @author tld
+ *
+ */
+public class ConfCacheTest extends GroovyTestCase
+{
+	File dir
+	File f
+	ConfCache cache
+	
+	void setUp() throws Exception
+	{
+		dir = File.createTempFile ("confs", null)
+		dir.delete ()
+		dir.mkdir ()
+		f = new File (dir, "conf.xml")
+		write ("first")
+		File b = write (new File (dir, "base.xml"), "base")
+		XmlContent xml = new XmlContent ()
+		assert xml.load (b) : "base not read"
+		Props base = new Props ()
+		assert base.load (b.getPath (), xml, "Test") : "base not loaded"
+		cache = new ConfCache (base, "Test")
+	}
+	
+	void tearDown() throws Exception
+	{
+		dir.eachFile { it.delete () }
+		dir.delete ()
+	}
+	
+	File write (File file = f, String queue)
+	{
+		file.text = "<Test><phinmsx>" + dir.getPath () + "</phinmsx>" +
+			"<logDir>" + dir.getPath () + "</logDir>" +
+			"<tempDirectory>" + dir.getPath () + "</tempDirectory>" +
+			"<queueName>" + queue + "</queueName></Test>"
+		return file
+	}
+	
+	void testGetProps ()
+	{
+		Props p = cache.getProps (f.getPath ())
+		assert p != null : "configuration not loaded"
+		assert p.getProperty (PhinmsX.QUEUENAME).equals ("first") : "wrong queue"
+		assert p.isSealed () : "shared properties not sealed"
+		p.setProperty (PhinmsX.QUEUENAME, "changed")
+		assert p.getProperty (PhinmsX.QUEUENAME).equals ("first") : "sealed properties changed"
+		assert p == cache.getProps (f.getPath ()) : "configuration not cached"
+	}
+	
+	void testReload ()
+	{
+		Props p = cache.getProps (f.getPath ())
+		write ("second")
+		f.setLastModified (f.lastModified () + 2000)
+		Props p2 = cache.getProps (f.getPath ())
+		assert p2 != p : "changed configuration not reloaded"
+		assert p2.getProperty (PhinmsX.QUEUENAME).equals ("second") : "wrong queue after reload"
+		assert p.getProperty (PhinmsX.QUEUENAME).equals ("first") : "old configuration changed"
+	}
+	
+	void testKeepGood ()
+	{
+		Props p = cache.getProps (f.getPath ())
+		f.text = "<Test><broken>"
+		f.setLastModified (f.lastModified () + 2000)
+		assert cache.getProps (f.getPath ()) == p : "last good configuration not kept"
+		write ("fixed")
+		f.setLastModified (f.lastModified () + 4000)
+		p = cache.getProps (f.getPath ())
+		assert p.getProperty (PhinmsX.QUEUENAME).equals ("fixed") : "fixed configuration not loaded"
+	}
+	
+	void testFailures ()
+	{
+		for (int i = 0; i < 10; i++)
+			assert cache.getProps (new File (dir, "none" + i).getPath ()) == null : "loaded a missing file"
+		assert cache.confs.size () == 0 : "failed names kept"
+	}
+}
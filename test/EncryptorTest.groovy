@@ -83,4 +83,20 @@ class EncryptorTest extends GroovyTestCase
 		assert ds != null : "Failed DES decryption"
 		assert new String(ds).equals(testdata) : "DES Decryption " + new String(ds) + " didn't match"
 	}
+	
+	public final void testDecryptStream ()
+	{
+		def key = crypt.generateDESKey()
+		byte[] big = new byte[100000]
+		new Random (1).nextBytes (big)
+		String data = crypt.encrypt (big, key)
+		ByteArrayOutputStream out = new ByteArrayOutputStream ()
+		OutputStream dec = new tdunnick.phinmsx.util.Base64Decoder (crypt.decryptStream (out, key), 100)
+		// odd sized writes to cross the cipher blocks
+		byte[] b = data.getBytes ()
+		for (int i = 0; i < b.length; i += 77)
+			dec.write (b, i, Math.min (77, b.length - i))
+		dec.close ()
+		assert Arrays.equals (out.toByteArray (), big) : "DES stream decryption didn't match"
+	}
 }
@@ -18,7 +18,9 @@
  */
  
 import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.domain.*
 import tdunnick.phinmsx.domain.payload.*
+import tdunnick.phinmsx.domain.receiver.*
 import tdunnick.phinmsx.helper.FesiHelper
 
 
@@ -92,4 +94,52 @@ doit ();
         assert s.equals("Invalid segment: XHIs should fail"): "Interpreter returned " + s
 
 	}
+	
+	String run (File script, boolean reuse = true)
+	{
+		RcvEnv env = new RcvEnv ()
+		env.props = new ScriptProps (script: script.getPath (), reuse: reuse)
+		fesi.process (env, "data".bytes)
+		return env.applicationResponse
+	}
+	
+	void testGlobals ()
+	{
+		File a = File.createTempFile ("count", ".js")
+		a.write ("if (typeof count == 'undefined') count = 0; count++; 'count ' + count;")
+		File b = File.createTempFile ("other", ".js")
+		b.write ("typeof count;")
+		String s1 = run (a), s2 = run (a), s3 = run (b)
+		a.delete ()
+		b.delete ()
+		assert s1.equals ("count 1") : "script returned " + s1
+		assert s2.equals ("count 2") : "globals not kept for the same script"
+		assert s3.equals ("undefined") : "globals leaked to another script"
+	}
+	
+	void testFresh ()
+	{
+		File a = File.createTempFile ("count", ".js")
+		a.write ("if (typeof count == 'undefined') count = 0; count++; 'count ' + count;")
+		String s1 = run (a, false), s2 = run (a, false)
+		a.delete ()
+		assert s1.equals ("count 1") : "script returned " + s1
+		assert s2.equals ("count 1") : "globals kept without reuse"
+	}
+}
+
+/**
+ * Properties naming just the script, and whether to reuse evaluators
+ */
+class ScriptProps extends Props
+{
+	String script
+	boolean reuse
+	
+	String getProperty (String name)
+	{
+		if (name.equals (FesiHelper.REUSE))
+			return reuse.toString ()
+		return name.equals (FesiHelper.SCRIPT) ? script : null
+	}
 }
@@ -0,0 +1,56 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.helper.*
+
+/**
+ * @author tld
+ *
+ */
+public class HelperPoolTest extends GroovyTestCase
+{
+	void testShared ()
+	{
+		HelperPool pool = HelperPool.getPool (null, "tdunnick.phinmsx.helper.Hl7AckHelper")
+		assert pool == HelperPool.getPool (null, "tdunnick.phinmsx.helper.Hl7AckHelper")
+		RcvHelper h = pool.get ()
+		assert h instanceof Hl7AckHelper
+		assert h == pool.get () : "thread safe helper not shared"
+		pool.release (h)
+		assert h == pool.get ()
+	}
+	
+	void testPooled ()
+	{
+		HelperPool pool = HelperPool.getPool ("test.xml", "tdunnick.phinmsx.helper.FesiHl7Helper")
+		assert pool != HelperPool.getPool (null, "tdunnick.phinmsx.helper.FesiHl7Helper")
+		RcvHelper a = pool.get ()
+		RcvHelper b = pool.get ()
+		assert a != b : "helper in use handed out twice"
+		pool.release (a)
+		assert a == pool.get () : "released helper not reused"
+	}
+	
+	void testBadClass ()
+	{
+		shouldFail { HelperPool.getPool (null, "java.lang.String") }
+		shouldFail { HelperPool.getPool (null, "no.such.Helper") }
+	}
+}
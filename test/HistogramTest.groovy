@@ -0,0 +1,53 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.util.*;
+
+/**
+ * @author tld
+ *
+ */
+public class HistogramTest extends GroovyTestCase
+{
+	void testPercentiles ()
+	{
+		Histogram h = new Histogram ()
+		assert h.getValueAt (50) == 0 : "empty histogram not zero"
+		for (int i = 1; i <= 1000; i++)
+			h.record (i)
+		assert h.getCount () == 1000 : "wrong count"
+		assert h.getSum () == 500500 : "wrong sum"
+		assert h.getMax () == 1000 : "wrong max"
+		[50, 90, 99].each {
+			long v = h.getValueAt (it)
+			long want = it * 10
+			assert (v >= want) && (v <= want * 1.125) : "p" + it + " was " + v
+		}
+		assert h.getValueAt (100) == 1000 : "p100 not max"
+	}
+	
+	void testSmall ()
+	{
+		Histogram h = new Histogram ()
+		(0..7).each { h.record (it) }
+		assert h.getValueAt (50) == 3 : "small values not exact"
+		assert h.copy ().getCount () == 8 : "copy count wrong"
+	}
+}
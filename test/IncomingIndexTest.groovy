@@ -0,0 +1,81 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.domain.receiver.*;
+
+/**
+ * @author tld
+ *
+ */
+public class IncomingIndexTest extends GroovyTestCase
+{
+	File dir
+	
+	void setUp() throws Exception
+	{
+		dir = File.createTempFile ("incoming", "")
+		dir.delete ()
+		dir.mkdirs ()
+		new File (dir, "taken.txt").text = "taken"
+	}
+	
+	void tearDown() throws Exception
+	{
+		dir.deleteDir ()
+	}
+	
+	void testReserve ()
+	{
+		IncomingIndex index = IncomingIndex.getIndex (dir.getPath() + "/", "flat")
+		assert index.reserve ("taken.txt") == null : "reserved existing file"
+		File f = index.reserve ("new.txt")
+		assert f != null : "can't reserve new file"
+		assert index.reserve ("new.txt") == null : "reserved name twice"
+		index.release (f, false)
+		f = index.reserve ("new.txt")
+		assert f != null : "name not released"
+		f.text = "stored"
+		index.release (f, true)
+		assert index.reserve ("new.txt") == null : "reserved stored file"
+		f.delete ()
+		assert index.reserve ("new.txt") != null : "removed file still taken"
+	}
+	
+	void testHash ()
+	{
+		IncomingIndex index = IncomingIndex.getIndex (dir.getPath(), "hash")
+		File f = index.reserve ("hashed.txt")
+		assert f != null : "can't reserve hashed file"
+		assert f.getParentFile().getName().matches ("[0-9a-f]{2}") : "not in hash folder"
+		assert f.getParentFile().getParentFile().equals (dir) : "hash folder misplaced"
+		assert f.getParentFile().isDirectory () : "hash folder not created"
+	}
+	
+	void testOthers ()
+	{
+		IncomingIndex index = IncomingIndex.getIndex (dir.getPath() + "/others/", "flat")
+		File f = index.reserve ("dropped.txt")
+		assert f != null : "can't reserve new file"
+		index.release (f, false)
+		// another process stores a file under the name
+		f.text = "dropped"
+		assert index.reserve ("dropped.txt") == null : "reserved file dropped in by others"
+	}
+}
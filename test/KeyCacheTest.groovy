@@ -0,0 +1,83 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.crypt.*;
+
+/**
+ * @author tld
+ *
+ */
+public class KeyCacheTest extends GroovyTestCase
+{
+	Encryptor crypt = new Encryptor ()
+	String ksname = "test/test.pfx"
+	String kspass = "changeit"
+	String certname = "test/test.der"
+	String dn = "CN=test.slh.wisc.edu, OU=WSLH, O=UW, L=Madison, ST=Wisconsin, C=US"
+	String dnB = "C=US,ST=Wisconsin,L=Madison,O=UW,OU=WSLH,CN=test.slh.wisc.edu"
+	
+	void setUp ()
+	{
+		KeyCache.clear ()
+	}
+	
+	void testCached ()
+	{
+		def k1 = crypt.getPrivateKey (ksname, kspass, new StringBuffer (dn))
+		assert k1 != null : "no private key for " + dn
+		def k2 = crypt.getPrivateKey (ksname, kspass, new StringBuffer (dnB))
+		assert k2.is (k1) : "reordered DN not found in cache"
+		StringBuffer b = new StringBuffer ()
+		assert crypt.getPrivateKey (ksname, kspass, b).is (k1) : "first entry not cached"
+		assert b.length () > 0 : "DN not filled in"
+		assert crypt.getPrivateKey (ksname, kspass, new StringBuffer ("CN=nobody")) == null : "unknown DN found"
+		def p = crypt.getKeyStoreKey (ksname, kspass, new StringBuffer (dn))
+		assert crypt.getKeyStoreKey (ksname, kspass, null).is (p) : "public key not cached"
+		StringBuffer d = new StringBuffer ()
+		def c = crypt.getDerKey (certname, d)
+		assert crypt.getDerKey (certname, new StringBuffer (d.toString ())).is (c) : "certificate not cached"
+		assert crypt.getDerKey (certname, new StringBuffer ("CN=nobody")) == null : "certificate DN not checked"
+	}
+	
+	void testPassword ()
+	{
+		assert crypt.getPrivateKey (ksname, kspass, null) != null : "no private key"
+		assert crypt.getPrivateKey (ksname, "wrong", null) == null : "wrong store password unlocked key"
+		assert crypt.getPrivateKey (ksname, kspass, "wrong", null) == null : "wrong key password unlocked key"
+	}
+	
+	void testReload ()
+	{
+		File f = File.createTempFile ("keycache", ".pfx")
+		try
+		{
+			f.bytes = new File (ksname).bytes
+			def k1 = crypt.getPrivateKey (f.path, kspass, null)
+			assert crypt.getPrivateKey (f.path, kspass, null).is (k1) : "not cached"
+			f.setLastModified (f.lastModified () - 10000)
+			def k2 = crypt.getPrivateKey (f.path, kspass, null)
+			assert k2 != null : "not reloaded"
+			assert !k2.is (k1) : "changed keystore not reloaded"
+		}
+		finally
+		{
+			f.delete ()
+		}
+	}
+}
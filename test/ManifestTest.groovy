@@ -0,0 +1,61 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.domain.receiver.*;
+
+/**
+ * @author tld
+ *
+ */
+public class ManifestTest extends GroovyTestCase
+{
+	void testParse ()
+	{
+		String m = "<?xml version=\"1.0\"?><!-- sent --><Manifest>" +
+		  "<MessageId>abc-123</MessageId><eb:ConversationId>c9</eb:ConversationId>" +
+		  "<Route type=\"x\">lab</Route><Empty/><MessageId>second</MessageId>" +
+		  "<Mixed>text<Inner>in</Inner></Mixed></Manifest>"
+		Map f = Manifest.parse (m)
+		assert f.get ("MessageId") == "abc-123" : "first MessageId not kept"
+		assert f.get ("ConversationId") == "c9" : "namespace prefix not dropped"
+		assert f.get ("Route") == "lab" : "attributes not skipped"
+		assert f.get ("Empty") == "" : "empty element missing"
+		assert f.get ("Inner") == "in" : "nested element missing"
+		assert !f.containsKey ("Manifest") : "parent element kept"
+		assert !f.containsKey ("Mixed") : "mixed element kept"
+	}
+	
+	void testBroken ()
+	{
+		assert Manifest.parse (null).isEmpty () : "null manifest"
+		assert Manifest.parse ("no tags").isEmpty () : "plain text"
+		Map f = Manifest.parse ("<A>one</A><B>unclosed")
+		assert f.get ("A") == "one" : "lost field before broken one"
+		assert !f.containsKey ("B") : "unclosed field kept"
+		assert Manifest.parse ("<A>one</B>").isEmpty () : "mismatched tags"
+		assert Manifest.parse ("<A>one<").isEmpty () : "truncated tag"
+	}
+	
+	void testRecord ()
+	{
+		RcvRecord r = new RcvRecord ()
+		r.setManifest (Manifest.parse ("<MessageId>m1</MessageId>"))
+		assert r.getMessageId () == "m1" : "MessageId column not set"
+	}
+}
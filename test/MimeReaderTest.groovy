@@ -0,0 +1,65 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *  
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.util.*;
+
+public class MimeReaderTest extends GroovyTestCase
+{
+	String msg = "preamble\r\n--XYZ\r\nContent-Type: text/plain\r\n\r\n" +
+	  "--XYZ\r\nContent-Type: Application/Octet-Stream\r\n" +
+	  "Content-Disposition: attachment;\r\n name=\"f\"\r\n\r\n" +
+	  "ab\r\n--XY\n-XYZa\r--XYZ\r\n--XYZ--\r\n"
+	
+	List readParts (String m, int size)
+	{
+		def parts = []
+		def handler = { headers, body ->
+			ByteArrayOutputStream out = new ByteArrayOutputStream ()
+			int c
+			while ((c = body.read()) >= 0)
+				out.write (c)
+			parts.add ([ headers, out.toString() ])
+			return true
+		}
+		MimeReader rd = new MimeReader (new ByteArrayInputStream (m.getBytes()), size)
+		if (!rd.read ("XYZ", handler as MimeHandler))
+			return null
+		return parts
+	}
+	
+	void testRead ()
+	{
+		// small buffers force boundaries to straddle reads
+		for (int sz = 16; sz < 40; sz++)
+		{
+			def parts = readParts (msg, sz)
+			assert parts != null : "failed parse with buffer " + sz
+			assert parts.size() == 2 : "wrong part count " + parts.size()
+			assert parts[0][1].equals ("") : "empty part not empty"
+			assert parts[1][1].equals ("ab\r\n--XY\n-XYZa\r--XYZ") : "got '" + parts[1][1] + "'"
+			assert parts[1][0]["content-disposition"].equals ("attachment; name=\"f\"") : "folded header"
+		}
+	}
+	
+	void testMissingBoundary ()
+	{
+		assert readParts ("--XYZ\nContent-Type: text/plain\n\nabc", 16) == null : "unterminated part accepted"
+	}
+}
@@ -70,9 +70,90 @@ public class MimeTests extends GroovyTestCase
 		assert s.equals(payload) : "payload doesn't match '" + s + "'"
 	}
 	
+	void testSpool ()
+	{
+		RcvRequest srq = new RcvRequest ()
+		srq.setSpool (new File (System.getProperty ("java.io.tmpdir")), 16)
+		ByteArrayInputStream inp = new ByteArrayInputStream (getResponse().getBytes())
+		assert srq.parse (inp) : "failed to parse spooled response"
+		assert srq.getPayLoad() == null : "spooled payload kept in memory"
+		File f = srq.getPayloadFile()
+		assert f != null : "payload not spooled"
+		String s = f.getText()
+		f.delete()
+		assert s.equals(payload) : "spooled payload doesn't match '" + s + "'"
+	}
+	
+	void testSpoolTwice ()
+	{
+		File dir = File.createTempFile ("spool", null)
+		dir.delete ()
+		dir.mkdir ()
+		String b = "--spooltest\r\n"
+		String part = "Content-Type: application/octet-stream\r\n" +
+		  "Content-Disposition: attachment; name=\"twice\"\r\n\r\n"
+		String s = "Content-Type: multipart/related; boundary=\"spooltest\"\r\n\r\n" +
+		  b + part + "first\r\n" + b + part + "second\r\n--spooltest--\r\n"
+		RcvRequest srq = new RcvRequest ()
+		srq.setSpool (dir, 16)
+		assert srq.parse (new ByteArrayInputStream (s.getBytes())) : "failed to parse two payloads"
+		File[] f = dir.listFiles()
+		String p = srq.getPayloadFile().getText()
+		f.each { it.delete() }
+		dir.delete ()
+		assert f.length == 1 : "earlier spool file not removed"
+		assert p.equals("second") : "spooled payload doesn't match '" + p + "'"
+	}
+
+	void testLength ()
+	{
+		for (int n = 0; n < 4; n++)
+		{
+			byte[] data = new byte[n + 1000]
+			for (int i = 0; i < data.length; i++)
+				data[i] = (byte) i
+			ByteArrayOutputStream out = new ByteArrayOutputStream ()
+			new RcvResponse ().write (out, status, error, appdata, data, filename)
+			String s = out.toString ("ISO-8859-1")
+			int i = s.indexOf ("\n\n") + 2
+			String len = s.substring (s.indexOf ("Content-Length: ") + 16, i - 2)
+			assert Integer.parseInt (len) == s.length() - i : "wrong content length " + len
+			RcvRequest r = new RcvRequest ()
+			assert r.parse (new ByteArrayInputStream (out.toByteArray())) : "failed to parse response"
+			assert Arrays.equals (r.getPayLoad(), data) : "binary payload doesn't match"
+		}
+	}
+	
 	void testGetFileName ()
 	{
 		String s = rq.getFileName()
 		assert s.equals(filename) : "file name doesn't match '" + s + "'"
 	}	
+
+	void testTruncated ()
+	{
+		ClosedStream out = new ClosedStream ()
+		tdunnick.phinmsx.util.Base64Decoder d = new tdunnick.phinmsx.util.Base64Decoder (out)
+		d.write ("QUJDR".getBytes ())
+		try
+		{
+			d.close ()
+			fail ("truncated data not reported")
+		}
+		catch (IOException e)
+		{
+		}
+		assert out.closed : "stream left open"
+		d.close ()
+	}
+}
+
+class ClosedStream extends ByteArrayOutputStream
+{
+	boolean closed = false
+
+	void close ()
+	{
+		closed = true
+	}
 }
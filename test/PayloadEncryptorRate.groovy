@@ -0,0 +1,44 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Round trips per second, for comparing changes to the JCA set up.  This
+ * is not part of AllTests; run it from the project folder with the test
+ * class path.
+ * 
+ * @author tld
+ *
+ */
+public class PayloadEncryptorRate
+{
+	public static void main (String[] args)
+	{
+		PayloadEncryptorTest t = new PayloadEncryptorTest ()
+		int count = (args.length > 0) ? args[0].toInteger () : 1000
+		byte[] data = new byte[4096]
+		new Random (3).nextBytes (data)
+		for (int i = 0; i < 200; i++)
+			t.roundTrip (data)
+		long start = System.currentTimeMillis ()
+		for (int i = 0; i < count; i++)
+			t.roundTrip (data)
+		long ms = Math.max (1, System.currentTimeMillis () - start)
+		println "" + (count * 1000L).intdiv (ms) + " 4K payload round trips per second"
+	}
+}
@@ -0,0 +1,155 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.crypt.*;
+
+/**
+ * @author tld
+ *
+ */
+public class PayloadEncryptorTest extends GroovyTestCase
+{
+	Encryptor crypt = new Encryptor ()
+	PayloadEncryptor pcrypt = new PayloadEncryptor ()
+	String ksname = "test/test.pfx"
+	String kspass = "changeit"
+	String certname = "test/test.der"
+	
+	/**
+	 * wrap data the way PHIN-MS does, with namespace prefixes
+	 */
+	String envelope (byte[] data)
+	{
+		StringBuffer dn = new StringBuffer ()
+		def pkey = crypt.getDerKey (certname, dn)
+		def key = crypt.generateDESKey ()
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+			"<xenc:EncryptedData xmlns:xenc=\"http://www.w3.org/2001/04/xmlenc#\">" +
+			"<ds:KeyInfo xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\"><xenc:EncryptedKey>" +
+			"<ds:KeyInfo><ds:KeyName>" + dn + "</ds:KeyName></ds:KeyInfo>" +
+			"<xenc:CipherData><xenc:CipherValue>" + crypt.encrypt (key.getEncoded (), pkey) +
+			"</xenc:CipherValue></xenc:CipherData></xenc:EncryptedKey></ds:KeyInfo>" +
+			"<xenc:CipherData><xenc:CipherValue>\n" + crypt.encrypt (data, key) + 
+			"\n</xenc:CipherValue></xenc:CipherData></xenc:EncryptedData>"
+	}
+	
+	void testDecryptStream ()
+	{
+		byte[] data = new byte[200000]
+		new Random (1).nextBytes (data)
+		byte[] x = envelope (data).getBytes ("ISO-8859-1")
+		ByteArrayOutputStream out = new ByteArrayOutputStream ()
+		assert pcrypt.decryptPayload (ksname, kspass, kspass, 
+			new ByteArrayInputStream (x), out) : "stream decryption failed"
+		assert Arrays.equals (out.toByteArray (), data) : "stream decryption didn't match"
+	}
+	
+	void testDecryptString ()
+	{
+		String s = envelope ("the quick brown fox".getBytes ()).replaceAll ("xenc:", "")
+		assert pcrypt.isEncrypted (s) : "not seen as encrypted"
+		assert pcrypt.isEncrypted (s.getBytes (), 200) : "head not seen as encrypted"
+		assert !pcrypt.isEncrypted ("plain text".getBytes (), 200) : "plain seen as encrypted"
+		byte[] d = pcrypt.decryptPayload (ksname, kspass, kspass, s)
+		assert new String (d) == "the quick brown fox" : "string decryption didn't match"
+	}
+	
+	void testEscaped ()
+	{
+		String s = envelope ("the quick brown fox".getBytes ())
+		int i = s.lastIndexOf ("CipherValue>\n") + 12
+		// line breaks as a serializer might write them, and a CDATA section
+		s = s.substring (0, i) + "&#13;\n<![CDATA[" + s.substring (i + 1, i + 9) + "]]>&#xD;&#10;" + 
+			s.substring (i + 9)
+		ByteArrayOutputStream out = new ByteArrayOutputStream ()
+		assert pcrypt.decryptPayload (ksname, kspass, kspass, 
+			new ByteArrayInputStream (s.getBytes ()), out) : "escaped cipher value not decrypted"
+		assert new String (out.toByteArray ()) == "the quick brown fox" : "escaped decryption didn't match"
+	}
+	
+	void testBroken ()
+	{
+		String s = envelope ("data".getBytes ())
+		ByteArrayOutputStream out = new ByteArrayOutputStream ()
+		assert !pcrypt.decryptPayload (ksname, kspass, kspass, 
+			new ByteArrayInputStream (s.substring (0, 300).getBytes ()), out) : "truncated envelope decrypted"
+		assert !pcrypt.decryptPayload (ksname, kspass, kspass, 
+			new ByteArrayInputStream (s.replaceFirst ("CipherValue>\n", "CipherValue>AAAA").getBytes ()), 
+			out) : "corrupt payload decrypted"
+	}
+	
+	/**
+	 * encrypt with the certificate and decrypt with the keystore
+	 */
+	byte[] roundTrip (byte[] data)
+	{
+		String x = pcrypt.encryptPayload (certname, null, new StringBuffer (), data)
+		assert x != null : "encryption failed"
+		ByteArrayOutputStream out = new ByteArrayOutputStream ()
+		assert pcrypt.decryptPayload (ksname, kspass, kspass, 
+			new ByteArrayInputStream (x.getBytes ("UTF-8")), out) : "decryption failed"
+		return out.toByteArray ()
+	}
+	
+	void testRoundTrip ()
+	{
+		byte[] data = new byte[50000]
+		new Random (2).nextBytes (data)
+		assert Arrays.equals (roundTrip (data), data) : "round trip didn't match"
+		assert Arrays.equals (roundTrip (new byte[0]), new byte[0]) : "empty round trip didn't match"
+	}
+	
+	void testThreads ()
+	{
+		List failed = Collections.synchronizedList (new ArrayList ())
+		List threads = []
+		for (int t = 0; t < 4; t++)
+		{
+			int seed = t
+			threads << Thread.start {
+				Random r = new Random (seed)
+				for (int i = 0; i < 20; i++)
+				{
+					byte[] data = new byte[r.nextInt (5000)]
+					r.nextBytes (data)
+					try
+					{
+						if (!Arrays.equals (roundTrip (data), data))
+							failed << seed
+					}
+					catch (Throwable e)
+					{
+						failed << e
+					}
+				}
+			}
+		}
+		threads.each { it.join () }
+		assert failed.isEmpty () : "concurrent round trips didn't match"
+	}
+	
+	void testClear ()
+	{
+		byte[] data = "the quick brown fox".getBytes ()
+		assert Arrays.equals (roundTrip (data), data) : "round trip didn't match"
+		Encryptor.clear ()
+		assert Encryptor.threads.values ().every { p -> p.every { it.isEmpty () } } : "pools not emptied"
+		assert Arrays.equals (roundTrip (data), data) : "round trip after clear didn't match"
+	}
+}
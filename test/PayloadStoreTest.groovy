@@ -0,0 +1,113 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import groovy.util.GroovyTestCase;
+import tdunnick.phinmsx.domain.receiver.*;
+
+/**
+ * @author tld
+ *
+ */
+public class PayloadStoreTest extends GroovyTestCase
+{
+	File dir
+	File tmp
+	File dest
+	
+	void setUp ()
+	{
+		dir = File.createTempFile ("store", null)
+		dir.delete ()
+		dir.mkdir ()
+		tmp = new File (dir, "payload.tmp")
+		dest = new File (dir, "payload.dat")
+	}
+	
+	void tearDown ()
+	{
+		dir.eachFile { it.delete () }
+		dir.delete ()
+	}
+	
+	void testPublish ()
+	{
+		PayloadStore store = PayloadStore.getStore (PayloadStore.FSYNC)
+		assert store == PayloadStore.getStore (PayloadStore.FSYNC) : "store not shared"
+		store.write (tmp, "the payload".getBytes ())
+		store.publish (tmp, dest)
+		assert !tmp.exists () : "temporary file left"
+		assert dest.getText ().equals ("the payload") : "published payload doesn't match"
+		assert dir.list ().length == 1 : "extra files left"
+	}
+	
+	void testReplace ()
+	{
+		PayloadStore store = PayloadStore.getStore (PayloadStore.NONE)
+		dest.write ("old")
+		store.write (tmp, "new".getBytes ())
+		try
+		{
+			store.publish (tmp, dest)
+			fail ("existing file replaced")
+		}
+		catch (IOException e)
+		{
+		}
+		assert dest.getText ().equals ("old") : "existing file changed"
+		store.publish (tmp, dest, true)
+		assert dest.getText ().equals ("new") : "file not replaced"
+		assert !tmp.exists () : "temporary file left"
+	}
+	
+	void testCopy ()
+	{
+		PayloadStore store = new OtherDevice (PayloadStore.FSYNC, tmp)
+		store.write (tmp, "copied".getBytes ())
+		store.publish (tmp, dest)
+		assert !tmp.exists () : "temporary file left"
+		assert dest.getText ().equals ("copied") : "copied payload doesn't match"
+		assert dir.list ().length == 1 : "extra files left"
+		
+		// replacing goes through a copy too
+		store.write (tmp, "again".getBytes ())
+		store.publish (tmp, dest, true)
+		assert !tmp.exists () : "temporary file left"
+		assert dest.getText ().equals ("again") : "file not replaced by copy"
+		assert dir.list ().length == 1 : "extra files left"
+	}
+}
+
+/**
+ * A store that can't rename its temporary files, as if they were on 
+ * another device
+ */
+class OtherDevice extends PayloadStore
+{
+	File tmp
+	
+	OtherDevice (int mode, File tmp)
+	{
+		super (mode)
+		this.tmp = tmp
+	}
+	
+	protected boolean rename (File from, File to)
+	{
+		return from.equals (tmp) ? false : from.renameTo (to)
+	}
+}
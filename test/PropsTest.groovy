@@ -57,6 +57,15 @@ public class PropsTest extends GroovyTestCase
 		assert props.getProperty (Props.QUEUENAME).equals("workerqueue") : "failed getting queue name"
  	}
 	
+	void testSeal()
+	{
+		String q = props.getProperty (PhinmsX.QUEUENAME)
+		props.seal ()
+		assert props.isSealed () : "not sealed"
+		props.setProperty (PhinmsX.QUEUENAME, "changed")
+		assert props.getProperty (PhinmsX.QUEUENAME).equals(q) : "sealed properties changed"
+	}
+	
 	void testGetLogger()
 	{
 		assert props.getLogger() != null : "no logger!"
@@ -0,0 +1,84 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import java.util.logging.*;
+import tdunnick.phinmsx.domain.*;
+
+/**
+ * @author tld
+ *
+ */
+public class QueueMapTest extends GroovyTestCase
+{
+	File f
+	Logger logger = Logger.getLogger("")
+	
+	void setUp() throws Exception
+	{
+		f = File.createTempFile ("queuemap", ".xml")
+		write ("workerqueue", "testworkerqueue")
+	}
+	
+	void tearDown() throws Exception
+	{
+		f.delete ()
+	}
+	
+	void write (String queue, String table)
+	{
+		f.text = "<QueueMap><workerQueue><queueId>" + queue + "</queueId>" +
+			"<tableName>" + table + "</tableName></workerQueue>" +
+			"<workerQueue><queueId>other</queueId><tableName>othertable</tableName>" + 
+			"</workerQueue></QueueMap>"
+	}
+	
+	void testGetMap ()
+	{
+		QueueMap m = QueueMap.getMap (f.getPath(), logger)
+		assert m != null : "map not loaded"
+		assert m.getTableName ("workerqueue").equals ("testworkerqueue") : "wrong table"
+		assert m.getTableName ("nosuchqueue") == null : "found unmapped queue"
+		assert m.getTables ().size () == 2 : "wrong number of tables"
+		assert m == QueueMap.getMap (f.getPath(), logger) : "map not cached"
+	}
+	
+	void testReload ()
+	{
+		QueueMap m = QueueMap.getMap (f.getPath(), logger)
+		write ("workerqueue", "changedqueue")
+		f.setLastModified (f.lastModified() + 2000)
+		QueueMap m2 = QueueMap.getMap (f.getPath(), logger)
+		assert m2 != m : "changed map not reloaded"
+		assert m2.getTableName ("workerqueue").equals ("changedqueue") : "wrong table after reload"
+		assert m.getTableName ("workerqueue").equals ("testworkerqueue") : "old map changed"
+	}
+	
+	void testKeepGood ()
+	{
+		QueueMap m = QueueMap.getMap (f.getPath(), logger)
+		f.text = "<QueueMap><workerQueue>"
+		f.setLastModified (f.lastModified() + 2000)
+		assert QueueMap.getMap (f.getPath(), logger) == m : "last good map not kept"
+		write ("workerqueue", "fixedqueue")
+		f.setLastModified (f.lastModified() + 4000)
+		m = QueueMap.getMap (f.getPath(), logger)
+		assert m.getTableName ("workerqueue").equals ("fixedqueue") : "fixed map not read"
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import groovy.util.GroovyTestCase;
+import java.sql.*;
+import tdunnick.phinmsx.domain.*;
+import tdunnick.phinmsx.domain.receiver.*;
+
+/**
+ * @author tld
+ *
+ */
+public class QueueWriterTest extends GroovyTestCase
+{
+	static int db = 0
+	String url
+	Connection conn
+	File journal
+
+	void setUp ()
+	{
+		Class.forName ("org.hsqldb.jdbcDriver")
+		url = "jdbc:hsqldb:mem:queue" + db++
+		conn = DriverManager.getConnection (url, "sa", "")
+		for (String t in ["workerqueue", "otherqueue"])
+			conn.createStatement ().executeUpdate ("create table " + t + " (" +
+			  "recordId integer generated by default as identity (start with 1) primary key, " +
+			  "messageId varchar(255), payloadName varchar(255), localFileName varchar(255), " +
+			  "service varchar(255) not null, action varchar(255), arguments varchar(255), " +
+			  "fromPartyId varchar(255), messageRecipient varchar(255), errorCode varchar(255), " +
+			  "errorMessage varchar(255), processingStatus varchar(255), " +
+			  "applicationStatus varchar(255), encryption varchar(255), " +
+			  "receivedTime varchar(255), lastUpdateTime varchar(255), processId varchar(255))")
+		journal = File.createTempFile ("queue", ".jnl")
+	}
+
+	void tearDown ()
+	{
+		conn.createStatement ().execute ("shutdown")
+		conn.close ()
+		journal.delete ()
+	}
+
+	QueueProps getProps ()
+	{
+		return new QueueProps (url)
+	}
+
+	RcvRecord record (String name)
+	{
+		RcvRecord rec = new RcvRecord ()
+		rec.setService ("test")
+		rec.setLocalFileName (name)
+		rec.setApplicationStatus ("received")
+		return rec
+	}
+
+	/**
+	 * @return local file names in the worker queue
+	 */
+	List names (String table = "workerqueue")
+	{
+		List l = new ArrayList ()
+		ResultSet res = conn.createStatement ().executeQuery (
+		  "select localFileName from " + table + " order by recordId")
+		while (res.next ())
+			l.add (res.getString (1))
+		return l
+	}
+
+	void drain (QueueWriter w)
+	{
+		for (int i = 0; (i < 100) && (w.size () > 0); i++)
+			Thread.sleep (50)
+		assert w.size () == 0 : "queue didn't drain"
+	}
+
+	void testCrash ()
+	{
+		QueueProps p = getProps ()
+		QueueWriter w = new QueueWriter (p, null, journal, 10, 5)
+		assert w.start () : "writer didn't start"
+		for (int i = 0; i < 3; i++)
+			assert w.add (p, null, record ("a" + i)) : "record not queued"
+		drain (w)
+		// the database goes away and we crash before these are written
+		p.down = true
+		assert w.add (p, null, record ("b0")) : "record not queued"
+		assert w.add (p, null, record ("b1")) : "record not queued"
+		RcvRecord u = record ("a1")
+		u.setApplicationStatus ("done")
+		assert w.update (p, null, u) : "update not queued"
+		assert journal.length () > 0 : "journal not written"
+		assert names () == ["a0", "a1", "a2"] : "records written while down"
+
+		// starting over replays only those not committed
+		QueueWriter w2 = new QueueWriter (getProps (), null, journal, 10, 5)
+		assert w2.start () : "writer didn't restart"
+		drain (w2)
+		w2.stop ()
+		assert names () == ["a0", "a1", "a2", "b0", "b1"] : "replay didn't match " + names ()
+		ResultSet res = conn.createStatement ().executeQuery (
+		  "select applicationStatus from workerqueue where localFileName='a1'")
+		assert res.next () && res.getString (1).equals ("done") : "update not replayed"
+		assert journal.length () == 0 : "journal not emptied"
+	}
+
+	void testCompact ()
+	{
+		QueueProps p = getProps ()
+		// a table that can't be reached, so its records are kept
+		QueueProps down = getProps ()
+		down.down = true
+		down.table = "otherqueue"
+		QueueWriter w = new QueueWriter (p, null, journal, 3, 5)
+		assert w.start () : "writer didn't start"
+		// a record stuck at the head while others are written
+		assert w.add (down, null, record ("stuck")) : "record not queued"
+		long size = 0
+		for (int i = 0; i < 20; i++)
+		{
+			assert w.add (p, null, record ("r" + i)) : "record not queued"
+			for (int j = 0; (j < 100) && (w.size () > 1); j++)
+				Thread.sleep (10)
+			if (i == 0)
+				size = journal.length ()
+		}
+		// one added while the stuck record was being tried waits for the retry
+		for (int j = 0; (j < 150) && (w.size () > 1); j++)
+			Thread.sleep (50)
+		assert w.size () == 1 : "records not written"
+		assert journal.length () <= 2 * size : "journal not compacted"
+		assert names ().size () == 20 : "records missing"
+
+		// only the stuck record is replayed
+		QueueWriter w2 = new QueueWriter (getProps (), null, journal, 3, 5)
+		assert w2.start () : "writer didn't restart"
+		drain (w2)
+		w2.stop ()
+		assert names ().size () == 20 : "records replayed"
+		assert names ("otherqueue") == ["stuck"] : "stuck record not replayed"
+	}
+
+	void testPoison ()
+	{
+		QueueProps p = getProps ()
+		QueueWriter w = new QueueWriter (p, null, journal, 10, 5)
+		assert w.start () : "writer didn't start"
+		RcvRecord bad = record ("bad")
+		bad.setService (null)
+		assert w.add (p, null, bad) : "record not queued"
+		// an update for a record that isn't there is only warned about
+		assert w.update (p, null, record ("missing")) : "update not queued"
+		assert w.add (p, null, record ("good")) : "record not queued"
+		for (int i = 0; (i < 400) && (w.size () > 0); i++)
+			Thread.sleep (50)
+		w.stop ()
+		assert w.size () == 0 : "bad record never given up"
+		assert names () == ["good"] : "queue didn't match " + names ()
+	}
+
+	void testOrder ()
+	{
+		QueueProps p = getProps ()
+		QueueWriter w = new QueueWriter (p, null, journal, 10, 5)
+		assert w.start () : "writer didn't start"
+		assert w.add (p, null, record ("x")) : "record not queued"
+		drain (w)
+		// held while down, so all go in one batch starting with an update
+		p.down = true
+		RcvRecord u = record ("x")
+		u.setApplicationStatus ("done x")
+		assert w.update (p, null, u) : "update not queued"
+		assert w.add (p, null, record ("a")) : "record not queued"
+		assert w.add (p, null, record ("b")) : "record not queued"
+		u = record ("a")
+		u.setApplicationStatus ("done a")
+		assert w.update (p, null, u) : "update not queued"
+		// let the writer fail these and wait to retry
+		Thread.sleep (500)
+		p.down = false
+		for (int i = 0; (i < 200) && (w.size () > 0); i++)
+			Thread.sleep (50)
+		w.stop ()
+		assert names () == ["x", "a", "b"] : "queue didn't match " + names ()
+		ResultSet res = conn.createStatement ().executeQuery (
+		  "select applicationStatus from workerqueue order by recordId")
+		List l = []
+		while (res.next ())
+			l.add (res.getString (1))
+		assert l == ["done x", "done a", "received"] : "updates not applied " + l
+	}
+	
+	void testOversize ()
+	{
+		QueueProps p = getProps ()
+		QueueWriter w = new QueueWriter (p, null, journal, 10, 5)
+		assert w.start () : "writer didn't start"
+		p.down = true
+		assert w.add (p, null, record ("a")) : "record not queued"
+		RcvRecord big = record ("big")
+		big.setArguments ("x" * 70000)
+		// can't be journaled, so it is inserted right away (and fails)
+		assert !w.add (p, null, big) : "oversize record queued"
+		assert w.add (p, null, record ("b")) : "record not queued"
+		w.stop ()
+		// the journal still replays what came after
+		p.down = false
+		QueueWriter w2 = new QueueWriter (getProps (), null, journal, 10, 5)
+		assert w2.start () : "writer didn't restart"
+		drain (w2)
+		w2.stop ()
+		assert names () == ["a", "b"] : "replay didn't match " + names ()
+	}
+	
+	void testUpdateFull ()
+	{
+		QueueProps p = getProps ()
+		QueueWriter w = new QueueWriter (p, null, journal, 2, 5)
+		assert w.start () : "writer didn't start"
+		// nothing is written while down, so the queue fills
+		p.down = true
+		assert w.add (p, null, record ("a0")) : "record not queued"
+		assert w.add (p, null, record ("a1")) : "record not queued"
+		assert !w.add (p, null, record ("a2")) : "queue not full"
+		// an update still waiting for its insert goes in behind it
+		RcvRecord u = record ("a1")
+		u.setApplicationStatus ("done")
+		assert w.update (p, null, u) : "update not queued"
+		assert w.size () == 3 : "update not queued behind insert"
+		// one for a record already written is done right away
+		assert !w.update (p, null, record ("gone")) : "update queued past capacity"
+		assert w.size () == 3 : "update queued past capacity"
+		p.down = false
+		for (int i = 0; (i < 200) && (w.size () > 0); i++)
+			Thread.sleep (50)
+		w.stop ()
+		assert names () == ["a0", "a1"] : "queue didn't match " + names ()
+		ResultSet res = conn.createStatement ().executeQuery (
+		  "select applicationStatus from workerqueue where localFileName='a1'")
+		assert res.next () && res.getString (1).equals ("done") : "update not applied"
+	}
+}
+
+/**
+ * Properties for a worker queue in an in memory database, which can be
+ * taken "down"
+ */
+class QueueProps extends Props
+{
+	ConnectionPool pool
+	boolean down = false
+	String table = "workerqueue"
+
+	QueueProps (String url)
+	{
+		pool = new ConnectionPool (url, "sa", "", 2, getLogger ())
+	}
+
+	Connection openConnection ()
+	{
+		return down ? null : pool.getConnection ()
+	}
+
+	void closeConnection (Connection c, boolean discard)
+	{
+		pool.release (c, discard)
+	}
+
+	PreparedStatement prepare (Connection c, String sql)
+	{
+		return pool.prepare (c, sql)
+	}
+
+	String getTableName ()
+	{
+		return table
+	}
+
+	String getProperty (String name)
+	{
+		return name.equals (PhinmsX.RECORDIDQUERY) ? "identity" : null
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.lang.management.*;
+import tdunnick.phinmsx.domain.*;
+import tdunnick.phinmsx.domain.receiver.*;
+import tdunnick.phinmsx.controller.*;
+
+/**
+ * Bytes allocated per message by the receiver's naming and queue record
+ * helpers (setFileName, getBaseName, sqlEscape, and fmt_date), for
+ * comparing changes to them.  It doesn't run processRequest or
+ * updateQueue, and the count includes Groovy's own call overhead.  This
+ * is not part of AllTests; run it from the project folder with the test
+ * class path, on a JVM that counts allocation per thread.
+ * 
+ * @author tld
+ *
+ */
+public class ReceiverAllocRate
+{
+	Receiver srv = new Receiver ()
+	RcvEnv env = new RcvEnv ()
+	
+	void message ()
+	{
+		srv.setFileName (env, "report.hl7.1234")
+		env.getBaseName ()
+		srv.sqlEscape ("InsertSucceeded")
+		Phinms.fmt_date (null)
+	}
+	
+	/**
+	 * Per thread allocation counts are a Sun/Oracle extension (Java 6u25
+	 * and later), so look them up by name.
+	 * 
+	 * @return method to get a thread's allocated bytes or null
+	 */
+	java.lang.reflect.Method getAllocated ()
+	{
+		try
+		{
+			Class c = Class.forName ("com.sun.management.ThreadMXBean")
+			Object mx = ManagementFactory.getThreadMXBean ()
+			if (!c.isInstance (mx))
+				return null
+			if (!c.getMethod ("isThreadAllocatedMemorySupported").invoke (mx))
+				return null
+			return c.getMethod ("getThreadAllocatedBytes", [Long.TYPE] as Class[])
+		}
+		catch (Throwable e)
+		{
+			return null
+		}
+	}
+	
+	long allocated (java.lang.reflect.Method m)
+	{
+		Object[] args = [Thread.currentThread().getId()]
+		return m.invoke (ManagementFactory.getThreadMXBean (), args)
+	}
+	
+	public static void main (String[] args)
+	{
+		ReceiverAllocRate r = new ReceiverAllocRate ()
+		int count = (args.length > 0) ? args[0].toInteger () : 20000
+		java.lang.reflect.Method m = r.getAllocated ()
+		if (m == null)
+		{
+			println "thread allocation counts not supported"
+			return
+		}
+		for (int i = 0; i < count; i++)
+			r.message ()
+		long start = r.allocated (m)
+		for (int i = 0; i < count; i++)
+			r.message ()
+		println "" + (r.allocated (m) - start).intdiv (count) + " bytes allocated per message"
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import java.util.logging.*;
+import tdunnick.phinmsx.controller.*;
+
+/**
+ * Talks HTTP to a ReceiverServer over a socket, with a stand in for the
+ * Receiver's pipeline.
+ *
+ * @author tld
+ *
+ */
+public class ReceiverServerTest extends GroovyTestCase
+{
+	EchoReceiver receiver
+	ServerSocket server
+	Thread thread
+
+	void start (int max)
+	{
+		receiver = new EchoReceiver ()
+		server = new ServerSocket (0)
+		thread = Thread.start { ReceiverServer.accept (receiver, server, max) }
+	}
+
+	void setUp ()
+	{
+		start (10)
+	}
+
+	void tearDown ()
+	{
+		server.close ()
+		thread.join (5000)
+	}
+
+	Socket connect ()
+	{
+		Socket s = new Socket ("localhost", server.getLocalPort ())
+		s.setSoTimeout (5000)
+		return s
+	}
+
+	void send (Socket s, String text)
+	{
+		s.getOutputStream ().write (text.getBytes ("ISO-8859-1"))
+		s.getOutputStream ().flush ()
+	}
+
+	String post (String body, String headers = "")
+	{
+		return "POST /receiver HTTP/1.1\r\nContent-Type: text/plain\r\n" + headers +
+		  "Content-Length: " + body.length () + "\r\n\r\n" + body
+	}
+
+	/**
+	 * Read a response
+	 *
+	 * @return status line, header lines, and body, or null if closed
+	 */
+	List read (Socket s)
+	{
+		InputStream in = s.getInputStream ()
+		List l = []
+		String line
+		while (((line = readLine (in)) != null) && (line.length () > 0))
+			l.add (line)
+		if (l.isEmpty ())
+			return null
+		int size = 0
+		l.each { if (it.toLowerCase ().startsWith ("content-length:")) size = it.substring (15).trim ().toInteger () }
+		byte[] b = new byte[size]
+		int n = 0
+		while (n < size)
+			n += in.read (b, n, size - n)
+		l.add (new String (b, "ISO-8859-1"))
+		return l
+	}
+
+	String readLine (InputStream in)
+	{
+		StringBuffer b = new StringBuffer ()
+		int c
+		while ((c = in.read ()) != ('\n' as char))
+		{
+			if (c < 0)
+				return (b.length () == 0) ? null : b.toString ()
+			if (c != ('\r' as char))
+				b.append ((char) c)
+		}
+		return b.toString ()
+	}
+
+	void testKeepAlive ()
+	{
+		Socket s = connect ()
+		// both in one write, so the first body mustn't read into the second
+		send (s, post ("hello") + post ("goodbye"))
+		List r = read (s)
+		assert r[0] == "HTTP/1.1 200 OK" : "first not answered " + r
+		assert r[-1] == "got 5" : "first body wrong " + r
+		r = read (s)
+		assert r[0] == "HTTP/1.1 200 OK" : "second not answered " + r
+		assert r[-1] == "got 7" : "second body wrong " + r
+		send (s, "GET / HTTP/1.1\r\nConnection: close\r\n\r\n")
+		r = read (s)
+		assert r[0] == "HTTP/1.1 200 OK" : "GET not answered " + r
+		assert r.contains ("Connection: close") : "close not answered " + r
+		assert read (s) == null : "connection not closed"
+		s.close ()
+	}
+
+	void testUnread ()
+	{
+		receiver.limit = 2
+		Socket s = connect ()
+		send (s, post ("hello") + post ("goodbye"))
+		assert read (s)[-1] == "got 2" : "body not limited"
+		List r = read (s)
+		assert r[0] == "HTTP/1.1 200 OK" : "unread body not skipped " + r
+		assert r[-1] == "got 2" : "unread body not skipped " + r
+		s.close ()
+	}
+
+	void testErrors ()
+	{
+		Socket s = connect ()
+		send (s, "POST /receiver HTTP/1.1\r\n\r\n")
+		assert read (s)[0] == "HTTP/1.1 411 Length Required" : "length not required"
+		assert read (s) == null : "connection not closed"
+		s.close ()
+		s = connect ()
+		send (s, "PUT /receiver HTTP/1.1\r\nContent-Length: 0\r\n\r\n")
+		assert read (s)[0] == "HTTP/1.1 405 Method Not Allowed" : "PUT allowed"
+		s.close ()
+		s = connect ()
+		String h = ""
+		for (int i = 0; i < 200; i++)
+			h += "X-Test-" + i + ": " + i + "\r\n"
+		send (s, post ("hello", h))
+		assert read (s)[0] == "HTTP/1.1 431 Request Header Fields Too Large" : "too many headers taken"
+		s.close ()
+		s = connect ()
+		send (s, post ("hello", "X-Test: " + ("x" * 9000) + "\r\n"))
+		assert read (s)[0] == "HTTP/1.1 431 Request Header Fields Too Large" : "long header taken"
+		s.close ()
+		s = connect ()
+		send (s, "GET /" + ("x" * 9000) + " HTTP/1.1\r\n\r\n")
+		assert read (s)[0] == "HTTP/1.1 414 URI Too Long" : "long request line taken"
+		s.close ()
+		s = connect ()
+		send (s, "POST /receiver HTTP/1.1\r\nContent-Length: 99999999999999999999\r\n\r\n")
+		assert read (s)[0] == "HTTP/1.1 400 Bad Request" : "huge length taken"
+		s.close ()
+		receiver.busy = true
+		s = connect ()
+		send (s, post ("hello"))
+		List r = read (s)
+		assert r[0] == "HTTP/1.1 503 Service Unavailable" : "busy not refused " + r
+		assert r.contains ("Retry-After: 7") : "no retry " + r
+		assert r[-1] == "busy\n" : "no busy response " + r
+		s.close ()
+	}
+
+	void testContinue ()
+	{
+		Socket s = connect ()
+		String p = post ("hello", "Expect: 100-continue\r\n")
+		int i = p.indexOf ("\r\n\r\n") + 4
+		send (s, p.substring (0, i))
+		List r = read (s)
+		assert r[0] == "HTTP/1.1 100 Continue" : "not told to continue " + r
+		send (s, p.substring (i))
+		assert read (s)[-1] == "got 5" : "body not read after continue"
+		s.close ()
+	}
+
+	void testConnections ()
+	{
+		tearDown ()
+		start (1)
+		Socket a = connect ()
+		send (a, "GET / HTTP/1.1\r\n\r\n")
+		assert read (a)[0] == "HTTP/1.1 200 OK" : "first connection not served"
+		Socket b = connect ()
+		b.setSoTimeout (500)
+		send (b, "GET / HTTP/1.1\r\n\r\n")
+		try
+		{
+			read (b)
+			fail ("served over the limit")
+		}
+		catch (SocketTimeoutException e)
+		{
+		}
+		// served once the first goes away
+		a.close ()
+		b.setSoTimeout (5000)
+		assert read (b)[0] == "HTTP/1.1 200 OK" : "waiting connection not served"
+		b.close ()
+	}
+}
+
+/**
+ * Answers with how much of the body it read
+ */
+class EchoReceiver extends Receiver
+{
+	int limit = Integer.MAX_VALUE
+	boolean busy = false
+
+	Logger getLogger ()
+	{
+		return Logger.getLogger ("")
+	}
+
+	boolean admit (long size)
+	{
+		return !busy
+	}
+
+	void leave (long size)
+	{
+	}
+
+	int getRetryAfter ()
+	{
+		return 7
+	}
+
+	void writeBusy (OutputStream out)
+	{
+		out.write ("busy\n".getBytes ())
+	}
+
+	void receive (String contentType, InputStream in, OutputStream out)
+	{
+		int n = 0
+		while ((n < limit) && (in.read () >= 0))
+			n++
+		out.write (("got " + n).getBytes ())
+	}
+}
@@ -48,10 +48,11 @@ public class ReceiverTest extends GroovyTestCase
 		env.payloadName = fname
 		env.payload = payload.getBytes();
 		println ("getting response")
-		StringBuffer r = srv.getResponse (env)
+		ByteArrayOutputStream r = new ByteArrayOutputStream ()
+		srv.writeResponse (env, r)
 		println r.toString ()
 		RcvRequest rq = new RcvRequest ();
-        ByteArrayInputStream inp = new ByteArrayInputStream (r.toString().getBytes())
+        ByteArrayInputStream inp = new ByteArrayInputStream (r.toByteArray())
         assert rq.parse (inp) : "failed to parse response"
         assert rq.getFileName().equals(fname) : "file name"
         assert new String(rq.getPayLoad()).equals(payload)
@@ -0,0 +1,96 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import groovy.util.GroovyTestCase;
+import java.sql.*;
+import tdunnick.phinmsx.domain.receiver.*;
+
+/**
+ * @author tld
+ *
+ */
+public class RecordIdsTest extends GroovyTestCase
+{
+	static int db = 0
+	Connection conn
+	String key
+
+	void setUp ()
+	{
+		Class.forName ("org.hsqldb.jdbcDriver")
+		key = "jdbc:hsqldb:mem:ids" + db++
+		conn = DriverManager.getConnection (key, "sa", "")
+		Statement s = conn.createStatement ()
+		s.executeUpdate ("create table workerqueue (recordId integer primary key)")
+		s.executeUpdate ("insert into workerqueue values (41)")
+		s.close ()
+	}
+
+	void tearDown ()
+	{
+		conn.createStatement ().execute ("shutdown")
+		conn.close ()
+	}
+
+	void insert (int id)
+	{
+		conn.createStatement ().executeUpdate ("insert into workerqueue values (" + id + ")")
+	}
+
+	void testNext ()
+	{
+		RecordIds ids = RecordIds.getIds (key, "workerqueue", null)
+		assert ids.next (conn, 3) == 42 : "didn't start after highest ID"
+		assert ids.next (conn, 3) == 43 : "ID's not in order"
+		ResultSet res = conn.createStatement ().executeQuery (
+		  "select nextId from " + RecordIds.COUNTER + " where tableName='workerqueue'")
+		assert res.next () && (res.getInt (1) == 45) : "counter not moved past the block"
+		assert conn.getAutoCommit () : "auto commit not restored"
+	}
+
+	void testShared ()
+	{
+		// separate allocators stand in for two Receivers on one database
+		RecordIds a = RecordIds.getIds (key + "a", "workerqueue", null)
+		RecordIds b = RecordIds.getIds (key + "b", "workerqueue", null)
+		Connection c = DriverManager.getConnection (key, "sa", "")
+		HashSet seen = new HashSet ()
+		for (int i = 0; i < 20; i++)
+		{
+			int id = a.next (conn, 4)
+			insert (id)
+			assert seen.add (id) : "duplicate ID " + id
+			id = b.next (c, 3)
+			insert (id)
+			assert seen.add (id) : "duplicate ID " + id
+		}
+		c.close ()
+	}
+
+	void testOthers ()
+	{
+		RecordIds ids = RecordIds.getIds (key, "workerqueue", "counters")
+		ids.next (conn, 2)
+		ids.next (conn, 2)
+		// someone not using the counter adds a record
+		insert (100)
+		assert ids.next (conn, 2) == 101 : "new block didn't skip others' records"
+		ids.reset ()
+		assert ids.next (conn, 2) == 103 : "reset didn't start a new block"
+	}
+}
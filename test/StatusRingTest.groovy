@@ -0,0 +1,153 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import groovy.util.GroovyTestCase;
+import java.util.logging.*;
+import tdunnick.phinmsx.domain.receiver.*;
+
+/**
+ * @author tld
+ *
+ */
+public class StatusRingTest extends GroovyTestCase
+{
+	void testRing ()
+	{
+		StatusRing r = new StatusRing (3)
+		assert r.getRecords().isEmpty() : "new ring not empty"
+		r.add ("a")
+		r.add ("b")
+		assert r.getRecords() == ["b", "a"] : "wrong partial ring " + r.getRecords()
+		r.add ("c")
+		r.add ("d")
+		assert r.getRecords() == ["d", "c", "b"] : "wrong full ring " + r.getRecords()
+	}
+	
+	void testCounts ()
+	{
+		StatusRing r = new StatusRing (3)
+		r.count ("Status", "success")
+		r.count ("Status", "success")
+		r.count ("Status", "aborted")
+		r.count ("Error", "none")
+		Map m = r.getCounts ()
+		assert m["Status"]["success"] == 2 : "wrong success count"
+		assert m["Status"]["aborted"] == 1 : "wrong aborted count"
+		assert m["Error"]["none"] == 1 : "wrong error count"
+	}
+	
+	void testJournal ()
+	{
+		File f = File.createTempFile ("status", ".bin")
+		String[] fields = [ null, "Status" ]
+		Logger logger = Logger.getLogger ("")
+		try
+		{
+			// an old style status file
+			f.withObjectOutputStream { it.writeObject ([["2", "aborted"] as String[],
+				["1", "success"] as String[]] as ArrayList) }
+			StatusRing r = new StatusRing (3)
+			StatsJournal j = new StatsJournal (r, fields, f, logger)
+			assert j.start () : "journal didn't start"
+			assert r.getRecords().size() == 2 : "old status not loaded"
+			j.add (["3", "success"] as String[])
+			j.add (["4", "success"] as String[])
+			j.stop ()
+			
+			r = new StatusRing (3)
+			j = new StatsJournal (r, fields, f, logger)
+			assert j.start () : "journal didn't restart"
+			j.stop ()
+			assert r.getRecords().collect { it[0] } == ["4", "3", "2"] : "wrong events replayed"
+			assert r.getCounts()["Status"]["success"] == 3 : "wrong count replayed"
+			assert r.getCounts()["Status"]["aborted"] == 1 : "wrong count replayed"
+		}
+		finally
+		{
+			f.delete ()
+		}
+	}
+	
+	void testCompact ()
+	{
+		File f = File.createTempFile ("status", ".bin")
+		String[] fields = [ null, "Status" ]
+		Logger logger = Logger.getLogger ("")
+		try
+		{
+			f.delete ()
+			StatusRing r = new StatusRing (3)
+			StatsJournal j = new StatsJournal (r, fields, f, logger)
+			assert j.start () : "journal didn't start"
+			// enough events for the writer to take snapshots
+			for (int i = 0; i < 2500; i++)
+			{
+				j.add ([Integer.toString (i), (i % 5 == 0) ? null : "success"] as String[])
+				if (i % 1000 == 0)
+					Thread.sleep (1100)
+			}
+			j.stop ()
+			assert f.length () < 2500 * 10 : "journal not compacted"
+			
+			r = new StatusRing (3)
+			j = new StatsJournal (r, fields, f, logger)
+			assert j.start () : "journal didn't restart"
+			j.stop ()
+			assert r.getRecords().collect { it[0] } == ["2499", "2498", "2497"] : "wrong events replayed"
+			assert r.getCounts()["Status"]["success"] == 2000 : "wrong count replayed"
+			assert r.getCounts()["Status"]["null"] == 500 : "wrong count replayed"
+		}
+		finally
+		{
+			f.delete ()
+		}
+	}
+	
+	void testRecover ()
+	{
+		File f = File.createTempFile ("status", ".bin")
+		File snap = new File (f.getPath () + ".new")
+		String[] fields = [ null, "Status" ]
+		Logger logger = Logger.getLogger ("")
+		try
+		{
+			f.delete ()
+			StatusRing r = new StatusRing (3)
+			StatsJournal j = new StatsJournal (r, fields, f, logger)
+			assert j.start () : "journal didn't start"
+			j.add (["1", "success"] as String[])
+			j.stop ()
+			// stopped after a snapshot was written but before it replaced the journal
+			assert f.renameTo (snap) : "can't set up snapshot"
+			
+			r = new StatusRing (3)
+			j = new StatsJournal (r, fields, f, logger)
+			assert j.start () : "journal didn't restart"
+			j.stop ()
+			assert r.getRecords().collect { it[0] } == ["1"] : "snapshot not recovered"
+			assert r.getCounts()["Status"]["success"] == 1 : "count not recovered"
+			assert f.exists () && !snap.exists () : "journal not restored"
+		}
+		finally
+		{
+			f.delete ()
+			snap.delete ()
+		}
+	}
+}
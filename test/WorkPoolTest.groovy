@@ -0,0 +1,72 @@
+/*
+ *  Copyright (c) 2012-2013 Thomas Dunnick (https://mywebspace.wisc.edu/tdunnick/web)
+ *
+ *  This file is part of PhinmsX.
+ *
+ *  PhinmsX is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  PhinmsX is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with PhinmsX.  If not, see <http://www.gnu.org/licenses/>.
+ */
+import groovy.util.GroovyTestCase;
+import java.util.logging.*;
+import tdunnick.phinmsx.util.*;
+
+/**
+ * @author tld
+ *
+ */
+public class WorkPoolTest extends GroovyTestCase
+{
+	void testRun ()
+	{
+		WorkPool p = new WorkPool ("test", 2, 10, Logger.getLogger (""))
+		List done = Collections.synchronizedList (new ArrayList ())
+		for (int i = 0; i < 5; i++)
+		{
+			int n = i
+			p.execute ({ done.add (n) } as Runnable)
+		}
+		p.stop ()
+		assert done.size () == 5 : "jobs not all run"
+		p.execute ({ done.add (Thread.currentThread ()) } as Runnable)
+		assert done.get (5) == Thread.currentThread () : "stopped pool didn't run job in caller"
+	}
+	
+	void testFull ()
+	{
+		WorkPool p = new WorkPool ("test", 1, 1, Logger.getLogger (""))
+		Object lock = new Object ()
+		List threads = Collections.synchronizedList (new ArrayList ())
+		// tie up the only thread, then fill the queue
+		synchronized (lock)
+		{
+			p.execute ({ synchronized (lock) { threads.add (Thread.currentThread ()) } } as Runnable)
+			Thread.sleep (100)
+			p.execute ({ threads.add (Thread.currentThread ()) } as Runnable)
+			p.execute ({ threads.add (Thread.currentThread ()) } as Runnable)
+			assert threads.size () == 1 : "full queue didn't run job in caller"
+			assert threads.get (0) == Thread.currentThread () : "job ran on the wrong thread"
+		}
+		p.stop ()
+		assert threads.size () == 3 : "jobs not all run"
+	}
+	
+	void testFailure ()
+	{
+		WorkPool p = new WorkPool ("test", 1, 10, Logger.getLogger (""))
+		List done = Collections.synchronizedList (new ArrayList ())
+		p.execute ({ throw new RuntimeException ("expected") } as Runnable)
+		p.execute ({ done.add ("ok") } as Runnable)
+		p.stop ()
+		assert done.size () == 1 : "pool stopped after a failed job"
+	}
+}
@@ -89,6 +89,22 @@ class XmlContentTest extends GroovyTestCase
 		// xdump (xmlc)
 	}
 	
+	public final void testFlatView ()
+	{
+		assert xmlc.getValue ("EncryptedData..KeyInfo.EncryptedKey[0]..KeyInfo.KeyName.").equals("key") : "redundant dots not ignored"
+		assert xmlc.getValue ("KeyInfo.KeyName") == null : "wrong root matched"
+		assert xmlc.getTagCount ("EncryptedData.CipherData") == 1 : "incorrect tag count"
+		// update after lookups, both existing and new elements
+		xmlc.setValue (tag, "changed")
+		assert xmlc.getValue (tag).equals("changed") : "existing value not updated"
+		xmlc.setValue ("EncryptedData.CipherData[1].CipherValue", "new")
+		assert xmlc.getValue ("EncryptedData.CipherData[1].CipherValue").equals("new") : "new value not found"
+		assert xmlc.getTagCount ("EncryptedData.CipherData") == 2 : "new tag not counted"
+		assert xmlc.delete ("EncryptedData.CipherData[1]") : "delete failed"
+		assert xmlc.getValue ("EncryptedData.CipherData[1].CipherValue") == null : "deleted value found"
+		assert xmlc.getElement ("EncryptedData.CipherData[1]") != null : "deleted too much"
+	}
+	
 	public final void testAttribute ()
 	{
 	  assert xmlc.setAttribute (tag, "id", "foobar") : "couldn't set attribute"